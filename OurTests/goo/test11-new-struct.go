@@ -0,0 +1,15 @@
+package main
+
+import "fmt"
+
+type pair struct {
+    x int
+    y float64
+}
+
+func main() {
+    var n *int = new(int)
+    var p *pair = new(pair)
+    *n = 5
+    fmt.Printf("%d\n", *n)
+}
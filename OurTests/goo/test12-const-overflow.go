@@ -0,0 +1,14 @@
+package main
+
+// Each declaration is rejected:
+// error: constant 1099511627776 overflows int
+// error: constant 2147483648 overflows int
+// error: constant -1 overflows uint32
+// error: constant 1.5 truncated to int
+
+func main() {
+    var x int = 1 << 40
+    var y int = 1 << 31
+    var u uint32 = -1
+    var t int = 1.5
+}
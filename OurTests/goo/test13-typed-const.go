@@ -0,0 +1,26 @@
+package main
+
+import "fmt"
+
+const big = 1 << 40
+const one uint32 = 1
+const flipped uint32 = ^one    // 4294967294, not -2
+const third float64 = float64(1) / 3
+const abc = "ab" + "c"
+
+func half() float64 {
+    return 1
+}
+
+func main() {
+    var f float64 = 3
+    var g float64 = 1 << 3
+    var n int = 1<<31 - 1
+    var m int = 2.0
+    var u uint32 = 1<<32 - 1
+    var v uint32 = ^one
+    var w int = -int(5)
+    f = 2
+    m = big >> 20
+    fmt.Printf("%f %f %d %d %d %d %d %d %f %f %s\n", f, g, n, m, u, v, flipped, w, third, half(), abc)
+}
@@ -0,0 +1,164 @@
+// Ast.java
+//
+// A compact tree for expressions, built by AstBuilder after pass 1. Pass 2
+// checks these trees rather than the expressions in the parse tree, and
+// the code generator generates code from them.
+//
+// In the parse tree, an expression such as  x  is a chain of wrapper
+// nodes (expression, unaryExpr, primaryExpr, operand, operandName). Here
+// it is a single Name node. Parentheses disappear, and each operator is
+// held as a string in its node.
+//
+// Pass 2 completes each node: it sets the Type, the Symbol of a Name, and
+// the value of a constant expression, so that the code generator need
+// not evaluate its subtree. It also decides what a call and a selector
+// mean, which cannot be known while the names are unresolved: a call of
+// a type is a conversion, and a selector applied to a package name is a
+// member of the package.
+//
+// Each node keeps the parse tree node it came from, for the position in
+// error messages; the parse tree below it has been released (see
+// AstBuilder), except for the type syntax which a node refers to.
+
+import org.antlr.v4.runtime.*;
+import java.util.*;
+
+public class Ast {
+
+	public interface Visitor<T> {
+		T visitNameNode(Name e);
+		T visitLitNode(Lit e);
+		T visitCompositeNode(Composite e);
+		T visitNewNode(New e);
+		T visitConvertNode(Convert e);
+		T visitSelectorNode(Selector e);
+		T visitIndexNode(Index e);
+		T visitSliceNode(Slice e);
+		T visitCallNode(Call e);
+		T visitUnaryNode(Unary e);
+		T visitBinaryNode(Binary e);
+	}
+
+	public static abstract class Expr {
+		public final ParserRuleContext ctx;
+		public Type type;		// null if pass 2 did not determine it
+		public Constant value;	// null unless it is a constant expression
+
+		Expr( ParserRuleContext ctx ) { this.ctx = ctx; }
+
+		public abstract <T> T accept( Visitor<T> v );
+	}
+
+	// a use of an identifier
+	public static class Name extends Expr {
+		public final String name;
+		public Symbol symbol;	// set by pass 2
+		Name( ParserRuleContext ctx, String name ) {
+			super(ctx);  this.name = name;
+		}
+		public <T> T accept( Visitor<T> v ) { return v.visitNameNode(this); }
+	}
+
+	// an IntLit, FloatLit, RuneLit or StringLit
+	public static class Lit extends Expr {
+		public final int tokenType;	// GooParser.IntLit etc.
+		public final String text;
+		Lit( ParserRuleContext ctx, int tokenType, String text ) {
+			super(ctx);  this.tokenType = tokenType;  this.text = text;
+		}
+		public <T> T accept( Visitor<T> v ) { return v.visitLitNode(this); }
+	}
+
+	// a composite literal T{...}, or a literal value {...} nested inside
+	// one, whose type is omitted (literalType is then null)
+	public static class Composite extends Expr {
+		public final GooParser.LiteralTypeContext literalType;
+		public final List<Expr> elements;
+		Composite( ParserRuleContext ctx, GooParser.LiteralTypeContext literalType, List<Expr> elements ) {
+			super(ctx);  this.literalType = literalType;  this.elements = elements;
+		}
+		public <T> T accept( Visitor<T> v ) { return v.visitCompositeNode(this); }
+	}
+
+	// new(T); the type of the node is *T
+	public static class New extends Expr {
+		public final GooParser.TypeContext typeCtx;
+		New( ParserRuleContext ctx, GooParser.TypeContext typeCtx ) {
+			super(ctx);  this.typeCtx = typeCtx;
+		}
+		public <T> T accept( Visitor<T> v ) { return v.visitNewNode(this); }
+	}
+
+	// T(x), for an array, slice or struct type T; a conversion to any
+	// other type has the syntax of a call (see Call)
+	public static class Convert extends Expr {
+		public final GooParser.ConversionTypeContext typeCtx;
+		public final Expr operand;
+		Convert( ParserRuleContext ctx, GooParser.ConversionTypeContext typeCtx, Expr operand ) {
+			super(ctx);  this.typeCtx = typeCtx;  this.operand = operand;
+		}
+		public <T> T accept( Visitor<T> v ) { return v.visitConvertNode(this); }
+	}
+
+	// x.f, selecting a field of a struct, or pkg.Member for an imported
+	// package, in which case pass 2 sets member
+	public static class Selector extends Expr {
+		public final Expr base;
+		public final String name;
+		public Symbol member;	// null unless it is a member of a package
+		Selector( ParserRuleContext ctx, Expr base, String name ) {
+			super(ctx);  this.base = base;  this.name = name;
+		}
+		public <T> T accept( Visitor<T> v ) { return v.visitSelectorNode(this); }
+	}
+
+	// a[i]
+	public static class Index extends Expr {
+		public final Expr base, index;
+		Index( ParserRuleContext ctx, Expr base, Expr index ) {
+			super(ctx);  this.base = base;  this.index = index;
+		}
+		public <T> T accept( Visitor<T> v ) { return v.visitIndexNode(this); }
+	}
+
+	// a[lo:hi:max]; the omitted bounds are null
+	public static class Slice extends Expr {
+		public final Expr base, lo, hi, max;
+		Slice( ParserRuleContext ctx, Expr base, Expr lo, Expr hi, Expr max ) {
+			super(ctx);  this.base = base;  this.lo = lo;  this.hi = hi;  this.max = max;
+		}
+		public <T> T accept( Visitor<T> v ) { return v.visitSliceNode(this); }
+	}
+
+	// f(args), or T(x) if the function part denotes a type, in which case
+	// pass 2 sets conversion to T
+	public static class Call extends Expr {
+		public final Expr function;
+		public final List<Expr> args;
+		public Type conversion;
+		Call( ParserRuleContext ctx, Expr function, List<Expr> args ) {
+			super(ctx);  this.function = function;  this.args = args;
+		}
+		public <T> T accept( Visitor<T> v ) { return v.visitCallNode(this); }
+	}
+
+	// op x, where op is one of + - ! ^ * &
+	public static class Unary extends Expr {
+		public final String op;
+		public final Expr operand;
+		Unary( ParserRuleContext ctx, String op, Expr operand ) {
+			super(ctx);  this.op = op;  this.operand = operand;
+		}
+		public <T> T accept( Visitor<T> v ) { return v.visitUnaryNode(this); }
+	}
+
+	// x op y, for the arithmetic, comparison and boolean operators
+	public static class Binary extends Expr {
+		public final String op;
+		public final Expr left, right;
+		Binary( ParserRuleContext ctx, String op, Expr left, Expr right ) {
+			super(ctx);  this.op = op;  this.left = left;  this.right = right;
+		}
+		public <T> T accept( Visitor<T> v ) { return v.visitBinaryNode(this); }
+	}
+}
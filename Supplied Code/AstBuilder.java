@@ -0,0 +1,200 @@
+// AstBuilder.java
+//
+// Lowers every expression in the parse tree to an Ast tree (see Ast.java).
+// It runs once, after pass 1, which does not look at expressions. The
+// result maps each outermost expression node of the parse tree to its Ast
+// tree; pass 2 checks those trees, filling in their types, symbols and
+// constant values, and the code generator generates code from them.
+//
+// No name is resolved here, so a call and a selector are lowered as they
+// were parsed; pass 2 decides which of them are conversions and package
+// members.
+//
+// Once an expression has been lowered, the parse tree below its outermost
+// node is released, so that the rest of the compilation does not keep
+// both trees. Only the nodes which an Ast node refers to stay reachable:
+// the node it came from (for its position) and the syntax of a type it
+// names, such as the T of new(T), which pass 2 still visits.
+
+import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.tree.*;
+import java.util.*;
+
+public class AstBuilder extends GooBaseVisitor<Ast.Expr> {
+	NodeTable<Ast.Expr> ast = new NodeTable<Ast.Expr>();
+	int nodeCount = 0;
+	int releasedCount = 0;
+
+	// the Ast trees, keyed by the outermost expression nodes
+	public NodeTable<Ast.Expr> getAst() {
+		return ast;
+	}
+
+	public int getNodeCount() {
+		return nodeCount;
+	}
+
+	// the number of parse tree nodes detached from the tree
+	public int getReleasedCount() {
+		return releasedCount;
+	}
+
+	// *************** Visit methods for the expressions *******************
+
+	// each is an outermost expression, since lower() handles the
+	// expressions nested inside it
+
+	@Override
+	public Ast.Expr visitUnExp(GooParser.UnExpContext ctx) {
+		return lowerRoot(ctx);
+	}
+
+	@Override
+	public Ast.Expr visitNumExp(GooParser.NumExpContext ctx) {
+		return lowerRoot(ctx);
+	}
+
+	@Override
+	public Ast.Expr visitRelExp(GooParser.RelExpContext ctx) {
+		return lowerRoot(ctx);
+	}
+
+	@Override
+	public Ast.Expr visitBoolExp(GooParser.BoolExpContext ctx) {
+		return lowerRoot(ctx);
+	}
+
+	private Ast.Expr lowerRoot( GooParser.ExpressionContext ctx ) {
+		Ast.Expr e = lower(ctx);
+		ast.put(ctx, e);
+		release(ctx);
+		return e;
+	}
+
+	// ********************** lowering ********************************
+
+	private Ast.Expr node( Ast.Expr e ) {
+		nodeCount++;
+		return e;
+	}
+
+	Ast.Expr lower( GooParser.ExpressionContext ctx ) {
+		if (ctx instanceof GooParser.UnExpContext)
+			return lower(((GooParser.UnExpContext)ctx).unaryExpr());
+		String op;
+		GooParser.ExpressionContext x, y;
+		if (ctx instanceof GooParser.NumExpContext) {
+			GooParser.NumExpContext b = (GooParser.NumExpContext)ctx;
+			op = b.addOp() != null? b.addOp().getStart().getText() : b.mulOp().getStart().getText();
+			x = b.expression(0);  y = b.expression(1);
+		} else if (ctx instanceof GooParser.RelExpContext) {
+			GooParser.RelExpContext b = (GooParser.RelExpContext)ctx;
+			op = b.relOp().getStart().getText();
+			x = b.expression(0);  y = b.expression(1);
+		} else {
+			GooParser.BoolExpContext b = (GooParser.BoolExpContext)ctx;
+			op = b.getChild(1).getText();
+			x = b.expression(0);  y = b.expression(1);
+		}
+		return node(new Ast.Binary(ctx, op, lower(x), lower(y)));
+	}
+
+	Ast.Expr lower( GooParser.UnaryExprContext ctx ) {
+		if (ctx.primaryExpr() != null)
+			return lower(ctx.primaryExpr());
+		return node(new Ast.Unary(ctx, ctx.unaryOp().getStart().getText(), lower(ctx.unaryExpr())));
+	}
+
+	Ast.Expr lower( GooParser.PrimaryExprContext ctx ) {
+		if (ctx.operand() != null)
+			return lower(ctx.operand());
+		if (ctx.conversion() != null) {
+			GooParser.ConversionContext c = ctx.conversion();
+			visit(c.conversionType());	// for any array length in it
+			return node(new Ast.Convert(c, c.conversionType(), lower(c.expression())));
+		}
+		if (ctx.newExpr() != null) {
+			GooParser.NewExprContext n = ctx.newExpr();
+			visit(n.type());
+			return node(new Ast.New(n, n.type()));
+		}
+		Ast.Expr base = lower(ctx.primaryExpr());
+		if (ctx.selector() != null)
+			return node(new Ast.Selector(ctx, base, ctx.selector().Identifier().getText()));
+		if (ctx.index() != null)
+			return node(new Ast.Index(ctx, base, lower(ctx.index().expression())));
+		if (ctx.slice() != null) {
+			// the bounds are told apart by the colons which precede them
+			Ast.Expr[] bounds = new Ast.Expr[3];
+			int colons = 0;
+			for( ParseTree child : ctx.slice().children ) {
+				if (child instanceof GooParser.ExpressionContext)
+					bounds[colons] = lower((GooParser.ExpressionContext)child);
+				else if (child.getText().equals(":"))
+					colons++;
+			}
+			return node(new Ast.Slice(ctx, base, bounds[0], bounds[1], bounds[2]));
+		}
+		List<Ast.Expr> args = new ArrayList<Ast.Expr>();
+		GooParser.ExpressionListContext el = ctx.arguments().expressionList();
+		if (el != null)
+			for( GooParser.ExpressionContext exp : el.exl )
+				args.add(lower(exp));
+		return node(new Ast.Call(ctx, base, args));
+	}
+
+	Ast.Expr lower( GooParser.OperandContext ctx ) {
+		if (ctx.expression() != null)
+			return lower(ctx.expression());
+		if (ctx.operandName() != null) {
+			GooParser.OperandNameContext on = ctx.operandName();
+			return node(new Ast.Name(on, on.Identifier().getText()));
+		}
+		GooParser.LiteralContext lit = ctx.literal();
+		if (lit.basicLit() != null) {
+			GooParser.BasicLitContext b = lit.basicLit();
+			Token tok = ((TerminalNode)b.getChild(0)).getSymbol();
+			return node(new Ast.Lit(b, tok.getType(), tok.getText()));
+		}
+		GooParser.CompositeLitContext cl = lit.compositeLit();
+		visit(cl.literalType());
+		return node(new Ast.Composite(cl, cl.literalType(), lowerElements(cl.literalValue())));
+	}
+
+	private List<Ast.Expr> lowerElements( GooParser.LiteralValueContext ctx ) {
+		List<Ast.Expr> elements = new ArrayList<Ast.Expr>();
+		if (ctx.elementList() == null)
+			return elements;
+		for( GooParser.ElementContext el : ctx.elementList().exl ) {
+			GooParser.ValueContext v = el.value();
+			if (v.expression() != null)
+				elements.add(lower(v.expression()));
+			else
+				elements.add(node(new Ast.Composite(v.literalValue(), null,
+						lowerElements(v.literalValue()))));
+		}
+		return elements;
+	}
+
+	// ********************** releasing the parse tree ********************
+
+	// the type syntax below an expression, which pass 2 visits
+	private static boolean isTypeSyntax( ParseTree node ) {
+		return node instanceof GooParser.TypeContext
+			|| node instanceof GooParser.LiteralTypeContext
+			|| node instanceof GooParser.ConversionTypeContext;
+	}
+
+	// detaches the children of ctx and of the rule nodes below it
+	private void release( ParserRuleContext ctx ) {
+		if (ctx.children == null)
+			return;
+		for( ParseTree child : ctx.children ) {
+			if (child instanceof ParserRuleContext && !isTypeSyntax(child)) {
+				release((ParserRuleContext)child);
+				releasedCount++;
+			}
+		}
+		ctx.children = null;
+	}
+}
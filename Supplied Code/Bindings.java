@@ -0,0 +1,47 @@
+// Bindings.java
+//
+// The symbols which SymTabVisitor2 resolved, recorded so that the later
+// passes can use them without resolving the names again. Pass 2 resolves
+// a name at the point where it is used, so a binding is also more exact
+// than resolving the name in the completed scope afterwards: in
+//      x := 1;  { y := x; x := 2 }
+// the x used to initialize y is the outer x.
+//
+// Two kinds of bindings are kept, in NodeTables:
+//   uses          -- the FunctionSymbol for each functionName
+//   declarations  -- the symbols declared by each identifierList, in order
+// The values of the named constants are kept too, keyed by their symbols.
+// What pass 2 finds inside an expression -- the symbol of a name, the type
+// of a conversion, the value of a constant expression -- is recorded in
+// its Ast node instead (see Ast.java).
+
+import org.antlr.v4.runtime.*;
+import java.util.*;
+
+public class Bindings {
+	private NodeTable<Symbol> uses;
+	private NodeTable<Symbol[]> declarations;
+	private Map<Symbol, Constant> values = new HashMap<Symbol, Constant>();
+
+	// nodeCount is the number of nodes in the (numbered) parse tree
+	public Bindings( int nodeCount ) {
+		uses = new NodeTable<Symbol>(nodeCount);
+		declarations = new NodeTable<Symbol[]>(nodeCount);
+	}
+
+	public void bindUse( ParserRuleContext ctx, Symbol sy ) { uses.put(ctx, sy); }
+
+	public Symbol use( ParserRuleContext ctx ) { return uses.get(ctx); }
+
+	public void bindDeclarations( GooParser.IdentifierListContext ctx, Symbol[] syms ) {
+		declarations.put(ctx, syms);
+	}
+
+	public Symbol[] declarations( GooParser.IdentifierListContext ctx ) {
+		return declarations.get(ctx);
+	}
+
+	public void bindValue( Symbol sy, Constant c ) { values.put(sy, c); }
+
+	public Constant value( Symbol sy ) { return values.get(sy); }
+}
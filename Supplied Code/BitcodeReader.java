@@ -0,0 +1,553 @@
+// BitcodeReader.java
+//
+// Reads a .bc file written by BitcodeWriter back into an IR.Module, for
+// the -dbccheck option: the canonical text of the module read back (see
+// IRWriter) must be the text of the module which was written. Only what
+// BitcodeWriter writes is understood; a file written by llc, which uses
+// abbreviations and blocks not listed here, is rejected.
+//
+// The records are first read into a tree of Blocks; the module is then
+// built from the tree, numbering the values as BitcodeWriter numbers them.
+
+import java.nio.*;
+import java.util.*;
+
+public class BitcodeReader {
+
+	static class Record {
+		final int code;
+		final long[] ops;
+
+		Record( int code, long[] ops ) { this.code = code;  this.ops = ops; }
+	}
+
+	static class Block {
+		final int id;
+		final List<Object> items = new ArrayList<Object>();	// Records and Blocks
+
+		Block( int id ) { this.id = id; }
+
+		Block sub( int id ) {
+			for( Object x : items )
+				if (x instanceof Block && ((Block)x).id == id)
+					return (Block)x;
+			return null;
+		}
+	}
+
+	// ********************** the bit stream ******************************
+
+	private byte[] bytes;
+	private long bit = 0;
+
+	private IllegalArgumentException error( String msg ) {
+		return new IllegalArgumentException("bitcode: " + msg);
+	}
+
+	private long read( int width ) {
+		long v = 0;
+		for( int k = 0; k < width; ) {
+			int index = (int)(bit >>> 3);
+			if (index >= bytes.length)
+				throw error("unexpected end of file");
+			int off = (int)(bit & 7);
+			int take = Math.min(8 - off, width - k);
+			long b = ((bytes[index] & 0xFF) >>> off) & ((1 << take) - 1);
+			v |= b << k;
+			k += take;
+			bit += take;
+		}
+		return v;
+	}
+
+	private long readVBR( int width ) {
+		long hi = 1L << (width-1);
+		long v = 0;
+		for( int shift = 0; ; shift += width-1 ) {
+			long chunk = read(width);
+			v |= (chunk & (hi-1)) << shift;
+			if ((chunk & hi) == 0)
+				return v;
+		}
+	}
+
+	private void align32() {
+		bit = (bit + 31) & ~31L;
+	}
+
+	// the contents of a block, after its ENTER_SUBBLOCK
+	private Block readBlock( int id, int width ) {
+		Block b = new Block(id);
+		for( ; ; ) {
+			int abbrev = (int)read(width);
+			switch(abbrev) {
+			case BitcodeWriter.END_BLOCK:
+				align32();
+				return b;
+			case BitcodeWriter.ENTER_SUBBLOCK:
+				int sub = (int)readVBR(8);
+				int w = (int)readVBR(4);
+				align32();
+				read(32);			// the length in words
+				b.items.add(readBlock(sub, w));
+				break;
+			case BitcodeWriter.UNABBREV_RECORD:
+				int code = (int)readVBR(6);
+				long[] ops = new long[(int)readVBR(6)];
+				for( int k = 0; k < ops.length; k++ )
+					ops[k] = readVBR(6);
+				b.items.add(new Record(code, ops));
+				break;
+			default:
+				throw error("abbreviations are not supported");
+			}
+		}
+	}
+
+	// ********************** the module ******************************
+
+	private final List<Record> typeRecords = new ArrayList<Record>();
+	private final List<String> typeNames = new ArrayList<String>();	// of the named structs
+	private final Map<Integer,String> typeTexts = new HashMap<Integer,String>();
+	private List<IR.Value> values;
+	private final Map<IR.Function,Record> functionTypes = new IdentityHashMap<IR.Function,Record>();
+	private IR.Module module;
+
+	public IR.Module read( ByteBuffer bc ) {
+		bytes = new byte[bc.remaining()];
+		bc.duplicate().get(bytes);
+		bit = 0;
+		if (read(8) != 'B' || read(8) != 'C' || read(16) != 0xDEC0)
+			throw error("not a bitcode file");
+		Block top = null;
+		while(bit + 32 <= 8L*bytes.length) {
+			if (read(2) != BitcodeWriter.ENTER_SUBBLOCK)
+				throw error("a record outside the module");
+			int id = (int)readVBR(8);
+			int w = (int)readVBR(4);
+			align32();
+			read(32);
+			Block b = readBlock(id, w);
+			if (id == BitcodeWriter.MODULE_BLOCK)
+				top = b;
+		}
+		if (top == null)
+			throw error("no module");
+		return buildModule(top);
+	}
+
+	static String chars( long[] ops, int from ) {
+		StringBuilder sb = new StringBuilder();
+		for( int k = from; k < ops.length; k++ )
+			sb.append((char)ops[k]);
+		return sb.toString();
+	}
+
+	static long decodeSigned( long v ) {
+		return (v & 1) == 0? v >>> 1 : v == 1? Long.MIN_VALUE : -(v >>> 1);
+	}
+
+	static int alignment( long code ) {
+		return code == 0? 0 : 1 << (code - 1);
+	}
+
+	// the names in a VALUE_SYMTAB block, by value number (entries) or by
+	// block number (basic block entries)
+	static void readNames( Block vst, Map<Integer,String> names, Map<Integer,String> blockNames ) {
+		if (vst == null)
+			return;
+		for( Object x : vst.items ) {
+			Record r = (Record)x;
+			if (r.code == BitcodeWriter.VST_ENTRY)
+				names.put((int)r.ops[0], chars(r.ops, 1));
+			else if (r.code == BitcodeWriter.VST_BBENTRY && blockNames != null)
+				blockNames.put((int)r.ops[0], chars(r.ops, 1));
+		}
+	}
+
+	private IR.Module buildModule( Block top ) {
+		module = new IR.Module();
+		values = new ArrayList<IR.Value>();
+		List<Record> globalRecords = new ArrayList<Record>();
+		List<Record> functionRecords = new ArrayList<Record>();
+		for( Object x : top.items ) {
+			if (x instanceof Block) {
+				if (((Block)x).id == BitcodeWriter.TYPE_BLOCK)
+					readTypes((Block)x);
+				continue;
+			}
+			Record r = (Record)x;
+			switch(r.code) {
+			case BitcodeWriter.MODULE_VERSION:
+				if (r.ops[0] != 1)
+					throw error("version " + r.ops[0] + " is not supported");
+				break;
+			case BitcodeWriter.MODULE_TRIPLE:
+				module.triple = chars(r.ops, 0);
+				break;
+			case BitcodeWriter.MODULE_DATALAYOUT:
+				module.preamble = "target datalayout = \"" + chars(r.ops, 0) + "\"";
+				break;
+			case BitcodeWriter.MODULE_GLOBALVAR:
+				globalRecords.add(r);
+				break;
+			case BitcodeWriter.MODULE_FUNCTION:
+				functionRecords.add(r);
+				break;
+			}
+		}
+		for( int k = 0; k < typeRecords.size(); k++ )
+			if (typeRecords.get(k).code == BitcodeWriter.TYPE_STRUCT_NAMED)
+				module.types.add(new IR.TypeDef(typeText(k), "type " + structText(typeRecords.get(k), 1)));
+
+		Map<Integer,String> names = new HashMap<Integer,String>();
+		readNames(top.sub(BitcodeWriter.VALUE_SYMTAB_BLOCK), names, null);
+
+		// the globals are numbered first; their initializers, which may
+		// refer to globals, are known when the constants have been read
+		for( Record r : globalRecords )
+			values.add(new IR.Const(typeText((int)r.ops[0]) + "*", "@" + names.get(values.size())));
+		List<IR.Function> definitions = new ArrayList<IR.Function>();
+		for( Record r : functionRecords ) {
+			int ft = (int)r.ops[0];
+			Record fr = typeRecords.get(ft);
+			IR.Function f = new IR.Function("@" + names.get(values.size()),
+				typeText((int)fr.ops[1]), fr.ops[0] != 0);
+			if (r.ops[2] != 0)
+				for( int k = 2; k < fr.ops.length; k++ )
+					f.params.add(new IR.Param(typeText((int)fr.ops[k]), null));
+			else
+				definitions.add(f);
+			functionTypes.put(f, fr);
+			values.add(f);
+			module.functions.add(f);
+		}
+		readConstants(top.sub(BitcodeWriter.CONSTANTS_BLOCK));
+		for( int k = 0; k < globalRecords.size(); k++ ) {
+			Record r = globalRecords.get(k);
+			boolean isConst = (r.ops[1] & 1) != 0;
+			String linkage = r.ops[3] == BitcodeWriter.LINKAGE_PRIVATE? "private "
+				: r.ops[3] == BitcodeWriter.LINKAGE_COMMON? "common " : "";
+			if (r.ops.length > 8 && r.ops[8] != 0)
+				linkage += "unnamed_addr ";
+			linkage += isConst? "constant" : "global";
+			String init = r.ops[2] == 0? "zeroinitializer" : values.get((int)r.ops[2] - 1).name;
+			IR.Global g = new IR.Global(values.get(k).name, linkage, typeText((int)r.ops[0]),
+				init, alignment(r.ops[4]));
+			values.set(k, g);
+			module.globals.add(g);
+		}
+		int k = 0;
+		for( Object x : top.items )
+			if (x instanceof Block && ((Block)x).id == BitcodeWriter.FUNCTION_BLOCK) {
+				if (k == definitions.size())
+					throw error("more function bodies than definitions");
+				readFunction(definitions.get(k++), (Block)x);
+			}
+		return module;
+	}
+
+	// ********************** types ******************************
+
+	private void readTypes( Block b ) {
+		String name = null;
+		for( Object x : b.items ) {
+			Record r = (Record)x;
+			switch(r.code) {
+			case BitcodeWriter.TYPE_NUMENTRY:
+				break;
+			case BitcodeWriter.TYPE_STRUCT_NAME:
+				name = chars(r.ops, 0);
+				break;
+			default:
+				typeRecords.add(r);
+				typeNames.add(name);
+				name = null;
+			}
+		}
+	}
+
+	// the .ll form of type number id, spelled as BitcodeWriter spells it
+	private String typeText( int id ) {
+		String t = typeTexts.get(id);
+		if (t != null)
+			return t;
+		Record r = typeRecords.get(id);
+		switch(r.code) {
+		case BitcodeWriter.TYPE_VOID:		t = "void";  break;
+		case BitcodeWriter.TYPE_FLOAT:		t = "float";  break;
+		case BitcodeWriter.TYPE_DOUBLE:		t = "double";  break;
+		case BitcodeWriter.TYPE_LABEL:		t = "label";  break;
+		case BitcodeWriter.TYPE_INTEGER:	t = "i" + r.ops[0];  break;
+		case BitcodeWriter.TYPE_POINTER:	t = typeText((int)r.ops[0]) + "*";  break;
+		case BitcodeWriter.TYPE_ARRAY:
+			t = "[" + r.ops[0] + " x " + typeText((int)r.ops[1]) + "]";
+			break;
+		case BitcodeWriter.TYPE_STRUCT_ANON:
+			t = structText(r, 1);
+			break;
+		case BitcodeWriter.TYPE_STRUCT_NAMED:
+		case BitcodeWriter.TYPE_OPAQUE:
+			t = "%" + typeNames.get(id);
+			break;
+		case BitcodeWriter.TYPE_FUNCTION:
+			StringBuilder sb = new StringBuilder(typeText((int)r.ops[1])).append(" (");
+			for( int k = 2; k < r.ops.length; k++ ) {
+				if (k > 2) sb.append(", ");
+				sb.append(typeText((int)r.ops[k]));
+			}
+			if (r.ops[0] != 0)
+				sb.append(r.ops.length > 2? ", ..." : "...");
+			t = sb.append(')').toString();
+			break;
+		default:
+			throw error("type code " + r.code + " is not supported");
+		}
+		typeTexts.put(id, t);
+		return t;
+	}
+
+	private String structText( Record r, int from ) {
+		StringBuilder sb = new StringBuilder("{ ");
+		for( int k = from; k < r.ops.length; k++ ) {
+			if (k > from) sb.append(", ");
+			sb.append(typeText((int)r.ops[k]));
+		}
+		return sb.append(r.ops.length > from? " }" : "}").toString();
+	}
+
+	// the type reached by the indexes after the first, from type id
+	private int indexedType( int id, IR.Value[] indexes, int from ) {
+		for( int k = from; k < indexes.length; k++ ) {
+			Record r = typeRecords.get(id);
+			if (r.code == BitcodeWriter.TYPE_ARRAY)
+				id = (int)r.ops[1];
+			else if (r.code == BitcodeWriter.TYPE_STRUCT_NAMED || r.code == BitcodeWriter.TYPE_STRUCT_ANON)
+				id = (int)r.ops[1 + Integer.parseInt(indexes[k].name)];
+			else
+				throw error("getelementptr into " + typeText(id));
+		}
+		return id;
+	}
+
+	// ********************** constants ******************************
+
+	private void readConstants( Block b ) {
+		if (b == null)
+			return;
+		int type = -1;
+		for( Object x : b.items ) {
+			Record r = (Record)x;
+			if (r.code == BitcodeWriter.CST_SETTYPE) {
+				type = (int)r.ops[0];
+				continue;
+			}
+			String t = typeText(type);
+			switch(r.code) {
+			case BitcodeWriter.CST_NULL:
+				values.add(new IR.Const(t, "zeroinitializer"));
+				break;
+			case BitcodeWriter.CST_UNDEF:
+				values.add(new IR.Const(t, "undef"));
+				break;
+			case BitcodeWriter.CST_INTEGER:
+				values.add(new IR.Const(t, Long.toString(decodeSigned(r.ops[0]))));
+				break;
+			case BitcodeWriter.CST_FLOAT:
+				values.add(new IR.Const(t, IR.floatText(t, r.ops[0])));
+				break;
+			case BitcodeWriter.CST_STRING:
+			case BitcodeWriter.CST_CSTRING:
+				int n = r.ops.length;
+				byte[] s = new byte[r.code == BitcodeWriter.CST_CSTRING? n+1 : n];
+				for( int k = 0; k < n; k++ )
+					s[k] = (byte)r.ops[k];
+				values.add(new IR.Const(t, IR.encodeString(s)));
+				break;
+			case BitcodeWriter.CST_CE_INBOUNDS_GEP:
+				// [pointee type, (type, value)...]
+				int elem = (int)r.ops[0];
+				IR.Value base = constant(r.ops[2]);
+				IR.Value[] indexes = new IR.Value[(r.ops.length - 3) / 2];
+				for( int k = 0; k < indexes.length; k++ )
+					indexes[k] = constant(r.ops[4 + 2*k]);
+				values.add(new IR.ConstGEP(t, typeText(elem), base, indexes));
+				break;
+			default:
+				throw error("constant code " + r.code + " is not supported");
+			}
+		}
+	}
+
+	private IR.Value constant( long id ) {
+		if (id >= values.size())
+			throw error("a forward reference in a constant");
+		return values.get((int)id);
+	}
+
+	// ********************** functions ******************************
+
+	private long[] ops;				// of the record being decoded
+	private int at;					// the next operand
+	private int instId;				// the number of the next instruction value
+
+	private IR.Value value( int id ) {
+		if (id >= instId || id < 0)
+			throw error("a forward reference in a function");
+		return values.get(id);
+	}
+
+	private IR.Value valueAndType() {
+		int id = instId - (int)ops[at++];
+		if (id >= instId)
+			at++;					// the type
+		return value(id);
+	}
+
+	private IR.Value relValue() {
+		return value(instId - (int)ops[at++]);
+	}
+
+	private void readFunction( IR.Function f, Block b ) {
+		int firstLocal = values.size();
+		Map<Integer,String> names = new HashMap<Integer,String>();
+		Map<Integer,String> blockNames = new HashMap<Integer,String>();
+		readNames(b.sub(BitcodeWriter.VALUE_SYMTAB_BLOCK), names, blockNames);
+		Record fr = null;
+		for( Object x : b.items )
+			if (x instanceof Record) {
+				fr = (Record)x;
+				break;
+			}
+		if (fr == null || fr.code != BitcodeWriter.FUNC_DECLAREBLOCKS)
+			throw error("no DECLAREBLOCKS in " + f.name);
+		String[] labels = new String[(int)fr.ops[0]];
+		for( int k = 0; k < labels.length; k++ ) {
+			labels[k] = blockNames.containsKey(k)? blockNames.get(k) : "bb" + k;
+			f.blocks.add(new IR.BasicBlock(labels[k]));
+		}
+		Record ftype = functionTypes.get(f);
+		for( int k = 2; k < ftype.ops.length; k++ ) {
+			String name = names.get(values.size());
+			IR.Param p = new IR.Param(typeText((int)ftype.ops[k]), name == null? null : "%" + name);
+			f.params.add(p);
+			values.add(p);
+		}
+		readConstants(b.sub(BitcodeWriter.CONSTANTS_BLOCK));
+
+		int current = 0;
+		for( Object x : b.items ) {
+			if (!(x instanceof Record) || x == fr)
+				continue;
+			Record r = (Record)x;
+			if (current == labels.length)
+				throw error("an instruction after the last block of " + f.name);
+			instId = values.size();
+			ops = r.ops;
+			at = 0;
+			String name = names.containsKey(instId)? "%" + names.get(instId) : null;
+			IR.Instruction i = readInstruction(r.code, name, labels);
+			f.blocks.get(current).instructions.add(i);
+			if (i.hasResult())
+				values.add(i);
+			if (i.op == IR.Op.BR || i.op == IR.Op.CONDBR || i.op == IR.Op.RET)
+				current++;
+		}
+		while(values.size() > firstLocal)
+			values.remove(values.size()-1);
+	}
+
+	private IR.Instruction readInstruction( int code, String name, String[] labels ) {
+		IR.Instruction i;
+		switch(code) {
+		case BitcodeWriter.FUNC_ALLOCA: {
+			String t = typeText((int)ops[0]);
+			i = new IR.Instruction(IR.Op.ALLOCA, "alloca", t + "*", name, t, IR.noValues, IR.noLabels);
+			i.align = alignment(ops[3] & 31);
+			return i;
+		}
+		case BitcodeWriter.FUNC_LOAD: {
+			IR.Value p = valueAndType();
+			String t = typeText((int)ops[at++]);
+			i = new IR.Instruction(IR.Op.LOAD, "load", t, name, t, new IR.Value[]{ p }, IR.noLabels);
+			i.align = alignment(ops[at]);
+			return i;
+		}
+		case BitcodeWriter.FUNC_STORE: {
+			IR.Value p = valueAndType();
+			IR.Value v = valueAndType();
+			i = new IR.Instruction(IR.Op.STORE, "store", null, null, null, new IR.Value[]{ v, p }, IR.noLabels);
+			i.align = alignment(ops[at]);
+			return i;
+		}
+		case BitcodeWriter.FUNC_BINOP: {
+			IR.Value l = valueAndType();
+			IR.Value r = relValue();
+			int opc = (int)ops[at];
+			boolean fp = l.type.equals("float") || l.type.equals("double");
+			String opcode = fp? BitcodeWriter.fbinops[opc] : BitcodeWriter.binops[opc];
+			return new IR.Instruction(IR.Op.BINOP, opcode, l.type, name, null, new IR.Value[]{ l, r }, IR.noLabels);
+		}
+		case BitcodeWriter.FUNC_CMP2: {
+			IR.Value l = valueAndType();
+			IR.Value r = relValue();
+			int pred = (int)ops[at];
+			boolean icmp = pred >= BitcodeWriter.ICMP_FIRST;
+			return new IR.Instruction(icmp? IR.Op.ICMP : IR.Op.FCMP,
+				icmp? BitcodeWriter.ipreds[pred - BitcodeWriter.ICMP_FIRST] : BitcodeWriter.fpreds[pred],
+				"i1", name, null, new IR.Value[]{ l, r }, IR.noLabels);
+		}
+		case BitcodeWriter.FUNC_CAST: {
+			IR.Value v = valueAndType();
+			String t = typeText((int)ops[at++]);
+			return new IR.Instruction(IR.Op.CAST, BitcodeWriter.casts[(int)ops[at]], t, name, null,
+				new IR.Value[]{ v }, IR.noLabels);
+		}
+		case BitcodeWriter.FUNC_GEP: {
+			at = 2;
+			List<IR.Value> v = new ArrayList<IR.Value>();
+			while(at < ops.length)
+				v.add(valueAndType());
+			IR.Value[] vs = v.toArray(new IR.Value[v.size()]);
+			int elem = (int)ops[1];
+			String t = typeText(indexedType(elem, vs, 2));
+			return new IR.Instruction(IR.Op.GEP, "getelementptr", t + "*", name, typeText(elem), vs, IR.noLabels);
+		}
+		case BitcodeWriter.FUNC_CALL: {
+			at = 1;
+			long cc = ops[at++];
+			if ((cc & (1 << 17)) != 0)
+				at++;				// fast math flags
+			Record ft = typeRecords.get((int)ops[at++]);
+			List<IR.Value> v = new ArrayList<IR.Value>();
+			v.add(valueAndType());
+			int nparams = ft.ops.length - 2;
+			while(at < ops.length)
+				v.add(v.size() <= nparams? relValue() : valueAndType());
+			String ret = typeText((int)ft.ops[1]);
+			String fnType = ft.ops[0] != 0? typeText(typeRecords.indexOf(ft)) : ret;
+			return new IR.Instruction(IR.Op.CALL, "call", ret, name, fnType,
+				v.toArray(new IR.Value[v.size()]), IR.noLabels);
+		}
+		case BitcodeWriter.FUNC_PHI: {
+			String t = typeText((int)ops[0]);
+			int n = (ops.length - 1) / 2;
+			IR.Value[] v = new IR.Value[n];
+			String[] preds = new String[n];
+			for( int k = 0; k < n; k++ ) {
+				v[k] = value(instId - (int)decodeSigned(ops[1 + 2*k]));
+				preds[k] = labels[(int)ops[2 + 2*k]];
+			}
+			return new IR.Instruction(IR.Op.PHI, "phi", t, name, null, v, preds);
+		}
+		case BitcodeWriter.FUNC_BR:
+			if (ops.length == 1)
+				return IR.br(labels[(int)ops[0]]);
+			at = 2;
+			return IR.condBr(relValue(), labels[(int)ops[0]], labels[(int)ops[1]]);
+		case BitcodeWriter.FUNC_RET:
+			return IR.ret(ops.length == 0? null : valueAndType());
+		}
+		throw error("instruction code " + code + " is not supported");
+	}
+}
@@ -0,0 +1,871 @@
+// BitcodeWriter.java
+//
+// Writes an IR.Module as an LLVM bitcode (.bc) file, for the -emit-bc
+// option. The file is the bitstream container which llvm-bcanalyzer
+// shows: the magic number 'BC' 0xC0DE, then a MODULE_BLOCK holding the
+// target triple and datalayout, a TYPE_BLOCK_NEW with every type used,
+// a record for each global variable and function, a CONSTANTS_BLOCK with
+// the initializers of the globals, the VALUE_SYMTAB of the global names
+// and a FUNCTION_BLOCK for each function defined. The records are those
+// of the LLVM releases whose .ll syntax LLVM.java writes (typed pointers,
+// explicit types on load, getelementptr and call); later releases still
+// read them.
+//
+// Only unabbreviated records are written, so each operand is a 6-bit
+// VBR; the file is larger than the one llc would write, but it needs no
+// abbreviation definitions. Operands refer to values by relative numbers
+// (the module VERSION is 1). The attribute groups and the comments of the
+// .ll file are not written.
+//
+// Values are numbered as LLVM numbers them: the globals, the functions
+// and the module constants; then, within a function, its parameters, its
+// constants and the instructions which have a result.
+
+import java.nio.*;
+import java.util.*;
+
+public class BitcodeWriter {
+	// block ids
+	static final int MODULE_BLOCK = 8, CONSTANTS_BLOCK = 11, FUNCTION_BLOCK = 12,
+		VALUE_SYMTAB_BLOCK = 14, TYPE_BLOCK = 17;
+	// abbreviation ids
+	static final int END_BLOCK = 0, ENTER_SUBBLOCK = 1, DEFINE_ABBREV = 2, UNABBREV_RECORD = 3;
+	// module codes
+	static final int MODULE_VERSION = 1, MODULE_TRIPLE = 2, MODULE_DATALAYOUT = 3,
+		MODULE_GLOBALVAR = 7, MODULE_FUNCTION = 8;
+	// type codes
+	static final int TYPE_NUMENTRY = 1, TYPE_VOID = 2, TYPE_FLOAT = 3, TYPE_DOUBLE = 4,
+		TYPE_LABEL = 5, TYPE_OPAQUE = 6, TYPE_INTEGER = 7, TYPE_POINTER = 8, TYPE_ARRAY = 11,
+		TYPE_STRUCT_ANON = 18, TYPE_STRUCT_NAME = 19, TYPE_STRUCT_NAMED = 20, TYPE_FUNCTION = 21;
+	// constant codes
+	static final int CST_SETTYPE = 1, CST_NULL = 2, CST_UNDEF = 3, CST_INTEGER = 4,
+		CST_FLOAT = 6, CST_STRING = 8, CST_CSTRING = 9, CST_CE_INBOUNDS_GEP = 20;
+	// function codes
+	static final int FUNC_DECLAREBLOCKS = 1, FUNC_BINOP = 2, FUNC_CAST = 3, FUNC_RET = 10,
+		FUNC_BR = 11, FUNC_PHI = 16, FUNC_ALLOCA = 19, FUNC_LOAD = 20, FUNC_CMP2 = 28,
+		FUNC_CALL = 34, FUNC_GEP = 43, FUNC_STORE = 44;
+	// symbol table codes
+	static final int VST_ENTRY = 1, VST_BBENTRY = 2;
+
+	// linkage codes
+	static final int LINKAGE_EXTERNAL = 0, LINKAGE_COMMON = 8, LINKAGE_PRIVATE = 9;
+
+	// the opcodes, indexed by their codes
+	static final String[] binops = { "add", "sub", "mul", "udiv", "sdiv", "urem", "srem",
+		"shl", "lshr", "ashr", "and", "or", "xor" };
+	static final String[] fbinops = { "fadd", "fsub", "fmul", null, "fdiv", null, "frem" };
+	static final String[] casts = { "trunc", "zext", "sext", "fptoui", "fptosi", "uitofp",
+		"sitofp", "fptrunc", "fpext", "ptrtoint", "inttoptr", "bitcast" };
+	static final String[] fpreds = { "false", "oeq", "ogt", "oge", "olt", "ole", "one", "ord",
+		"uno", "ueq", "ugt", "uge", "ult", "ule", "une", "true" };
+	static final String[] ipreds = { "eq", "ne", "ugt", "uge", "ult", "ule", "sgt", "sge",
+		"slt", "sle" };		// codes 32 to 41
+	static final int ICMP_FIRST = 32;
+
+	static final int blockAbbrevWidth = 3;
+
+	// ********************** the bit stream ******************************
+
+	private int[] words = new int[1024];
+	private int nwords = 0;
+	private long curWord = 0;			// bits not yet in words
+	private int curBit = 0;
+	private int abbrevWidth = 2;
+	private final Deque<int[]> blocks = new ArrayDeque<int[]>();	// { outer width, length word }
+	private long[] ops = new long[64];	// of the record being built
+	private int nops = 0;
+
+	private void put( int w ) {
+		if (nwords == words.length)
+			words = Arrays.copyOf(words, 2*nwords);
+		words[nwords++] = w;
+	}
+
+	// appends the low width bits of val, width <= 32
+	private void emit( long val, int width ) {
+		curWord |= (val & ((1L << width) - 1)) << curBit;
+		curBit += width;
+		if (curBit >= 32) {
+			put((int)curWord);
+			curWord >>>= 32;
+			curBit -= 32;
+		}
+	}
+
+	// val as an unsigned variable bit rate number with chunks of width bits
+	private void emitVBR( long val, int width ) {
+		long hi = 1L << (width-1);
+		while((val >>> (width-1)) != 0) {
+			emit((val & (hi-1)) | hi, width);
+			val >>>= width-1;
+		}
+		emit(val, width);
+	}
+
+	private void align32() {
+		if (curBit > 0) {
+			put((int)curWord);
+			curWord = 0;
+			curBit = 0;
+		}
+	}
+
+	private void enterBlock( int id ) {
+		emit(ENTER_SUBBLOCK, abbrevWidth);
+		emitVBR(id, 8);
+		emitVBR(blockAbbrevWidth, 4);
+		align32();
+		blocks.push(new int[]{ abbrevWidth, nwords });
+		put(0);						// the length, filled in by exitBlock
+		abbrevWidth = blockAbbrevWidth;
+	}
+
+	private void exitBlock() {
+		emit(END_BLOCK, abbrevWidth);
+		align32();
+		int[] b = blocks.pop();
+		words[b[1]] = nwords - b[1] - 1;
+		abbrevWidth = b[0];
+	}
+
+	private void op( long v ) {
+		if (nops == ops.length)
+			ops = Arrays.copyOf(ops, 2*nops);
+		ops[nops++] = v;
+	}
+
+	private void op( String s ) {
+		for( int k = 0; k < s.length(); k++ )
+			op(s.charAt(k));
+	}
+
+	// writes the operands added by op as an unabbreviated record
+	private void endRecord( int code ) {
+		emit(UNABBREV_RECORD, abbrevWidth);
+		emitVBR(code, 6);
+		emitVBR(nops, 6);
+		for( int k = 0; k < nops; k++ )
+			emitVBR(ops[k], 6);
+		nops = 0;
+	}
+
+	private void record( int code, long... vals ) {
+		for( long v : vals )
+			op(v);
+		endRecord(code);
+	}
+
+	// the sign in the low bit, as LLVM writes a signed number
+	static long signed( long v ) {
+		if (v == Long.MIN_VALUE) return 1;
+		return v >= 0? v << 1 : (-v << 1) | 1;
+	}
+
+	static int alignCode( int align ) {
+		return align <= 0? 0 : Integer.numberOfTrailingZeros(align) + 1;
+	}
+
+	// ********************** types ******************************
+
+	// a type parsed from its .ll form; the text is the form BitcodeReader
+	// gives the type back, such as [4 x i8] or i64 (i8*, ...)
+	static class TypeNode {
+		final int code;
+		final String text;
+		final TypeNode[] elems;		// pointee; array element; return type and
+									// parameters; struct fields (null until resolved)
+		int width;					// of an integer
+		long length;				// of an array
+		boolean varArgs;			// of a function
+		String name;				// of a named struct, without the %
+		int id = -1;
+		boolean busy;				// being numbered
+
+		TypeNode( int code, String text, TypeNode... elems ) {
+			this.code = code;  this.text = text;  this.elems = elems;
+		}
+	}
+
+	private final Map<String,TypeNode> typeCache = new HashMap<String,TypeNode>();
+	private final Map<String,TypeNode> namedTypes = new HashMap<String,TypeNode>();
+	private final Map<String,String> structBodies = new HashMap<String,String>();
+	private final List<TypeNode> types = new ArrayList<TypeNode>();	// in id order
+
+	private TypeNode type( String text ) {
+		TypeNode t = typeCache.get(text);
+		if (t == null) {
+			t = new TypeParser(text).parse();
+			typeCache.put(text, t);
+		}
+		return t;
+	}
+
+	// one instance of each type, by its text
+	private TypeNode intern( TypeNode t ) {
+		TypeNode old = typeCache.get(t.text);
+		if (old != null)
+			return old;
+		typeCache.put(t.text, t);
+		return t;
+	}
+
+	private class TypeParser {
+		private final String s;
+		private int pos = 0;
+
+		TypeParser( String s ) { this.s = s; }
+
+		TypeNode parse() {
+			TypeNode t = parseType();
+			skip();
+			if (pos != s.length())
+				throw error();
+			return t;
+		}
+
+		private IllegalArgumentException error() {
+			return new IllegalArgumentException("cannot write the type " + s + " as bitcode");
+		}
+
+		private void skip() {
+			while(pos < s.length() && s.charAt(pos) == ' ')
+				pos++;
+		}
+
+		private boolean at( char c ) {
+			skip();
+			if (pos < s.length() && s.charAt(pos) == c) {
+				pos++;
+				return true;
+			}
+			return false;
+		}
+
+		private String word() {
+			skip();
+			int start = pos;
+			while(pos < s.length() && (Character.isLetterOrDigit(s.charAt(pos))
+					|| ".-_$".indexOf(s.charAt(pos)) >= 0))
+				pos++;
+			if (pos == start)
+				throw error();
+			return s.substring(start, pos);
+		}
+
+		private List<TypeNode> list( char close ) {
+			List<TypeNode> l = new ArrayList<TypeNode>();
+			if (at(close))
+				return l;
+			do {
+				l.add(parseType());
+			} while(at(','));
+			if (!at(close))
+				throw error();
+			return l;
+		}
+
+		private TypeNode parseType() {
+			TypeNode t;
+			if (at('%'))
+				t = named(word());
+			else if (at('[')) {
+				long n = Long.parseLong(word());
+				if (!word().equals("x"))
+					throw error();
+				TypeNode e = parseType();
+				if (!at(']'))
+					throw error();
+				t = new TypeNode(TYPE_ARRAY, "[" + n + " x " + e.text + "]", e);
+				t.length = n;
+				t = intern(t);
+			} else if (at('{')) {
+				List<TypeNode> fields = list('}');
+				t = intern(new TypeNode(TYPE_STRUCT_ANON, structText(fields),
+					fields.toArray(new TypeNode[fields.size()])));
+			} else {
+				String w = word();
+				switch(w) {
+				case "void":	t = new TypeNode(TYPE_VOID, w);  break;
+				case "float":	t = new TypeNode(TYPE_FLOAT, w);  break;
+				case "double":	t = new TypeNode(TYPE_DOUBLE, w);  break;
+				case "label":	t = new TypeNode(TYPE_LABEL, w);  break;
+				default:
+					if (!w.matches("i[0-9]+"))
+						throw error();
+					t = new TypeNode(TYPE_INTEGER, w);
+					t.width = Integer.parseInt(w.substring(1));
+				}
+				t = intern(t);
+			}
+			for( ; ; ) {
+				if (at('*'))
+					t = intern(new TypeNode(TYPE_POINTER, t.text + "*", t));
+				else if (at('(')) {
+					List<TypeNode> parts = new ArrayList<TypeNode>();
+					parts.add(t);
+					boolean varArgs = false;
+					if (!at(')')) {
+						do {
+							skip();
+							if (s.startsWith("...", pos)) {
+								pos += 3;
+								varArgs = true;
+							} else
+								parts.add(parseType());
+						} while(!varArgs && at(','));
+						if (!at(')'))
+							throw error();
+					}
+					t = new TypeNode(TYPE_FUNCTION, functionText(parts, varArgs),
+						parts.toArray(new TypeNode[parts.size()]));
+					t.varArgs = varArgs;
+					t = intern(t);
+				} else
+					return t;
+			}
+		}
+	}
+
+	private TypeNode named( String name ) {
+		TypeNode t = namedTypes.get(name);
+		if (t == null) {
+			t = new TypeNode(TYPE_STRUCT_NAMED, "%" + name, (TypeNode[])null);
+			t.name = name;
+			namedTypes.put(name, t);
+			typeCache.put(t.text, t);
+		}
+		return t;
+	}
+
+	// the text of a struct body, such as { i32, double }
+	static String structText( List<TypeNode> fields ) {
+		StringBuilder sb = new StringBuilder("{ ");
+		for( int k = 0; k < fields.size(); k++ ) {
+			if (k > 0) sb.append(", ");
+			sb.append(fields.get(k).text);
+		}
+		return sb.append(fields.isEmpty()? "}" : " }").toString();
+	}
+
+	// parts holds the return type and the parameter types
+	static String functionText( List<TypeNode> parts, boolean varArgs ) {
+		StringBuilder sb = new StringBuilder(parts.get(0).text).append(" (");
+		for( int k = 1; k < parts.size(); k++ ) {
+			if (k > 1) sb.append(", ");
+			sb.append(parts.get(k).text);
+		}
+		if (varArgs)
+			sb.append(parts.size() > 1? ", ..." : "...");
+		return sb.append(')').toString();
+	}
+
+	// numbers t after the types it is made of; a struct may be referred
+	// to (through a pointer) before its own number is given
+	private void enumerate( TypeNode t ) {
+		if (t.id >= 0 || t.busy)
+			return;
+		t.busy = true;
+		TypeNode[] elems = t.elems;
+		if (t.code == TYPE_STRUCT_NAMED && elems == null)
+			elems = structFields(t);
+		if (elems != null)
+			for( TypeNode e : elems )
+				enumerate(e);
+		t.busy = false;
+		t.id = types.size();
+		types.add(t);
+	}
+
+	private final Map<TypeNode,TypeNode[]> fields = new HashMap<TypeNode,TypeNode[]>();
+
+	// the fields of a named struct, or null if it is opaque
+	private TypeNode[] structFields( TypeNode t ) {
+		if (fields.containsKey(t))
+			return fields.get(t);
+		String body = structBodies.get(t.name);
+		TypeNode[] f = null;
+		if (body != null) {
+			if (!body.startsWith("type "))
+				throw new IllegalArgumentException("cannot write the type %" + t.name + " as bitcode");
+			f = type(body.substring(5)).elems;
+		}
+		fields.put(t, f);
+		return f;
+	}
+
+	private int typeId( String text ) {
+		TypeNode t = type(text);
+		enumerate(t);
+		return t.id;
+	}
+
+	private void writeTypes() {
+		enterBlock(TYPE_BLOCK);
+		record(TYPE_NUMENTRY, types.size());
+		for( TypeNode t : types ) {
+			switch(t.code) {
+			case TYPE_INTEGER:
+				record(t.code, t.width);
+				break;
+			case TYPE_POINTER:
+				record(t.code, t.elems[0].id, 0);
+				break;
+			case TYPE_ARRAY:
+				record(t.code, t.length, t.elems[0].id);
+				break;
+			case TYPE_FUNCTION:
+				op(t.varArgs? 1 : 0);
+				for( TypeNode e : t.elems )
+					op(e.id);
+				endRecord(t.code);
+				break;
+			case TYPE_STRUCT_ANON:
+				op(0);
+				for( TypeNode e : t.elems )
+					op(e.id);
+				endRecord(t.code);
+				break;
+			case TYPE_STRUCT_NAMED:
+				op(t.name);
+				endRecord(TYPE_STRUCT_NAME);
+				TypeNode[] f = structFields(t);
+				if (f == null) {
+					record(TYPE_OPAQUE, 0);
+					break;
+				}
+				op(0);
+				for( TypeNode e : f )
+					op(e.id);
+				endRecord(t.code);
+				break;
+			default:
+				record(t.code);
+			}
+		}
+		exitBlock();
+	}
+
+	// ********************** values ******************************
+
+	private final Map<IR.Value,Integer> ids = new IdentityHashMap<IR.Value,Integer>();
+	private final Map<String,IR.Value> globalNames = new HashMap<String,IR.Value>();
+	private final Map<String,Integer> moduleConsts = new HashMap<String,Integer>();
+	private final List<IR.Const> moduleConstList = new ArrayList<IR.Const>();
+	private Map<String,Integer> functionConsts = new HashMap<String,Integer>();
+	private List<IR.Const> functionConstList = new ArrayList<IR.Const>();
+	private int nextId = 0;				// the next value number
+	private int instId = 0;				// the number of the instruction being written
+	private final Map<String,Integer> blockIndex = new HashMap<String,Integer>();
+	private final IR.Const one = new IR.Const("i32", "1");	// the size of an alloca
+
+	// the type of a function, such as i32 (i8*, ...)
+	static String functionType( IR.Function f ) {
+		StringBuilder sb = new StringBuilder(f.returnType).append(" (");
+		boolean notFirst = false;
+		for( IR.Param p : f.params ) {
+			if (notFirst) sb.append(", ");
+			notFirst = true;
+			sb.append(p.type);
+		}
+		if (f.varArgs)
+			sb.append(notFirst? ", ..." : "...");
+		return sb.append(')').toString();
+	}
+
+	// a reference to a global or function by name, such as @printf
+	static boolean isGlobalRef( IR.Value v ) {
+		return v instanceof IR.Const && v.name.startsWith("@");
+	}
+
+	private String typeOf( IR.Value v ) {
+		if (isGlobalRef(v))
+			v = global(v.name);
+		if (v instanceof IR.Function)
+			return functionType((IR.Function)v) + "*";
+		return v.type;
+	}
+
+	private IR.Value global( String name ) {
+		IR.Value g = globalNames.get(name);
+		if (g == null)
+			throw new IllegalArgumentException("cannot write bitcode: " + name + " is not defined");
+		return g;
+	}
+
+	private IR.Function callee( IR.Value v ) {
+		IR.Value f = isGlobalRef(v)? global(v.name) : v;
+		if (!(f instanceof IR.Function))
+			throw new IllegalArgumentException("cannot write bitcode: an indirect call");
+		return (IR.Function)f;
+	}
+
+	static String constKey( IR.Value c ) {
+		return c.type + " " + c.name;
+	}
+
+	// gives the constant a number in the current function, or in the
+	// module when no function is being written
+	private void addConstant( IR.Value v, boolean inModule ) {
+		if (!(v instanceof IR.Const) || isGlobalRef(v) || v.type == null)
+			return;
+		String key = constKey(v);
+		if (moduleConsts.containsKey(key) || (!inModule && functionConsts.containsKey(key)))
+			return;
+		if (v instanceof IR.ConstGEP) {
+			IR.ConstGEP g = (IR.ConstGEP)v;
+			for( IR.Value x : g.indexes )
+				addConstant(x, inModule);
+		}
+		if (inModule) {
+			moduleConsts.put(key, nextId++);
+			moduleConstList.add((IR.Const)v);
+		} else {
+			functionConsts.put(key, nextId++);
+			functionConstList.add((IR.Const)v);
+		}
+	}
+
+	private int valueId( IR.Value v ) {
+		Integer id = ids.get(v);
+		if (id == null) {
+			if (isGlobalRef(v))
+				id = ids.get(global(v.name));
+			else if (v instanceof IR.Const) {
+				id = moduleConsts.get(constKey(v));
+				if (id == null)
+					id = functionConsts.get(constKey(v));
+			}
+		}
+		if (id == null)
+			throw new IllegalArgumentException("cannot write bitcode: no value " + v.name);
+		return id;
+	}
+
+	// the value relative to the instruction, with its type if it comes later
+	private void pushValueAndType( IR.Value v ) {
+		int id = valueId(v);
+		op((instId - id) & 0xFFFFFFFFL);
+		if (id >= instId)
+			op(typeId(typeOf(v)));
+	}
+
+	private void pushValue( IR.Value v ) {
+		op((instId - valueId(v)) & 0xFFFFFFFFL);
+	}
+
+	// gives a number to every type used, before the TYPE_BLOCK is written
+	private void enumerateTypes( IR.Module m ) {
+		for( IR.TypeDef t : m.types )
+			enumerate(type(t.name));
+		for( IR.Global g : m.globals ) {
+			typeId(g.valueType);
+			typeId(g.type);
+		}
+		for( IR.Function f : m.functions ) {
+			typeId(functionType(f) + "*");
+			for( IR.BasicBlock b : f.blocks )
+				for( IR.Instruction i : b.instructions ) {
+					if (i.type != null)
+						typeId(i.type);
+					if (i.elementType != null)
+						typeId(i.elementType);
+					if (i.op == IR.Op.ALLOCA)
+						typeId(one.type);
+					if (i.op == IR.Op.CALL)
+						typeId(functionType(callee(i.operands[0])));
+					for( IR.Value v : i.operands )
+						enumerateTypes(v);
+				}
+		}
+	}
+
+	private void enumerateTypes( IR.Value v ) {
+		typeId(typeOf(v));
+		if (v instanceof IR.ConstGEP) {
+			IR.ConstGEP g = (IR.ConstGEP)v;
+			typeId(g.elementType);
+			for( IR.Value x : g.indexes )
+				typeId(x.type);
+		}
+	}
+
+	// ********************** the module ******************************
+
+	// the bitcode for module m, as little-endian bytes
+	public ByteBuffer write( IR.Module m ) {
+		for( IR.TypeDef t : m.types )
+			structBodies.put(t.name.substring(1), t.body);
+		for( IR.Global g : m.globals ) {
+			ids.put(g, nextId++);
+			globalNames.put(g.name, g);
+		}
+		for( IR.Function f : m.functions ) {
+			ids.put(f, nextId++);
+			globalNames.put(f.name, f);
+		}
+		List<IR.Const> inits = new ArrayList<IR.Const>();
+		for( IR.Global g : m.globals ) {
+			IR.Const c = new IR.Const(g.valueType, g.init);
+			inits.add(c);
+			addConstant(c, true);
+		}
+		enumerateTypes(m);
+
+		emit('B', 8);  emit('C', 8);
+		emit(0x0, 4);  emit(0xC, 4);  emit(0xE, 4);  emit(0xD, 4);
+		enterBlock(MODULE_BLOCK);
+		record(MODULE_VERSION, 1);
+		op(m.triple);
+		endRecord(MODULE_TRIPLE);
+		op(m.getDataLayout());
+		endRecord(MODULE_DATALAYOUT);
+		writeTypes();
+		for( int k = 0; k < m.globals.size(); k++ )
+			writeGlobal(m.globals.get(k), inits.get(k));
+		for( IR.Function f : m.functions )
+			record(MODULE_FUNCTION, typeId(functionType(f)), 0, f.isDeclaration()? 1 : 0,
+				LINKAGE_EXTERNAL, 0, 0, 0, 0, 0, 0);
+		writeConstants(moduleConstList);
+		enterBlock(VALUE_SYMTAB_BLOCK);
+		for( IR.Global g : m.globals )
+			writeName(VST_ENTRY, ids.get(g), g.name.substring(1));
+		for( IR.Function f : m.functions )
+			writeName(VST_ENTRY, ids.get(f), f.name.substring(1));
+		exitBlock();
+		for( IR.Function f : m.functions )
+			if (!f.isDeclaration())
+				writeFunction(f);
+		exitBlock();
+		align32();
+
+		ByteBuffer bb = ByteBuffer.allocate(4*nwords).order(ByteOrder.LITTLE_ENDIAN);
+		bb.asIntBuffer().put(words, 0, nwords);
+		return bb;
+	}
+
+	private void writeName( int code, int id, String name ) {
+		op(id);
+		op(name);
+		endRecord(code);
+	}
+
+	// [valuetype, constant | explicit type, initid+1, linkage, alignment,
+	//  section, visibility, threadlocal, unnamed_addr]
+	private void writeGlobal( IR.Global g, IR.Const init ) {
+		int linkage = LINKAGE_EXTERNAL;
+		boolean unnamed = false, isConst = false;
+		for( String w : g.linkage.split(" ") ) {
+			switch(w) {
+			case "private":			linkage = LINKAGE_PRIVATE;  break;
+			case "common":			linkage = LINKAGE_COMMON;  break;
+			case "unnamed_addr":	unnamed = true;  break;
+			case "constant":		isConst = true;  break;
+			case "global":			break;
+			default:
+				throw new IllegalArgumentException("cannot write the linkage " + g.linkage + " as bitcode");
+			}
+		}
+		record(MODULE_GLOBALVAR, typeId(g.valueType), 2 | (isConst? 1 : 0),
+			valueId(init) + 1, linkage, alignCode(g.align), 0, 0, 0, unnamed? 1 : 0);
+	}
+
+	private void writeConstants( List<IR.Const> list ) {
+		if (list.isEmpty())
+			return;
+		enterBlock(CONSTANTS_BLOCK);
+		TypeNode last = null;
+		for( IR.Const c : list ) {
+			TypeNode t = type(c.type);
+			if (t != last)
+				record(CST_SETTYPE, t.id);
+			last = t;
+			writeConstant(c, t);
+		}
+		exitBlock();
+	}
+
+	private void writeConstant( IR.Const c, TypeNode t ) {
+		String s = c.name;
+		if (c instanceof IR.ConstGEP) {
+			IR.ConstGEP g = (IR.ConstGEP)c;
+			op(typeId(g.elementType));
+			op(typeId(typeOf(g.base)));
+			op(valueId(g.base));
+			for( IR.Value x : g.indexes ) {
+				op(typeId(x.type));
+				op(valueId(x));
+			}
+			endRecord(CST_CE_INBOUNDS_GEP);
+		} else if (s.equals("zeroinitializer") || s.equals("null"))
+			record(CST_NULL);
+		else if (s.equals("undef"))
+			record(CST_UNDEF);
+		else if (s.startsWith("c\"")) {
+			byte[] b = IR.decodeString(s);
+			int n = b.length;
+			boolean cstring = n > 0 && b[n-1] == 0;
+			for( int k = 0; k < n-1 && cstring; k++ )
+				cstring = b[k] != 0;
+			if (cstring)
+				n--;
+			for( int k = 0; k < n; k++ )
+				op(b[k] & 0xFF);
+			endRecord(cstring? CST_CSTRING : CST_STRING);
+		} else if (t.code == TYPE_FLOAT || t.code == TYPE_DOUBLE)
+			record(CST_FLOAT, IR.floatBits(c.type, s));
+		else if (t.code == TYPE_INTEGER) {
+			long v;
+			if (s.equals("true")) v = 1;
+			else if (s.equals("false")) v = 0;
+			else v = new java.math.BigInteger(s).longValue();
+			record(CST_INTEGER, signed(v));
+		} else
+			throw new IllegalArgumentException("cannot write the constant " + c.type + " " + s + " as bitcode");
+	}
+
+	// ********************** functions ******************************
+
+	private void writeFunction( IR.Function f ) {
+		int firstLocal = nextId;
+		for( IR.Param p : f.params )
+			ids.put(p, nextId++);
+		functionConsts = new HashMap<String,Integer>();
+		functionConstList = new ArrayList<IR.Const>();
+		blockIndex.clear();
+		for( IR.BasicBlock b : f.blocks ) {
+			blockIndex.put(b.label, blockIndex.size());
+			for( IR.Instruction i : b.instructions ) {
+				if (i.op == IR.Op.ALLOCA)
+					addConstant(one, false);
+				for( IR.Value v : i.operands )
+					if (!(i.op == IR.Op.CALL && v == i.operands[0]))
+						addConstant(v, false);
+			}
+		}
+		for( IR.BasicBlock b : f.blocks )
+			for( IR.Instruction i : b.instructions )
+				if (i.hasResult())
+					ids.put(i, nextId++);
+
+		enterBlock(FUNCTION_BLOCK);
+		record(FUNC_DECLAREBLOCKS, f.blocks.size());
+		writeConstants(functionConstList);
+		instId = firstLocal + f.params.size() + functionConstList.size();
+		for( IR.BasicBlock b : f.blocks )
+			for( IR.Instruction i : b.instructions )
+				writeInstruction(i);
+		enterBlock(VALUE_SYMTAB_BLOCK);
+		for( IR.Param p : f.params )
+			if (p.name != null)
+				writeName(VST_ENTRY, ids.get(p), p.name.substring(1));
+		for( IR.BasicBlock b : f.blocks )
+			for( IR.Instruction i : b.instructions )
+				if (i.name != null && i.hasResult())
+					writeName(VST_ENTRY, ids.get(i), i.name.substring(1));
+		for( IR.BasicBlock b : f.blocks )
+			writeName(VST_BBENTRY, blockIndex.get(b.label), b.label);
+		exitBlock();
+		exitBlock();
+		nextId = firstLocal;		// the locals of the next function reuse the numbers
+	}
+
+	private int block( String label ) {
+		Integer k = blockIndex.get(label);
+		if (k == null)
+			throw new IllegalArgumentException("cannot write bitcode: no block " + label);
+		return k;
+	}
+
+	static int indexOf( String[] names, String s ) {
+		for( int k = 0; k < names.length; k++ )
+			if (s.equals(names[k]))
+				return k;
+		return -1;
+	}
+
+	private int opcode( String[] names, String s ) {
+		int k = indexOf(names, s);
+		if (k < 0)
+			throw new IllegalArgumentException("cannot write the instruction " + s + " as bitcode");
+		return k;
+	}
+
+	private void writeInstruction( IR.Instruction i ) {
+		IR.Value[] v = i.operands;
+		switch(i.op) {
+		case ALLOCA:
+			record(FUNC_ALLOCA, typeId(i.elementType), typeId(one.type), valueId(one),
+				alignCode(i.align) | 1 << 6);
+			break;
+		case LOAD:
+			pushValueAndType(v[0]);
+			record(FUNC_LOAD, typeId(i.elementType), alignCode(i.align), 0);
+			break;
+		case STORE:
+			pushValueAndType(v[1]);
+			pushValueAndType(v[0]);
+			record(FUNC_STORE, alignCode(i.align), 0);
+			break;
+		case BINOP:
+			pushValueAndType(v[0]);
+			pushValue(v[1]);
+			record(FUNC_BINOP, i.opcode.startsWith("f")? opcode(fbinops, i.opcode) : opcode(binops, i.opcode));
+			break;
+		case ICMP:
+		case FCMP:
+			pushValueAndType(v[0]);
+			pushValue(v[1]);
+			record(FUNC_CMP2, i.op == IR.Op.ICMP? ICMP_FIRST + opcode(ipreds, i.opcode) : opcode(fpreds, i.opcode));
+			break;
+		case CAST:
+			pushValueAndType(v[0]);
+			record(FUNC_CAST, typeId(i.type), opcode(casts, i.opcode));
+			break;
+		case GEP:
+			op(1);
+			op(typeId(i.elementType));
+			for( IR.Value x : v )
+				pushValueAndType(x);
+			endRecord(FUNC_GEP);
+			break;
+		case CALL:
+			IR.Function f = callee(v[0]);
+			op(0);
+			op(1 << 15);			// the explicit function type follows
+			op(typeId(functionType(f)));
+			pushValueAndType(v[0]);
+			for( int k = 1; k < v.length; k++ ) {
+				if (k <= f.params.size())
+					pushValue(v[k]);
+				else
+					pushValueAndType(v[k]);
+			}
+			endRecord(FUNC_CALL);
+			break;
+		case PHI:
+			op(typeId(i.type));
+			for( int k = 0; k < v.length; k++ ) {
+				op(signed(instId - valueId(v[k])));
+				op(block(i.labels[k]));
+			}
+			endRecord(FUNC_PHI);
+			break;
+		case BR:
+			record(FUNC_BR, block(i.labels[0]));
+			break;
+		case CONDBR:
+			op(block(i.labels[0]));
+			op(block(i.labels[1]));
+			pushValue(v[0]);
+			endRecord(FUNC_BR);
+			break;
+		case RET:
+			if (v.length > 0)
+				pushValueAndType(v[0]);
+			endRecord(FUNC_RET);
+			break;
+		}
+		if (i.hasResult())
+			instId++;
+	}
+}
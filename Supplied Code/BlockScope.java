@@ -6,16 +6,17 @@
 //          the enclosingScope field is always null)
 //
 import java.util.*;
+import java.io.*;
 
 public class BlockScope implements Scope {
-	static boolean tracing = false;
+	boolean tracing;
 	Scope enclosingScope; // null if global (outermost) scope
 	String scopeName = "scope block";
 	Map<String, Symbol> symbols = new LinkedHashMap<String, Symbol>();
 
     public BlockScope(Scope enclosingScope) {
     	this.enclosingScope = enclosingScope;
-    	tracing = Symbol.tracing;
+    	tracing = CompilationContext.current().traceSymTab;
     }
 
 	public Symbol resolveInCurrent(String name) {
@@ -37,7 +38,7 @@ public class BlockScope implements Scope {
 		}
 		symbols.put(sym.name, sym);
 		sym.scope = this; // track the scope in each symbol
-		if (tracing) System.out.println("SY: Defined symbol: "+sym.name);
+		if (tracing) ReportError.getOutput().println("SY: Defined symbol: "+sym.name);
 	}
 
     public Scope getEnclosingScope() { return enclosingScope; }
@@ -52,11 +53,12 @@ public class BlockScope implements Scope {
 	public void dumpScope() {
 		Collection<Symbol> items = symbols.values();
 		if (items.size() != 0) {
-			System.out.println(scopeName + " {");
+			PrintStream out = ReportError.getOutput();
+			out.println(scopeName + " {");
 			for( Symbol sy : items ) {
-				System.out.println("   "+sy.getLineNumber()+": "+sy.toString());
+				out.println("   "+sy.getLineNumber()+": "+sy.toString());
 			}
-			System.out.println("}\n");
+			out.println("}\n");
 		}
 	}
 }
@@ -10,7 +10,6 @@ public class CGenFunctionCall {
     			Symbol fn, String packageName, ArrayList<LLVMValue> args) {
     	String funcName = fn.getName();
     	Type.Function ftyp = (Type.Function)fn.getType();
-		String rslt = null;
 		if (packageName != null) {
 			// it's a function in a package
 			if (packageName.equals("fmt")) {
@@ -27,18 +26,20 @@ public class CGenFunctionCall {
 					fmt = makeFormatString(ll, args, addNL);
 				for( int k=0; k<args.size(); k++ ) {
 					LLVMValue arg = args.get(k);
-					if (arg.getValue().charAt(0) == 'c')
+					if (arg.isStringConstant())
 				        args.set(k, ll.forceStringReference(arg));
 				    else if (arg.getType().equals("float"))  // C library requires doubles, not floats
-				    	args.set(k, LLVMExtras.typeConversion(ll, Predefined.floatType, arg));
+				    	args.set(k, LLVMExtras.typeConversion(ll, ll.cc.floatType, arg));
 				}
-				rslt = ll.nextTemporary();
-				ll.printf("  %s = call i%d (i8*, ...) @printf(i8* getelementptr inbounds (%s, %s, i32 0, i32 0) ",
-					rslt, ll.ptrSize, fmt.getType(), ll.forceStringReference(fmt) );
-				for( LLVMValue arg : args ) {
-					ll.printf(", %s", arg);
-				}
-				ll.println(")");
+				String rtyp = "i" + ll.ptrSize;
+				List<IR.Value> irArgs = new ArrayList<IR.Value>();
+				IR.Const zero = new IR.Const("i32", "0");
+				irArgs.add(new IR.ConstGEP("i8*", fmt.getType(),
+					ll.forceStringReference(fmt).getIR(), zero, zero));
+				for( LLVMValue arg : args )
+					irArgs.add(arg.getIR());
+				IR.Instruction rslt = ll.emit(IR.call(rtyp, rtyp + " (i8*, ...)",
+					new IR.Const(null, "@printf"), irArgs));
 				return new LLVMValue("i32", rslt, false);
 			}
 			// maybe it's a function in the Goo program
@@ -54,22 +55,14 @@ public class CGenFunctionCall {
 			assert fn instanceof FunctionSymbol;
 			String rtyp;
 			Type[] results = ftyp.getResults();
-			if (results.length > 0) {
-				rtyp = ll.createTypeDescriptor(results[0]);
-				rslt = ll.nextTemporary();
-				ll.printf("  %s =", rslt);
-			} else
+			if (results.length > 0)
+				rtyp = ll.getTypeDescriptor(results[0]);
+			else
 				rtyp = "void";
-			ll.printf("  call %s @%s(", rtyp, funcName);
-			boolean notFirst = false;
-			for( LLVMValue arg : args ) {
-				if (notFirst)
-					ll.print(", ");
-				else
-					notFirst = true;
-				ll.print(arg.toString());
-			}
-			ll.println(")");
+			List<IR.Value> irArgs = new ArrayList<IR.Value>();
+			for( LLVMValue arg : args )
+				irArgs.add(arg.getIR());
+			IR.Instruction rslt = ll.emit(IR.call(rtyp, rtyp, new IR.Const(null, "@" + funcName), irArgs));
 			if (results.length > 0)
 				return new LLVMValue(rtyp, rslt, false);
 			return null;
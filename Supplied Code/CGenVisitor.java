@@ -1,10 +1,13 @@
 // CGenVisitor.java
 //
 // A visitor which completes any semantic check not performed in the
-// earlier passes and which writes human-readable LLVM code to a ll file.
+// earlier passes and which builds the LLVM code for a ll file, as an
+// IR.Module held by the LLVM instance (see IR.java).
 //
 // For subtrees which have a value (i.e. the subtree represents an expression)
 // the result of a visit is an instance of the LLVMValue class.
+// The code for an expression is generated from its Ast tree (built by
+// AstBuilder) rather than from the parse tree, by the Ast visit methods.
 // That instance describes where the value of the expression is held on the
 // target computer.
 // For other kinds of subtrees, the visit methods may return null.
@@ -16,23 +19,25 @@ import org.antlr.v4.runtime.*;
 import org.antlr.v4.runtime.tree.*;
 import java.util.*;
 
-public class CGenVisitor extends GooBaseVisitor<LLVMValue> {
-	ParseTreeProperty<Scope> scopes;
-	ParseTreeProperty<Type> types;
+public class CGenVisitor extends GooBaseVisitor<LLVMValue> implements Ast.Visitor<LLVMValue> {
+	NodeTable<Scope> scopes;
+	NodeTable<Type> types;
+	NodeTable<Ast.Expr> ast;
+	Bindings bindings;
 	BlockScope globals;
 	Scope currentScope;
 	int scopeNestingLevel = 0;
 	Map<Symbol,LLVMValue> localVariables = new HashMap<Symbol,LLVMValue>();
-	Symbol packageSymbol = null;
-	String packageName = null;
     boolean calloc_declared = false;
 
+    CompilationContext cc;
     LLVM ll;
 	
 	// ************** constructors ******************
 
 	// default constructor
-	public CGenVisitor( LLVM ll ) {
+	public CGenVisitor( CompilationContext cc, LLVM ll ) {
+		this.cc = cc;
         this.ll = ll;
 	}
 
@@ -48,21 +53,21 @@ public class CGenVisitor extends GooBaseVisitor<LLVMValue> {
 		currentScope = scopes.get(ctx);
 	}
 
-	public void setScopes(ParseTreeProperty<Scope> scopes) {
+	public void setScopes(NodeTable<Scope> scopes) {
 		this.scopes = scopes;
 	}
 
-	public ParseTreeProperty<Scope> getScopes() {
+	public NodeTable<Scope> getScopes() {
 		return scopes;
 	}
 
 	// access or set type information associated with a node
 
-	public void setTypes(ParseTreeProperty<Type> types) {
+	public void setTypes(NodeTable<Type> types) {
 		this.types = types;
 	}
 
-	public ParseTreeProperty<Type> getTypes() {
+	public NodeTable<Type> getTypes() {
 		return types;
 	}
 
@@ -73,35 +78,23 @@ public class CGenVisitor extends GooBaseVisitor<LLVMValue> {
 		return typ;
 	}
 
-	public Type lookupType(ParserRuleContext ctx) {
-		assert ctx != null;
-		Type typ = types.get(ctx);
-        if (typ != null) return typ;
-        if (ctx.getChildCount() == 1 && ctx.getChild(0) instanceof ParserRuleContext)
-        	return lookupType((ParserRuleContext)ctx.getChild(0));
-        return null;
+	// the symbols resolved by pass 2
+	public void setBindings(Bindings bindings) {
+		this.bindings = bindings;
 	}
-	
-	private int size_impl (Type t) {
-		if (t instanceof Type.Struct) {
-			int size=0;
-			for (Symbol s : ((Type.Struct)t).getFields().values()) size+=size_impl(s.getType());
-			return size;
-		}
-		if (t instanceof Type.Array) {
-			Type.Array a=(Type.Array)t;
-			return size_impl(a.getElementType())*a.getSize();
-		}
-		return 8;
+
+	// the Ast trees of the expressions, from AstBuilder
+	public void setAst(NodeTable<Ast.Expr> ast) {
+		this.ast = ast;
 	}
-    
+
     private LLVMValue size (Type t) {
-        return new LLVMValue("i64",String.valueOf(size_impl(t)),false);
+        return new LLVMValue("i64",String.valueOf(ll.getSize(t)),false);
     }
     
     private void declare_calloc() {
         if (calloc_declared) return;
-        ll.prePrintf("declare i8* @calloc(i64, i64) #1\n");
+        ll.declare("declare i8* @calloc(i64, i64) #1");
         calloc_declared=true;
     }
     
@@ -111,8 +104,8 @@ public class CGenVisitor extends GooBaseVisitor<LLVMValue> {
         assert(size.getType().equals("i64"));
         num=ll.dereference(num);
         size=ll.dereference(size);
-        String t=ll.nextTemporary();
-        ll.printf("  %s = call i8* @calloc(%s, %s)\n",t,num.toString(),size.toString());
+        IR.Instruction t=ll.emit(IR.call("i8*","i8*",new IR.Const(null,"@calloc"),
+            Arrays.asList(num.getIR(),size.getIR())));
         return new LLVMValue("i8*",t,false);
     }
     
@@ -122,9 +115,8 @@ public class CGenVisitor extends GooBaseVisitor<LLVMValue> {
     
     private LLVMValue new_builtin (Type t) {
         LLVMValue pointer=calloc(t);
-        String temp=ll.nextTemporary();
         String desc=ll.getTypeDescriptor(t)+"*";
-        ll.printf("  %s = bitcast %s to %s\n",temp,pointer.toString(),desc);
+        IR.Instruction temp=ll.emit(IR.cast("bitcast",pointer.getIR(),desc));
         return new LLVMValue(desc,temp,false);
     }
 
@@ -236,9 +228,8 @@ public class CGenVisitor extends GooBaseVisitor<LLVMValue> {
 
     @Override
 	public LLVMValue visitConstSpec(GooParser.ConstSpecContext ctx) {
-	    List<Token> ids = ctx.identifierList().idl;
 	    LLVMValue.LLVMValueList cvals = (LLVMValue.LLVMValueList)visit(ctx.constSpecRem());
-	    mutipleDeclarations(ctx,ids,cvals,true);
+	    mutipleDeclarations(ctx,ctx.identifierList(),cvals,true);
 		return null;
 	}
 
@@ -277,9 +268,8 @@ public class CGenVisitor extends GooBaseVisitor<LLVMValue> {
 
     @Override
 	public LLVMValue visitVarSpec(GooParser.VarSpecContext ctx) {
-	    List<Token> ids = ctx.identifierList().idl;
 	    LLVMValue.LLVMValueList initVals = (LLVMValue.LLVMValueList)visit(ctx.varSpecRem());
-	    mutipleDeclarations(ctx,ids,initVals,false);
+	    mutipleDeclarations(ctx,ctx.identifierList(),initVals,false);
 		return null;
 	}
 
@@ -293,9 +283,8 @@ public class CGenVisitor extends GooBaseVisitor<LLVMValue> {
 
 	@Override
 	public LLVMValue visitShortVarDecl(GooParser.ShortVarDeclContext ctx) {
-	    List<Token> ids = ctx.identifierList().idl;
 	    LLVMValue.LLVMValueList vals = (LLVMValue.LLVMValueList)visit(ctx.expressionList());
-	    mutipleDeclarations(ctx,ids,vals,false);
+	    mutipleDeclarations(ctx,ctx.identifierList(),vals,false);
 		return null;
 	}
 
@@ -305,47 +294,39 @@ public class CGenVisitor extends GooBaseVisitor<LLVMValue> {
 	    if (fn == null) return null;
 		Token funcId = ctx.functionName().Identifier().getSymbol();
 		String funcName = funcId.getText();
-		FunctionSymbol function = (FunctionSymbol)currentScope.resolveInCurrent(funcName);
+		FunctionSymbol function = (FunctionSymbol)bindings.use(ctx.functionName());
 		currentScope = function;		// enter the new scope
-	    Type.Function sig = (Type.Function)lookupType(ctx);
+	    Type.Function sig = (Type.Function)function.getType();
 	    Type[] results = sig.getResults();
 	    String retType = "void";
 	    if (results != null && results.length > 0)
-	        retType = ll.createTypeDescriptor(results[0]);
+	        retType = ll.getTypeDescriptor(results[0]);
 	    ll.resetNumbering();
-	    ll.println("; Function Attrs: nounwind uwtable");
-	    ll.printf("define %s @%s(", retType, funcName );
+	    IR.Function irfn = ll.beginFunction("@"+funcName, retType);
+	    irfn.comment = "Function Attrs: nounwind uwtable";
 	    localVariables.clear();
-	    boolean notFirst = false;
-	    StringBuilder sb = new StringBuilder();
+	    ll.writeLabel("entry");
 	    for( Symbol parm : function.getParameters() ) {
-	    	String ptyp = ll.createTypeDescriptor(parm.getType());
-	    	int llalign = ll.getAlignment(ptyp);
+	    	String ptyp = ll.getTypeDescriptor(parm.getType());
+	    	int llalign = ll.getAlignment(parm.getType());
 	    	String llname = "%"+parm.getName();
-	    	if (notFirst)
-	    		ll.print(", ");
-	    	else
-	    		notFirst = true;
-	    	ll.printf("%s %s", ptyp, llname);
-	    	String llnameref = llname + ".addr";
-	    	sb.append(String.format("  %s = alloca %s, align %d\n",
-	    		llnameref, ptyp, llalign));
-	    	sb.append(String.format("  store %s %s, %s* %s, align %d\n",
-	    		ptyp, llname, ptyp, llnameref, llalign));
-	    	localVariables.put(parm, new LLVMValue(ptyp, llnameref, true));
+	    	IR.Param p = new IR.Param(ptyp, llname);
+	    	irfn.params.add(p);
+	    	IR.Instruction ref = ll.emit(IR.alloca(ptyp, llname + ".addr", llalign));
+	    	ll.emit(IR.store(p, ref, llalign));
+	    	localVariables.put(parm, new LLVMValue(ptyp, ref, true));
 	    }
-	    ll.println(") {");
-	    ll.println("entry:");
-	    ll.print(sb.toString());
 	    visit(fn);
 	    // force a ret instruction to appear
 	    if (retType == "void")
-	    	ll.println("  ret void");
+	    	ll.emit(IR.ret(null));
 	    else {
-	    	ll.printf("  ret %s %s\n", retType, "0"); 
+	    	String zero = retType.equals("double") || retType.equals("float")? "0.0"
+	    		: retType.endsWith("*")? "null" : retType.startsWith("i")? "0" : "zeroinitializer";
+	    	ll.emit(IR.ret(new IR.Const(retType, zero)));
 	    }
 		currentScope = currentScope.getEnclosingScope();  // exit scope
-		ll.println("}");
+		ll.endFunction();
 		localVariables.clear();
 		return null;
 	}
@@ -354,7 +335,6 @@ public class CGenVisitor extends GooBaseVisitor<LLVMValue> {
 
     @Override
     public LLVMValue visitFunction(GooParser.FunctionContext ctx) {
-	    Type signature = lookupType(ctx);
         visit(ctx.functionBody());
         return null;
     }
@@ -362,281 +342,40 @@ public class CGenVisitor extends GooBaseVisitor<LLVMValue> {
 	// functionBody:   block ;
 
 	// operand:   literal | operandName | '(' expression ')' ;
-	@Override
-	public LLVMValue visitOperand(GooParser.OperandContext ctx) {
-		if (ctx.expression() != null)
-			return visit(ctx.expression());
-	    return visitChildren(ctx);
-	}
-
 	// literal:   basicLit | compositeLit ;
+	// basicLit, operandName, compositeLit, literalType, literalValue,
+	// elementList, element, value, primaryExpr, newExpr, selector,
+	// index, slice, arguments:
+	//   lowered to Ast nodes by AstBuilder, see the Ast visit methods below
 
-	@Override
-	public LLVMValue visitBasicLit(GooParser.BasicLitContext ctx) {
-		Type typ = lookupType(ctx);
-		String text = ctx.getText();
-		if (ctx.IntLit() != null)
-			return new LLVMValue("i32", text, false);
-		else if (ctx.FloatLit() != null)
-			return new LLVMValue("double", text, false);
-		else if (ctx.RuneLit() != null)
-			return ll.newCharLit(text);
-		else if (ctx.StringLit() != null)
-			return ll.newStringLit(text);
-		ReportError.error(ctx, "failure");
-		return new LLVMValue("i32", "0", false);
-	}
-
-    @Override
-    public LLVMValue visitOperandName(GooParser.OperandNameContext ctx) {
-    	if (ctx.qualifiedIdent() != null) 
-        	return visit(ctx.qualifiedIdent());
-        String id = ctx.Identifier().getText();
-        Symbol sy = currentScope.resolve(id);
-        assert(sy != null);
-        LLVMValue rv = localVariables.get(sy);
-        if (rv == null)
-        	rv = LLVMExtras.lookupGlobal(ll,sy);
-        return rv;
-    }
-
-	// this visit method has the side-effect of setting packageSymbol
-	@Override
-	public LLVMValue visitQualifiedIdent(GooParser.QualifiedIdentContext ctx) {
-		String pkgName = ctx.packageName().getText();
-		String memberName = ctx.Identifier().getText();
-		packageSymbol = null;
-		packageName = null;
-		Symbol pkg = currentScope.resolve(pkgName);
-		if (pkg != null && pkg instanceof Packages.PackageSymbol) {
-			packageSymbol = ((Packages.PackageSymbol)pkg).getMember(memberName);
-			packageName = pkgName;
-			if (packageSymbol == null)
-				ReportError.error(ctx, pkgName + "." + memberName + " not found");
-		} else
-			ReportError.error(ctx, "package " + pkgName + " not found");
-		return null;
-	}
-
-	@Override
-	public LLVMValue visitCompositeLit(GooParser.CompositeLitContext ctx) {
-		return visitChildren(ctx);
-	}
-
-	@Override
-	public LLVMValue visitLiteralType(GooParser.LiteralTypeContext ctx) {
-		return visitChildren(ctx);
-	}
-
-	@Override
-	public LLVMValue visitLiteralValue(GooParser.LiteralValueContext ctx) {
-		return visitChildren(ctx);
-	}
-
-	// elementList:   exl+=element (',' exl+=element)*  ;
-
-	// element:   value ;
-
-	// value:   expression | literalValue ;
-
-	@Override
-	public LLVMValue visitPrimaryExpr(GooParser.PrimaryExprContext ctx) {
-		if (ctx.newExpr()!=null) return visit(ctx.newExpr());
-		if (ctx.arguments() != null) {
-            String funcName = ctx.primaryExpr().getText();
-			// generate code for a function call
-			LLVMValue.LLVMValueList valsList = (LLVMValue.LLVMValueList)visit(ctx.arguments());
-			ArrayList<LLVMValue> argVals = valsList.expressionList;
-			int k = 0;
-			for( LLVMValue exp : argVals ) {
-				exp = ll.dereference(exp);
-				if (exp.getValue().charAt(0)=='c')
-					exp = ll.forceStringReference(exp);
-				argVals.set(k++, exp);
-				
-			}
-			Symbol funcSym = currentScope.resolve(funcName);
-			if (funcSym != null && funcSym.getKind() == Symbol.Kind.TypeName) {
-        	    Type toType = funcSym.getType();
-        	    return LLVMExtras.typeConversion(ll, toType, argVals.get(0));
-			}
-			Symbol sym;
-			if (funcName.indexOf('.')>0) {
-				// it's a package member ... have to use member symbol
-				visit(ctx.primaryExpr());
-				sym = packageSymbol;
-			} else
-				sym = currentScope.resolve(funcName);
-			LLVMValue result = null;
-			if (sym != null) {
-				result = CGenFunctionCall.genCall(ll, ctx, sym, packageName, argVals);
-				packageSymbol = null;
-				packageName = null;
-			} else
-			    ReportError.error(ctx, "function not found: "+funcName);
-			return result;
-		}
-		if (ctx.selector() != null) {
-			// Handle an ambiguity between x.y parsing as both
-			// a qualifiedIdent and as a field selection from a struct value
-			String pkgName = ctx.primaryExpr().getText();
-			Symbol pkg = currentScope.resolve(pkgName);
-			if (pkg != null && pkg instanceof Packages.PackageSymbol) {
-				String memberName = ctx.selector().getText().substring(1);
-				packageSymbol = ((Packages.PackageSymbol)pkg).getMember(memberName);
-				packageName = pkgName;
-				return null;
-			}
-
-			// it's a field selection in a struct
-            String fieldName = ctx.selector().getText().substring(1);
-            LLVMValue structPtr = visit(ctx.primaryExpr());
-            Type.Struct structType = (Type.Struct)lookupType(ctx.primaryExpr());
-            return LLVMExtras.elementReference(ll, structType, structPtr, fieldName);
-		}
-		if (ctx.index() != null) {
-		    // create reference to an array element
-		    LLVMValue arrPtr = visit(ctx.primaryExpr());
-		    LLVMValue index = visit(ctx.index());
-		    Type.Array arrType = (Type.Array)lookupType(ctx.primaryExpr());
-		    return LLVMExtras.elementReference(ll, arrType, arrPtr, index);
-		}
-		return visitChildren(ctx);
-	}
-	
-	@Override
-	public LLVMValue visitNewExpr(GooParser.NewExprContext ctx) {
-		return new_builtin(lookupType(ctx));
-	}
-
-	// selector:   '.' Identifier ;
-
-	@Override
-	public LLVMValue visitIndex(GooParser.IndexContext ctx) {
-	    return visit(ctx.expression());
-	}
-
-	@Override
-	public LLVMValue visitSlice(GooParser.SliceContext ctx) {
-		return visitChildren(ctx);
-	}
-
-	@Override
-	public LLVMValue visitArguments(GooParser.ArgumentsContext ctx) {
-		if (ctx.expressionList() != null)
-			return visit(ctx.expressionList());
-		else
-			return LLVMValue.newLLVMValueList();
-	}
+	// Each of these is an outermost expression; its Ast tree generates the code.
 
 	@Override
 	public LLVMValue visitUnExp(GooParser.UnExpContext ctx) {
-		return visitChildren(ctx);
+		return gen(ast.get(ctx));
 	}
 
 	@Override
 	public LLVMValue visitNumExp(GooParser.NumExpContext ctx) {
-		Type typ = lookupType(ctx);
-		boolean isFloat = typ instanceof Type.Flt;
-		String text = ctx.addOp() != null?
-					ctx.addOp().getText() : ctx.mulOp().getText();
-		LLVMValue lhs = visit(ctx.expression(0));
-		LLVMValue rhs = visit(ctx.expression(1));
-		if (isFloat) {
-			String op = selectLLVMFltOperator(ctx, text);
-			return ll.writeFltInst(op, lhs, rhs);
-		} else {
-			boolean isSigned = !(typ instanceof Type.Uint);
-			String op = selectLLVMIntOperator(ctx, text, isSigned);
-			return ll.writeIntInst(op, lhs, rhs);
-		}
+		return gen(ast.get(ctx));
 	}
 
 	@Override
 	public LLVMValue visitRelExp(GooParser.RelExpContext ctx) {
-		LLVMValue lhs = visit(ctx.expression(0));
-		LLVMValue rhs = visit(ctx.expression(1));
-		String text = ctx.relOp().getText();
-		if (lhs.getType() == "float" || lhs.getType() == "double") {
-			String relop = selectLLVMFltComparison(ctx, text);
-			return ll.writeFCompInst(relop, lhs, rhs);
-		} else {
-			Type lhsType = lookupType(ctx.expression(0));
-			boolean isSigned = !(lhsType instanceof Type.Uint);
-			String relop = selectLLVMIntComparison(ctx, text, isSigned);
-			return ll.writeCompInst(relop, lhs, rhs);
-		}
+		return gen(ast.get(ctx));
 	}
-    
-    private LLVMValue visitAndOrExp (GooParser.BoolExpContext ctx, boolean a) {
-        String cont=ll.createBBLabel("continue");
-        String fail=ll.createBBLabel("fail");
-        String succeed=ll.createBBLabel("succeed");
-        String end=ll.createBBLabel("end");
-        LLVMValue lhs=visit(ctx.expression(0));
-        ll.writeCondBranch(lhs,a ? cont : succeed,a ? fail : cont);
-        ll.writeLabel(cont);
-        LLVMValue rhs=visit(ctx.expression(1));
-        ll.writeCondBranch(rhs,succeed,fail);
-        ll.writeLabel(succeed);
-        ll.writeBranch(end);
-        ll.writeLabel(fail);
-        ll.writeBranch(end);
-        ll.writeLabel(end);
-        String result=ll.nextTemporary();
-        ll.printf("  %s = phi i1 [ 0, %%%s ], [ 1, %%%s ]\n",result,fail,succeed);
-        return new LLVMValue("i1",result,false);
-    }
-    
+
     @Override
     public LLVMValue visitBoolExp(GooParser.BoolExpContext ctx) {
-        return visitAndOrExp(ctx,ctx.children.get(1).getText().equals("&&"));
+		return gen(ast.get(ctx));
     }
 
-	@Override
-	public LLVMValue visitUnaryExpr(GooParser.UnaryExprContext ctx) {
-        if (ctx.primaryExpr()!=null) return visit(ctx.primaryExpr());
-        if (ctx.unaryOp().getText().equals("+")) return visit(ctx.unaryExpr());
-        if (ctx.unaryOp().getText().equals("-")) {
-            LLVMValue operand=visit(ctx.unaryExpr());
-            boolean flt=operand.getType().equals("float") || operand.getType().equals("double");
-            LLVMValue neg1=new LLVMValue(operand.getType(),flt ? "-1.0" : "-1",false);
-            return flt ? ll.writeFltInst("fmul",operand,neg1) : ll.writeIntInst("mul",operand,neg1);
-        }
-        if (ctx.unaryOp().getText().equals("&")) {
-            LLVMValue operand=visit(ctx.unaryExpr());
-            return new LLVMValue(operand.getType()+"*",operand.getValue(),false);
-        }
-        if (ctx.unaryOp().getText().equals("*")) {
-            LLVMValue operand=visit(ctx.unaryExpr());
-            String t=operand.getType();
-            String demoted=t.substring(0,t.length()-1);
-            if (operand.isReference()) operand=ll.dereference(operand);
-            return new LLVMValue(demoted,operand.getValue(),true);
-        }
-        if (ctx.unaryOp().getText().equals("!")) {
-            LLVMValue operand = visit(ctx.unaryExpr());
-            LLVMValue o = ll.dereference(operand);
-            assert(o.getType() == "i1");
-            String rv = ll.nextTemporary();
-            ll.printf("  %s = xor i1 %s, 1\n", rv, o.getValue());
-            return new LLVMValue(o.getType(), rv, false);
-        }
-		return visitChildren(ctx);
-	}
-
+	// unaryExpr:   primaryExpr | unaryOp unaryExpr ;
 	// relOp:     '==' | '!=' | '<' | '<=' | '>' | '>=' ;
 	// addOp:     '+' | '-' | '|' | '^' ;
 	// mulOp:     '*' | '/' | '%' | '<<' | '>>' | '&' | '&^' ;
 	// unaryOp:   '+' | '-' | '!' | '^' | '*' | '&' ;
-
-    // Careful, conversions can have the same syntax as function calls
-	@Override
-	public LLVMValue visitConversion(GooParser.ConversionContext ctx) {
-	    Type toType = lookupType(ctx.type());
-	    LLVMValue exp = visit(ctx.expression());
-	    return LLVMExtras.typeConversion(ll, toType, exp);
-	}
+	// conversion:   conversionType '(' expression ','? ')' ;
 
 	// statement:   declaration | labeledStmt | simpleStmt
 	//          |   returnStmt | breakStmt | continueStmt
@@ -684,7 +423,7 @@ public class CGenVisitor extends GooBaseVisitor<LLVMValue> {
 					llop = selectLLVMFltOperator(ctx, operator);
 					src = ll.writeFltInst(llop, dest, src);
 				} else {
-					boolean isSigned = !(lookupType(ctx.expressionList(0).exl.get(k)) instanceof Type.Uint);
+					boolean isSigned = !(ast.get(ctx.expressionList(0).exl.get(k)).type instanceof Type.Uint);
 					llop = selectLLVMIntOperator(ctx, operator, isSigned);
 					src = ll.writeIntInst(llop, dest, src);
 				}
@@ -826,6 +565,228 @@ public class CGenVisitor extends GooBaseVisitor<LLVMValue> {
 	// importPath:   StringLit ;
 
 
+// ********************** Ast visit methods ******************************
+
+	LLVMValue gen(Ast.Expr e) {
+		if (e.value != null)
+			return constant(e);
+		return e.accept(this);
+	}
+
+	// a constant expression was evaluated by pass 2; its value is
+	// written as an LLVM constant of its type. Pass 2 gives an untyped
+	// constant the type of the variable or result it is stored in, so
+	// the type is untyped only where the constant has no destination.
+	private LLVMValue constant(Ast.Expr e) {
+		Constant c = e.value;
+		if (c.isString())
+			return ll.newStringLit(c.toString());
+		String t;
+		if (e.type == null || e.type == Type.unknownType)
+			t = c.isBool()? "i1" : c.isFloat()? "double" : "i32";
+		else
+			t = ll.getTypeDescriptor(e.type);
+		if (c.isNumeric() && !c.isIntegral() && !t.equals("float") && !t.equals("double"))
+			t = "double";
+		return new LLVMValue(t, c.toLLVM(t), false);
+	}
+
+	// the value of an argument of a call is passed in a temporary
+	private LLVMValue argument(LLVMValue exp) {
+		exp = ll.dereference(exp);
+		if (exp.isStringConstant())
+			exp = ll.forceStringReference(exp);
+		return exp;
+	}
+
+    @Override
+    public LLVMValue visitNameNode(Ast.Name e) {
+        assert(e.symbol != null);
+        LLVMValue rv = localVariables.get(e.symbol);
+        if (rv == null)
+        	rv = LLVMExtras.lookupGlobal(ll,e.symbol);
+        return rv;
+    }
+
+	@Override
+	public LLVMValue visitLitNode(Ast.Lit e) {
+		switch(e.tokenType) {
+		case GooParser.IntLit:
+			return new LLVMValue("i32", e.text, false);
+		case GooParser.FloatLit:
+			return new LLVMValue("double", e.text, false);
+		case GooParser.RuneLit:
+			return ll.newCharLit(e.text);
+		case GooParser.StringLit:
+			return ll.newStringLit(e.text);
+		}
+		ReportError.error(e.ctx, "failure");
+		return new LLVMValue("i32", "0", false);
+	}
+
+	@Override
+	public LLVMValue visitCompositeNode(Ast.Composite e) {
+		for( Ast.Expr elem : e.elements )
+			gen(elem);
+		return null;
+	}
+
+	@Override
+	public LLVMValue visitNewNode(Ast.New e) {
+		// the node has type *T and allocates a T
+		return new_builtin(((Type.Pointer)e.type).getBaseType());
+	}
+
+	@Override
+	public LLVMValue visitConvertNode(Ast.Convert e) {
+		if (e.operand == null) {
+			ReportError.error(e.ctx, "missing operand in conversion");
+			return new LLVMValue("i32", "0", false);
+		}
+		return LLVMExtras.typeConversion(ll, e.type, gen(e.operand));
+	}
+
+	// the member of a package has a value only when it is called
+	@Override
+	public LLVMValue visitSelectorNode(Ast.Selector e) {
+		if (e.member != null)
+			return null;
+        LLVMValue structPtr = gen(e.base);
+        return LLVMExtras.elementReference(ll, (Type.Struct)e.base.type, structPtr, e.name);
+	}
+
+	@Override
+	public LLVMValue visitIndexNode(Ast.Index e) {
+	    // create reference to an array element
+	    LLVMValue arrPtr = gen(e.base);
+	    LLVMValue index = gen(e.index);
+	    return LLVMExtras.elementReference(ll, (Type.Array)e.base.type, arrPtr, index);
+	}
+
+	@Override
+	public LLVMValue visitSliceNode(Ast.Slice e) {
+		gen(e.base);
+		for( Ast.Expr bound : new Ast.Expr[]{ e.lo, e.hi, e.max } )
+			if (bound != null)
+				gen(bound);
+		return null;
+	}
+
+	@Override
+	public LLVMValue visitCallNode(Ast.Call e) {
+		if (e.conversion != null) {
+			// pass 2 found that the function part is a type
+			if (e.args.isEmpty()) {
+				ReportError.error(e.ctx, "missing operand in conversion");
+				return new LLVMValue("i32", "0", false);
+			}
+			return LLVMExtras.typeConversion(ll, e.conversion, argument(gen(e.args.get(0))));
+		}
+		ArrayList<LLVMValue> argVals = new ArrayList<LLVMValue>();
+		for( Ast.Expr arg : e.args )
+			argVals.add(argument(gen(arg)));
+		Symbol sym = null;
+		String packageName = null;
+		if (e.function instanceof Ast.Name)
+			sym = ((Ast.Name)e.function).symbol;
+		else if (e.function instanceof Ast.Selector && ((Ast.Selector)e.function).member != null) {
+			// it's a package member
+			Ast.Selector sel = (Ast.Selector)e.function;
+			sym = sel.member;
+			packageName = ((Ast.Name)sel.base).name;
+		}
+		if (sym == null) {
+			if (e.function instanceof Ast.Selector)
+			    ReportError.error(e.ctx, "function not found: "+((Ast.Selector)e.function).name);
+			else
+			    ReportError.error(e.ctx, "only a named function can be called");
+		    return null;
+		}
+		return CGenFunctionCall.genCall(ll, e.ctx, sym, packageName, argVals);
+	}
+
+	@Override
+	public LLVMValue visitUnaryNode(Ast.Unary e) {
+        LLVMValue operand=gen(e.operand);
+        switch(e.op) {
+        case "-":
+            boolean flt=operand.getType().equals("float") || operand.getType().equals("double");
+            LLVMValue neg1=new LLVMValue(operand.getType(),flt ? "-1.0" : "-1",false);
+            return flt ? ll.writeFltInst("fmul",operand,neg1) : ll.writeIntInst("mul",operand,neg1);
+        case "&":
+            return new LLVMValue(operand.getType()+"*",operand.getIR(),false);
+        case "*":
+            String t=operand.getType();
+            String demoted=t.substring(0,t.length()-1);
+            if (operand.isReference()) operand=ll.dereference(operand);
+            return new LLVMValue(demoted,operand.getIR(),true);
+        case "!":
+            LLVMValue o = ll.dereference(operand);
+            assert(o.getType() == "i1");
+            IR.Instruction rv = ll.emit(IR.binary("xor", o.getIR(), new IR.Const("i1", "1")));
+            return new LLVMValue(o.getType(), rv, false);
+        }
+		return operand;		// + and ^
+	}
+
+	@Override
+	public LLVMValue visitBinaryNode(Ast.Binary e) {
+		switch(e.op) {
+		case "&&":
+			return genAndOr(e, true);
+		case "||":
+			return genAndOr(e, false);
+		case "==": case "!=": case "<": case "<=": case ">": case ">=":
+			return genComparison(e);
+		}
+		Type typ = e.type;
+		boolean isFloat = typ instanceof Type.Flt;
+		LLVMValue lhs = gen(e.left);
+		LLVMValue rhs = gen(e.right);
+		if (isFloat) {
+			String op = selectLLVMFltOperator(e.ctx, e.op);
+			return ll.writeFltInst(op, lhs, rhs);
+		} else {
+			boolean isSigned = !(typ instanceof Type.Uint);
+			String op = selectLLVMIntOperator(e.ctx, e.op, isSigned);
+			return ll.writeIntInst(op, lhs, rhs);
+		}
+	}
+
+	private LLVMValue genComparison(Ast.Binary e) {
+		LLVMValue lhs = gen(e.left);
+		LLVMValue rhs = gen(e.right);
+		if (lhs.getType() == "float" || lhs.getType() == "double") {
+			String relop = selectLLVMFltComparison(e.ctx, e.op);
+			return ll.writeFCompInst(relop, lhs, rhs);
+		} else {
+			boolean isSigned = !(e.left.type instanceof Type.Uint);
+			String relop = selectLLVMIntComparison(e.ctx, e.op, isSigned);
+			return ll.writeCompInst(relop, lhs, rhs);
+		}
+	}
+
+    private LLVMValue genAndOr (Ast.Binary e, boolean a) {
+        String cont=ll.createBBLabel("continue");
+        String fail=ll.createBBLabel("fail");
+        String succeed=ll.createBBLabel("succeed");
+        String end=ll.createBBLabel("end");
+        LLVMValue lhs=gen(e.left);
+        ll.writeCondBranch(lhs,a ? cont : succeed,a ? fail : cont);
+        ll.writeLabel(cont);
+        LLVMValue rhs=gen(e.right);
+        ll.writeCondBranch(rhs,succeed,fail);
+        ll.writeLabel(succeed);
+        ll.writeBranch(end);
+        ll.writeLabel(fail);
+        ll.writeBranch(end);
+        ll.writeLabel(end);
+        IR.Instruction result=ll.emit(IR.phi("i1",
+            new IR.Value[]{ new IR.Const("i1","0"), new IR.Const("i1","1") },
+            new String[]{ fail, succeed }));
+        return new LLVMValue("i1",result,false);
+    }
+
 // ********************** utility methods ********************************
 
 	// scans up enclosing scopes to find current function
@@ -837,8 +798,11 @@ public class CGenVisitor extends GooBaseVisitor<LLVMValue> {
 		return (FunctionSymbol)scope;
 	}
 
-    private void mutipleDeclarations(ParserRuleContext ctx, List<Token> ids, 
+    // the symbols are those which pass 2 recorded for the identifier list
+    private void mutipleDeclarations(ParserRuleContext ctx, GooParser.IdentifierListContext idList,
     				LLVMValue.LLVMValueList vals, boolean isConst) {
+    	List<Token> ids = idList.idl;
+    	Symbol[] syms = bindings.declarations(idList);
     	boolean valueProvided = true;
     	if (vals.size() == 0)
     		valueProvided = false;
@@ -848,11 +812,10 @@ public class CGenVisitor extends GooBaseVisitor<LLVMValue> {
 	    	assert(false);
 	    }
 	    int k = 0;
-	    for( Token id : ids ) {
-	        String name = id.getText();
-	        Symbol sy = currentScope.resolveInCurrent(name);
+	    for( int i = 0; i < ids.size(); i++ ) {
+	        Symbol sy = syms == null? null : syms[i];
 	        if (sy == null) {
-	            ReportError.error(ctx, "variable/constant "+name+" not found in symbol table");
+	            ReportError.error(ctx, "variable/constant "+ids.get(i).getText()+" not found in symbol table");
 	            continue;
 	        }
 	        LLVMValue cv = null;
@@ -867,7 +830,7 @@ public class CGenVisitor extends GooBaseVisitor<LLVMValue> {
 	            LLVMValue ref = LLVMExtras.writeLocalDecl(ll,sy);
 	            localVariables.put(sy, ref);
 	            if (valueProvided) {
-		            if (cv.getValue().charAt(0)=='c') {
+		            if (cv.isStringConstant()) {
 		                // a local string variable is to be initialized
 		                LLVMExtras.writeAssignment(ll, ll.forceStringReference(cv), ref);
 		            } else {
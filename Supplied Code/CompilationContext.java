@@ -0,0 +1,121 @@
+// CompilationContext.java
+//
+// Holds all the state which belongs to one compilation of one source file:
+// the command line options, the error and warning counts, the stream
+// where messages are written, the predefined types and the caches used
+// by the various passes.
+//
+// GooMain creates one instance per file and passes it explicitly to the
+// visitors and to the LLVM code emitter. Code which is reached through
+// static helper methods (ReportError, Type, BlockScope ...) finds the
+// instance for the compilation running on the current thread by calling
+// CompilationContext.current().
+
+import java.io.*;
+import java.util.*;
+
+public class CompilationContext {
+	// options
+	boolean traceSymTab = false;		// -dtsy
+	boolean dumpSymTab = false;			// -dsym
+	boolean dumpPredefineds = false;	// -dpre
+	boolean printTree = false;			// -dppt
+	String triple = null;				// -triple
+	boolean sharePredefineds = false;	// use Predefined.sharedScope (compile server)
+	boolean dumpStats = false;			// -dstats
+	boolean timePhases = false;			// -dtime
+	boolean timeJson = false;			// -dtime=json
+	boolean lexCheck = false;			// -dlexcheck
+	boolean useScanner = false;			// -scanner
+	ParseProfile parseProfile = null;	// -dparseprof; shared like stats
+	String cacheDir = null;				// -cache
+	long cacheMaxBytes = CompileCache.defaultMaxBytes;	// -cachesize
+	boolean packStructs = false;		// -packstructs
+	boolean emitBitcode = false;		// -emit-bc
+	boolean bitcodeCheck = false;		// -dbccheck
+	boolean verifyIR = false;			// -dverify
+
+	// diagnostics
+	PrintStream out;
+	int errorCount = 0;
+	int warningCount = 0;
+
+	// these predefined types must sometimes be accessed without going
+	// via symbol table lookup (when library packages are imported);
+	// they are set by Predefined.AddPredefinedNames
+	Type intType;
+	Type stringType;
+	Type boolType;
+	Type floatType;  // float64 type
+	Type runeType;
+
+	// counters for -dstats; shared by all the files compiled in one run
+	Statistics stats = new Statistics();
+
+	// per-compilation caches
+	HashMap<String,Type.UntypedNumber> unTypNumCache =
+						new HashMap<String,Type.UntypedNumber>();
+	Packages packages;
+	NameTable names = new NameTable();		// the identifiers, interned by the lexer
+	TypeTable typeTable = new TypeTable();	// the canonical structural types
+	private DataLayout dataLayout = null;	// built from the triple when needed
+
+	private static final ThreadLocal<CompilationContext> currentContext =
+		new ThreadLocal<CompilationContext>() {
+			@Override protected CompilationContext initialValue() {
+				return new CompilationContext(System.out);
+			}
+		};
+
+	public CompilationContext( PrintStream out ) {
+		this.out = out;
+		packages = new Packages(this);
+	}
+
+	// copies the options from another context; the statistics are
+	// shared with that context
+	public void copyOptions( CompilationContext other ) {
+		traceSymTab = other.traceSymTab;
+		dumpSymTab = other.dumpSymTab;
+		dumpPredefineds = other.dumpPredefineds;
+		printTree = other.printTree;
+		triple = other.triple;
+		sharePredefineds = other.sharePredefineds;
+		dumpStats = other.dumpStats;
+		timePhases = other.timePhases;
+		timeJson = other.timeJson;
+		lexCheck = other.lexCheck;
+		useScanner = other.useScanner;
+		parseProfile = other.parseProfile;
+		cacheDir = other.cacheDir;
+		cacheMaxBytes = other.cacheMaxBytes;
+		packStructs = other.packStructs;
+		emitBitcode = other.emitBitcode;
+		bitcodeCheck = other.bitcodeCheck;
+		verifyIR = other.verifyIR;
+		stats = other.stats;
+	}
+
+	// the sizes and alignments of types on the target machine
+	public DataLayout getDataLayout() {
+		if (dataLayout == null) {
+			dataLayout = DataLayout.forTriple(triple == null? LLVM.defaultTriple : triple);
+			dataLayout.setReorderFields(packStructs);
+		}
+		return dataLayout;
+	}
+
+	// the compilation being performed by the current thread
+	public static CompilationContext current() { return currentContext.get(); }
+
+	// makes this the compilation being performed by the current thread
+	public void makeCurrent() { currentContext.set(this); }
+
+	public PrintStream getOutput() { return out; }
+
+	public int getErrorCount() { return errorCount; }
+
+	public int getWarningCount() { return warningCount; }
+
+	public Packages getPackages() { return packages; }
+}
@@ -0,0 +1,206 @@
+// CompileCache.java
+//
+// A content-addressed cache of generated .ll files, enabled with the
+// -cache DIR option. The key of an entry is the SHA-256 digest of the
+// compiler version, the target triple, the code generation options (such
+// as -packstructs) and the bytes of the source file, so an unchanged file
+// is never compiled twice. With -emit-bc the entries hold bitcode and are
+// named KEY.bc instead of KEY.ll, after the output file; the option is
+// part of the key as well, so the two kinds are never confused.
+//
+// Entries are written to a temporary file in the cache directory and then
+// renamed, so a reader (possibly another process sharing the directory)
+// never sees a partly written entry. A hit updates the entry's last
+// modified time, and when the directory grows beyond its size cap the
+// least recently used entries are deleted.
+
+import java.io.*;
+import java.nio.*;
+import java.nio.file.*;
+import java.security.*;
+import java.util.*;
+
+public class CompileCache {
+	// must be changed whenever the generated code changes; the time stamp
+	// of the compiler's class files is included in the key as well
+	static final String compilerVersion = "goo-1.1";
+
+	static final long defaultMaxBytes = 256L*1024*1024;
+
+	// one instance per directory, shared by all compilations in the JVM
+	private static final Map<File,CompileCache> caches = new HashMap<File,CompileCache>();
+	private static String fingerprint = null;
+
+	File dir;
+	long maxBytes;
+	long totalBytes = -1;		// -1 => not yet measured
+
+	private CompileCache( File dir, long maxBytes ) {
+		this.dir = dir;
+		this.maxBytes = maxBytes;
+	}
+
+	// returns the cache held in directory dir, creating the directory if needed
+	public static synchronized CompileCache forDirectory( String dirName, long maxBytes )
+			throws IOException {
+		File dir = new File(dirName).getCanonicalFile();
+		CompileCache cache = caches.get(dir);
+		if (cache == null) {
+			if (!dir.isDirectory() && !dir.mkdirs())
+				throw new IOException("cannot create cache directory " + dir);
+			cache = new CompileCache(dir, maxBytes);
+			caches.put(dir, cache);
+		}
+		cache.maxBytes = maxBytes;
+		return cache;
+	}
+
+	// computes the key for compiling source for the target triple, with
+	// the options which change the code generated
+	public String key( ByteBuffer source, String triple, String options ) {
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("SHA-256");
+		} catch(NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);	// every JVM provides SHA-256
+		}
+		try {
+			md.update(compilerFingerprint().getBytes("UTF-8"));
+			md.update((byte)0);
+			md.update(triple.getBytes("UTF-8"));
+			md.update((byte)0);
+			md.update(options.getBytes("UTF-8"));
+			md.update((byte)0);
+		} catch(UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+		md.update(source);
+		StringBuilder sb = new StringBuilder();
+		for( byte b : md.digest() )
+			sb.append(String.format("%02x", b & 0xff));
+		return sb.toString();
+	}
+
+	// the names of the entries end with the suffix of the output file
+	static final String[] suffixes = { ".ll", ".bc" };
+
+	// the entry for key which holds output of the same kind as file
+	private File entryFor( String key, File file ) {
+		String name = file.getName();
+		for( String suffix : suffixes )
+			if (name.endsWith(suffix))
+				return new File(dir, key + suffix);
+		return new File(dir, key + suffixes[0]);
+	}
+
+	// copies the entry for key to dest; the result is false on a miss
+	public boolean fetch( String key, File dest ) {
+		File entry = entryFor(key, dest);
+		try {
+			Files.copy(entry.toPath(), dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch(IOException e) {
+			return false;	// not present, or evicted while we were copying
+		}
+		entry.setLastModified(System.currentTimeMillis());
+		return true;
+	}
+
+	// adds a copy of output (a .ll or .bc file) as the entry for key; the
+	// result is the number of entries evicted to keep the cache within its cap
+	public int store( String key, File output ) throws IOException {
+		File entry = entryFor(key, output);
+		long replaced = entry.length();		// 0 if there is no entry yet
+		File tmp = File.createTempFile(key, ".tmp", dir);
+		try {
+			Files.copy(output.toPath(), tmp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			try {
+				Files.move(tmp.toPath(), entry.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			} catch(AtomicMoveNotSupportedException e) {
+				Files.move(tmp.toPath(), entry.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			tmp.delete();	// does nothing if the rename succeeded
+		}
+		return added(entry.length() - replaced);
+	}
+
+	// growth is the change in the size of the directory
+	private synchronized int added( long growth ) {
+		if (totalBytes < 0)
+			totalBytes = measure();
+		else
+			totalBytes += growth;
+		if (totalBytes <= maxBytes)
+			return 0;
+		return evict();
+	}
+
+	private long measure() {
+		long total = 0;
+		for( File f : entries() )
+			total += f.length();
+		return total;
+	}
+
+	private File[] entries() {
+		File[] files = dir.listFiles(new FileFilter() {
+			public boolean accept(File f) {
+				for( String suffix : suffixes )
+					if (f.getName().endsWith(suffix))
+						return true;
+				return false;
+			}
+		});
+		return files == null? new File[0] : files;
+	}
+
+	// deletes least recently used entries until the cache is 10% below its cap
+	private int evict() {
+		File[] files = entries();
+		final Map<File,Long> used = new HashMap<File,Long>();
+		for( File f : files )
+			used.put(f, f.lastModified());
+		Arrays.sort(files, new Comparator<File>() {
+			public int compare(File a, File b) { return used.get(a).compareTo(used.get(b)); }
+		});
+		long total = 0;
+		for( File f : files )
+			total += f.length();
+		long target = maxBytes - maxBytes/10;
+		int count = 0;
+		for( File f : files ) {
+			if (total <= target) break;
+			long size = f.length();
+			if (f.delete()) {
+				total -= size;
+				count++;
+			}
+		}
+		totalBytes = total;
+		return count;
+	}
+
+	// the compiler version combined with the time stamp of the code
+	// (jar file or newest class file) that this class was loaded from
+	private static synchronized String compilerFingerprint() {
+		if (fingerprint != null)
+			return fingerprint;
+		long stamp = 0;
+		try {
+			File loc = new File(CompileCache.class.getProtectionDomain()
+				.getCodeSource().getLocation().toURI());
+			if (loc.isDirectory()) {
+				File[] classes = loc.listFiles();
+				if (classes != null)
+					for( File f : classes )
+						if (f.getName().endsWith(".class"))
+							stamp = Math.max(stamp, f.lastModified());
+			} else
+				stamp = loc.lastModified();
+		} catch(Exception e) {
+			// no code source available; rely on the version alone
+		}
+		fingerprint = compilerVersion + "@" + stamp;
+		return fingerprint;
+	}
+}
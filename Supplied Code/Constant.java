@@ -0,0 +1,264 @@
+// Constant.java
+//
+// The value of a constant expression, computed during type checking.
+//
+// As in Go, the arithmetic on constants is exact: an integer constant is
+// held as a BigInteger and a floating-point constant as a BigDecimal, so
+// that  1<<40 >> 38  is 4 and  0.1+0.2 == 0.3  is true. A value is only
+// rounded when the code generator writes it as an LLVM constant.
+//
+// A string constant is held as the text between the quotes of its literal,
+// with any escapes left as written, so that it can be written out again
+// as a literal; a concatenation joins the texts.
+//
+// The operators are applied by binary and unary, which return null when
+// the operator cannot be applied to the operands (the type checker then
+// reports the error, if any). Dividing by zero throws ArithmeticException.
+
+import java.math.*;
+
+public class Constant {
+	enum Kind { Int, Float, Bool, String }
+
+	// the precision of a division which does not terminate
+	static final MathContext divisionPrecision = MathContext.DECIMAL128;
+	// the largest shift count accepted
+	static final int maxShift = 4096;
+
+	public static final Constant TRUE = new Constant(true);
+	public static final Constant FALSE = new Constant(false);
+
+	final Kind kind;
+	private final BigInteger ival;		// Int
+	private final BigDecimal fval;		// Float
+	private final boolean bval;			// Bool
+	private final String sval;			// String
+
+	private Constant( BigInteger i ) { kind = Kind.Int; ival = i; fval = null; bval = false; sval = null; }
+	private Constant( BigDecimal f ) { kind = Kind.Float; ival = null; fval = f; bval = false; sval = null; }
+	private Constant( boolean b ) { kind = Kind.Bool; ival = null; fval = null; bval = b; sval = null; }
+	private Constant( String s ) { kind = Kind.String; ival = null; fval = null; bval = false; sval = s; }
+
+	public static Constant newInt( BigInteger i ) { return new Constant(i); }
+	public static Constant newInt( long i ) { return new Constant(BigInteger.valueOf(i)); }
+	public static Constant newFloat( BigDecimal f ) { return new Constant(f); }
+	public static Constant newBool( boolean b ) { return b? TRUE : FALSE; }
+
+	// the value of a StringLit, such as "a\n"
+	public static Constant newString( String literal ) {
+		assert literal.length() >= 2 && literal.charAt(0) == '"';
+		return new Constant(literal.substring(1, literal.length()-1));
+	}
+
+	// the value of an IntLit or FloatLit; throws NumberFormatException
+	public static Constant parse( String text ) {
+		if (text.startsWith("0x") || text.startsWith("0X"))
+			return newInt(new BigInteger(text.substring(2), 16));
+		if (text.indexOf('.') >= 0 || text.indexOf('e') >= 0 || text.indexOf('E') >= 0)
+			return newFloat(new BigDecimal(text));
+		if (text.length() > 1 && text.charAt(0) == '0')
+			return newInt(new BigInteger(text.substring(1), 8));
+		return newInt(new BigInteger(text));
+	}
+
+	public boolean isInt() { return kind == Kind.Int; }
+	public boolean isFloat() { return kind == Kind.Float; }
+	public boolean isBool() { return kind == Kind.Bool; }
+	public boolean isString() { return kind == Kind.String; }
+	public boolean isNumeric() { return kind == Kind.Int || kind == Kind.Float; }
+
+	// true for an Int, and for a Float with an integer value (such as 2.0)
+	public boolean isIntegral() {
+		if (kind == Kind.Int) return true;
+		if (kind != Kind.Float) return false;
+		return fval.signum() == 0 || fval.stripTrailingZeros().scale() <= 0;
+	}
+
+	public boolean boolValue() { assert kind == Kind.Bool; return bval; }
+
+	// the value as an integer; the value must be integral
+	public BigInteger bigIntValue() {
+		assert isIntegral();
+		return kind == Kind.Int? ival : fval.toBigInteger();
+	}
+
+	public BigDecimal bigDecimalValue() {
+		assert isNumeric();
+		return kind == Kind.Int? new BigDecimal(ival) : fval;
+	}
+
+	public double doubleValue() {
+		return kind == Kind.Int? ival.doubleValue() : fval.doubleValue();
+	}
+
+	// the same value as a constant of type typ: an integral Float becomes
+	// an Int for an integer type, and an Int becomes a Float for a floating
+	// point type; null if the value cannot be represented, because it is
+	// not an integer or is outside the range of typ
+	public Constant convert( Type typ ) {
+		if (typ instanceof Type.Int || typ instanceof Type.Uint) {
+			if (!isIntegral() || !inRange(bigIntValue(), typ)) return null;
+			return kind == Kind.Int? this : newInt(bigIntValue());
+		}
+		if (typ instanceof Type.Flt) {
+			if (!isNumeric()) return null;
+			double d = doubleValue();
+			if (Double.isInfinite(((Type.Flt)typ).getSize() == 32? (float)d : d)) return null;
+			return kind == Kind.Float? this : newFloat(bigDecimalValue());
+		}
+		return this;
+	}
+
+	// the error reported when convert(typ) is null
+	public String conversionError( Type typ ) {
+		if (!isNumeric())
+			return "cannot convert constant "+this+" to "+typ;
+		boolean isInteger = typ instanceof Type.Int || typ instanceof Type.Uint;
+		if (isInteger? isIntegral() : isNumeric())
+			return "constant "+this+" overflows "+typ;
+		return "constant "+this+" truncated to "+typ;
+	}
+
+	// true if v is a value of the integer type typ
+	private static boolean inRange( BigInteger v, Type typ ) {
+		if (typ instanceof Type.Uint)
+			return v.signum() >= 0 && v.bitLength() <= ((Type.Uint)typ).getSize();
+		return v.bitLength() < ((Type.Int)typ).getSize();
+	}
+
+	// x op y, or null if op does not apply to x and y
+	public static Constant binary( String op, Constant x, Constant y ) {
+		if (x.isBool() || y.isBool()) {
+			if (!x.isBool() || !y.isBool()) return null;
+			switch(op) {
+			case "&&":	return newBool(x.bval && y.bval);
+			case "||":	return newBool(x.bval || y.bval);
+			case "==":	return newBool(x.bval == y.bval);
+			case "!=":	return newBool(x.bval != y.bval);
+			}
+			return null;
+		}
+		if (x.isString() || y.isString()) {
+			if (!x.isString() || !y.isString()) return null;
+			if (op.equals("+")) return new Constant(x.sval + y.sval);
+			return compare(op, unescape(x.sval).compareTo(unescape(y.sval)));
+		}
+		if (x.isInt() && y.isInt())
+			return intBinary(op, x.ival, y.ival);
+		BigDecimal a = x.bigDecimalValue(), b = y.bigDecimalValue();
+		switch(op) {
+		case "+":	return newFloat(a.add(b));
+		case "-":	return newFloat(a.subtract(b));
+		case "*":	return newFloat(a.multiply(b));
+		case "/":
+			if (b.signum() == 0) throw new ArithmeticException("division by zero");
+			return newFloat(a.divide(b, divisionPrecision));
+		}
+		return compare(op, a.compareTo(b));
+	}
+
+	private static Constant intBinary( String op, BigInteger a, BigInteger b ) {
+		switch(op) {
+		case "+":	return newInt(a.add(b));
+		case "-":	return newInt(a.subtract(b));
+		case "*":	return newInt(a.multiply(b));
+		case "/":	return newInt(a.divide(b));		// truncates, as in Go
+		case "%":	return newInt(a.remainder(b));	// has the sign of a, as in Go
+		case "&":	return newInt(a.and(b));
+		case "|":	return newInt(a.or(b));
+		case "^":	return newInt(a.xor(b));
+		case "&^":	return newInt(a.andNot(b));
+		case "<<":
+		case ">>":
+			if (b.signum() < 0 || b.compareTo(BigInteger.valueOf(maxShift)) > 0)
+				return null;
+			return newInt(op.equals("<<")? a.shiftLeft(b.intValue()) : a.shiftRight(b.intValue()));
+		}
+		return compare(op, a.compareTo(b));
+	}
+
+	private static Constant compare( String op, int c ) {
+		switch(op) {
+		case "==":	return newBool(c == 0);
+		case "!=":	return newBool(c != 0);
+		case "<":	return newBool(c < 0);
+		case "<=":	return newBool(c <= 0);
+		case ">":	return newBool(c > 0);
+		case ">=":	return newBool(c >= 0);
+		}
+		return null;
+	}
+
+	// the characters of a string constant; the escapes are those which
+	// LLVM.newStringLit accepts
+	private static String unescape( String s ) {
+		StringBuilder sb = new StringBuilder();
+		for( int i = 0; i < s.length(); i++ ) {
+			char c = s.charAt(i);
+			if (c == '\\' && i+1 < s.length()) {
+				c = s.charAt(++i);
+				if (c == 'b') c = '\b';
+				else if (c == 'r') c = '\r';
+				else if (c == 'n') c = '\n';
+			}
+			sb.append(c);
+		}
+		return sb.toString();
+	}
+
+	// op x, or null if op does not apply to x
+	public static Constant unary( String op, Constant x ) {
+		switch(op) {
+		case "+":
+			return x.isNumeric()? x : null;
+		case "-":
+			if (x.isInt()) return newInt(x.ival.negate());
+			if (x.isFloat()) return newFloat(x.fval.negate());
+			return null;
+		case "^":
+			return x.isInt()? newInt(x.ival.not()) : null;
+		case "!":
+			return x.isBool()? newBool(!x.bval) : null;
+		}
+		return null;
+	}
+
+	// op x for a constant x of type typ: for an unsigned type, ^x is
+	// x ^ m, where m has every bit of the type set (as in Go), rather
+	// than the negative number which unary gives
+	public static Constant unary( String op, Constant x, Type typ ) {
+		if (op.equals("^") && x.isInt() && typ instanceof Type.Uint) {
+			int n = ((Type.Uint)typ).getSize();
+			return newInt(x.ival.xor(BigInteger.ONE.shiftLeft(n).subtract(BigInteger.ONE)));
+		}
+		return unary(op, x);
+	}
+
+	// the text of the value as an LLVM constant of type llvmType
+	public String toLLVM( String llvmType ) {
+		if (kind == Kind.Bool)
+			return bval? "true" : "false";
+		if (llvmType.equals("double") || llvmType.equals("float")) {
+			// written in hex, since LLVM rejects a decimal which is not exact
+			double d = doubleValue();
+			if (llvmType.equals("float"))
+				d = (float)d;
+			return String.format("0x%016X", Double.doubleToRawLongBits(d));
+		}
+		return bigIntValue().toString();
+	}
+
+	// the text of the value, written as a Goo literal of the same kind
+	@Override
+	public String toString() {
+		switch(kind) {
+		case Int:	return ival.toString();
+		case Bool:	return bval? "true" : "false";
+		case String:	return "\""+sval+"\"";
+		}
+		String s = fval.toString();
+		if (s.indexOf('.') < 0 && s.indexOf('E') < 0)
+			s += ".0";
+		return s;
+	}
+}
@@ -0,0 +1,149 @@
+// DataLayout.java
+//
+// The sizes and alignments of the Goo types on the target machine. They
+// are read from the LLVM target datalayout string which LLVM writes for
+// the target triple (see LLVMPredefined), so that the sizes used for
+// calloc and the alignments written on alloca, global and store
+// instructions agree with what llc will assume for the same types.
+//
+// A struct is laid out as LLVM lays out a (non-packed) struct type: each
+// field is placed at the next offset which is a multiple of its
+// alignment, and the size is rounded up to the largest field alignment
+// (see StructLayout). An array is its element size times its length.
+
+import java.util.*;
+
+public class DataLayout {
+	private int pointerSize = 8;		// in bytes
+	private int pointerAlign = 8;
+	private TreeMap<Integer,Integer> intAlign = new TreeMap<Integer,Integer>();	// bits -> bytes
+	private TreeMap<Integer,Integer> floatAlign = new TreeMap<Integer,Integer>();
+	private boolean reorderFields = false;	// -packstructs (see StructLayout)
+
+	// the layout for a target triple, from the preamble which LLVM.open
+	// writes for it (the Mac OS X preamble has the same layout as preamble64)
+	public static DataLayout forTriple( String triple ) {
+		String preamble = triple.startsWith("i686-")?
+			LLVMPredefined.preamble32 : LLVMPredefined.preamble64;
+		int start = preamble.indexOf('"');
+		int end = preamble.indexOf('"', start+1);
+		return new DataLayout(preamble.substring(start+1, end));
+	}
+
+	// spec is an LLVM datalayout string, such as "e-p:64:64:64-i1:8:8-..."
+	public DataLayout( String spec ) {
+		for( String item : spec.split("-") ) {
+			String[] f = item.split(":");
+			if (f.length < 2) continue;
+			char kind = f[0].charAt(0);
+			if (kind == 'p' && f.length >= 3) {
+				pointerSize = Integer.parseInt(f[1]) / 8;
+				pointerAlign = Integer.parseInt(f[2]) / 8;
+			} else if ((kind == 'i' || kind == 'f') && f[0].length() > 1) {
+				int bits = Integer.parseInt(f[0].substring(1));
+				int align = Integer.parseInt(f[1]) / 8;
+				(kind == 'i'? intAlign : floatAlign).put(bits, align);
+			}
+		}
+	}
+
+	public int getPointerSize() { return pointerSize; }
+
+	public int getPointerAlignment() { return pointerAlign; }
+
+	public boolean reordersFields() { return reorderFields; }
+
+	public void setReorderFields( boolean b ) { reorderFields = b; }
+
+	// the alignment of an integer of the given width; a width which is
+	// not listed takes the alignment of the next larger one listed
+	public int intAlignment( int bits ) {
+		Map.Entry<Integer,Integer> e = intAlign.ceilingEntry(bits);
+		if (e == null) e = intAlign.lastEntry();
+		return e == null? (bits+7)/8 : e.getValue();
+	}
+
+	public int floatAlignment( int bits ) {
+		Integer a = floatAlign.get(bits);
+		return a == null? bits/8 : a;
+	}
+
+	// the number of bytes allocated for a value of type t, including
+	// any padding at the end of a struct
+	public long sizeOf( Type t ) {
+		if (t instanceof Type.Struct)
+			return ((Type.Struct)t).getLayout().getSize();
+		if (t instanceof Type.Array) {
+			Type.Array a = (Type.Array)t;
+			return sizeOf(a.getElementType()) * Math.max(a.getSize(), 0);
+		}
+		if (t instanceof Type.Int)
+			return roundUp((((Type.Int)t).getSize()+7)/8, intAlignment(((Type.Int)t).getSize()));
+		if (t instanceof Type.Uint)
+			return roundUp((((Type.Uint)t).getSize()+7)/8, intAlignment(((Type.Uint)t).getSize()));
+		if (t instanceof Type.Flt)
+			return ((Type.Flt)t).getSize()/8;
+		if (t instanceof Type.UntypedNumber)
+			return ((Type.UntypedNumber)t).getStorageSize()/8;
+		if (t == Type.voidType)
+			return 0;
+		return scalarSize(t);
+	}
+
+	// the ABI alignment of type t, in bytes
+	public int alignmentOf( Type t ) {
+		if (t instanceof Type.Struct)
+			return ((Type.Struct)t).getLayout().getAlignment();
+		if (t instanceof Type.Array)
+			return alignmentOf(((Type.Array)t).getElementType());
+		if (t instanceof Type.Int)
+			return intAlignment(((Type.Int)t).getSize());
+		if (t instanceof Type.Uint)
+			return intAlignment(((Type.Uint)t).getSize());
+		if (t instanceof Type.Flt)
+			return floatAlignment(((Type.Flt)t).getSize());
+		if (t instanceof Type.UntypedNumber)
+			return ((Type.UntypedNumber)t).isPossibleDouble()?
+				floatAlignment(64) : intAlignment(((Type.UntypedNumber)t).getStorageSize());
+		if (t == Type.voidType)
+			return 1;
+		return (int)scalarSize(t);
+	}
+
+	// The types which have no subclass of their own: string (i8*),
+	// bool (i1) and rune (i8) are told apart by the compilation's
+	// instances; anything else (pointers, slices, functions) is a pointer.
+	private long scalarSize( Type t ) {
+		CompilationContext cc = CompilationContext.current();
+		if (t == cc.boolType || t == cc.runeType)
+			return 1;
+		return pointerSize;
+	}
+
+	// the alignment of a type written in LLVM form, such as i32, double,
+	// i8* or [4 x i16]; a named struct type is not handled here
+	public int alignmentOf( String llvmType ) {
+		String s = llvmType.trim();
+		if (s.endsWith("*"))
+			return pointerAlign;
+		if (s.startsWith("[")) {
+			int x = s.indexOf(" x ");
+			if (x > 0)
+				return alignmentOf(s.substring(x+3, s.lastIndexOf(']')));
+		}
+		switch(s) {
+		case "float":	return floatAlignment(32);
+		case "double":	return floatAlignment(64);
+		}
+		if (s.startsWith("i")) {
+			try {
+				return intAlignment(Integer.parseInt(s.substring(1)));
+			} catch(NumberFormatException e) { }
+		}
+		return pointerAlign;
+	}
+
+	static long roundUp( long n, long align ) {
+		return align <= 1? n : (n + align - 1) / align * align;
+	}
+}
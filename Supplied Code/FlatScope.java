@@ -0,0 +1,141 @@
+// FlatScope.java
+//
+// Implements the scope of a block, like BlockScope, but without a chain
+// of lookups through the enclosing blocks.
+//
+// The nested blocks of a function body share one hash table, which maps
+// each name to a stack of its definitions in the blocks which are open.
+// The innermost definition is on top, so a name is resolved with one
+// lookup however deeply the blocks are nested. A name not found there is
+// resolved in the scope enclosing the outermost block (the function).
+// When a block is exited, only the names it defined are popped.
+//
+// A scope which has been exited can be entered again (AstBuilder does so
+// as it walks the tree). While a scope is not the innermost open one,
+// it is searched like a BlockScope: its own names, then the enclosing scope.
+
+import java.util.*;
+import java.io.*;
+
+public class FlatScope implements Scope {
+	// the table shared by a nest of blocks
+	static class Table {
+		Map<String, Entry> entries = new HashMap<String, Entry>();
+		int depth = 0;		// number of open blocks
+	}
+
+	// a definition of a name; the definitions of one name form a stack
+	static class Entry {
+		final Symbol symbol;
+		final Entry next;
+		Entry( Symbol symbol, Entry next ) { this.symbol = symbol; this.next = next; }
+	}
+
+	boolean tracing;
+	final Table table;
+	final int depth;			// 1 for the outermost block of the nest
+	Scope enclosingScope;
+	Scope outerScope;			// the scope enclosing the outermost block
+	boolean open = false;
+	String scopeName = "scope block";
+	Map<String, Symbol> symbols = new LinkedHashMap<String, Symbol>();
+
+	// creates the scope and enters it
+	public FlatScope(Scope enclosingScope) {
+		this.enclosingScope = enclosingScope;
+		tracing = CompilationContext.current().traceSymTab;
+		if (enclosingScope instanceof FlatScope && ((FlatScope)enclosingScope).isInnermost()) {
+			FlatScope outer = (FlatScope)enclosingScope;
+			table = outer.table;
+			depth = outer.depth + 1;
+			outerScope = outer.outerScope;
+		} else {
+			table = new Table();
+			depth = 1;
+			outerScope = enclosingScope;
+		}
+		enter();
+	}
+
+	private boolean isInnermost() {
+		return open && table.depth == depth;
+	}
+
+	// pushes the names defined here; the enclosing block must be the innermost open one
+	public void enter() {
+		if (open) return;
+		open = true;
+		table.depth++;
+		assert table.depth == depth;
+		for( Symbol sy : symbols.values() )
+			push(sy);
+	}
+
+	// pops the names defined here
+	public void exit() {
+		if (!open) return;
+		for( String name : symbols.keySet() ) {
+			Entry e = table.entries.get(name);
+			if (e == null) continue;
+			if (e.next == null)
+				table.entries.remove(name);
+			else
+				table.entries.put(name, e.next);
+		}
+		table.depth--;
+		open = false;
+	}
+
+	private void push(Symbol sym) {
+		table.entries.put(sym.name, new Entry(sym, table.entries.get(sym.name)));
+	}
+
+	public Symbol resolveInCurrent(String name) {
+		return symbols.get(name);
+	}
+
+    public Symbol resolve(String name) {
+		if (isInnermost()) {
+			Entry e = table.entries.get(name);
+			if (e != null) return e.symbol;
+			return outerScope == null? null : outerScope.resolve(name);
+		}
+		Symbol s = symbols.get(name);
+        if (s!=null) return s;
+		return enclosingScope == null? null : enclosingScope.resolve(name);
+	}
+
+	public void define(Symbol sym) {
+		if (resolveInCurrent(sym.name) != null) {
+			ReportError.error(sym.getLineNumber(), 0,
+					"Duplication declaration of "+sym.name);
+			return;
+		}
+		symbols.put(sym.name, sym);
+		if (open)
+			push(sym);
+		sym.scope = this; // track the scope in each symbol
+		if (tracing) ReportError.getOutput().println("SY: Defined symbol: "+sym.name);
+	}
+
+    public Scope getEnclosingScope() { return enclosingScope; }
+
+	public String getScopeName() { return scopeName; }
+	public void setScopeName(String name) { scopeName = name; }
+
+	public String toString() {
+	    return "{ "+symbols.keySet().toString()+" }";
+	}
+
+	public void dumpScope() {
+		Collection<Symbol> items = symbols.values();
+		if (items.size() != 0) {
+			PrintStream out = ReportError.getOutput();
+			out.println(scopeName + " {");
+			for( Symbol sy : items ) {
+				out.println("   "+sy.getLineNumber()+": "+sy.toString());
+			}
+			out.println("}\n");
+		}
+	}
+}
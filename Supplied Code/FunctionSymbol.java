@@ -41,7 +41,8 @@ public class FunctionSymbol extends Symbol implements Scope {
 	public void define(Symbol sym) {
 		parameters.put(sym.name, sym);
 		sym.setScope(this); // track the scope in each symbol
-		if (tracing) System.out.println("SY: Defined formal: "+sym.name);
+		if (CompilationContext.current().traceSymTab)
+			ReportError.getOutput().println("SY: Defined formal: "+sym.name);
 	}
 
 	public Scope getEnclosingScope() {
@@ -60,6 +61,6 @@ public class FunctionSymbol extends Symbol implements Scope {
     }
 
 	public void dumpScope() {
-		System.out.println(getLineNumber() + ": " + toString());
+		ReportError.getOutput().println(getLineNumber() + ": " + toString());
 	}
 }
@@ -219,14 +219,16 @@ basicLit
         |   StringLit
         ;
 
+// A qualified identifier such as fmt.Println has the same syntax as
+// a field selection, and is parsed as one (primaryExpr selector).
 operandName
         :   Identifier
-        |   qualifiedIdent
+//        |   qualifiedIdent            // CHANGED
         ;
 
-qualifiedIdent
-        :   packageName '.' Identifier
-        ;
+//qualifiedIdent                        // CHANGED
+//        :   packageName '.' Identifier
+//        ;
 
 compositeLit
         :   literalType literalValue
@@ -269,12 +271,13 @@ value
         |   literalValue
         ;
 
-// Note: the final alternative is ambiguous when primaryExpr is
-// the name of a function and there is one argument; this has the
-// same syntax as a type conversion operation.  Example:
-//    int32(x)
-// The visitor methods need to check the function name part carefully
-// when there is one argument.
+// Note: a conversion to a type name has the same syntax as a call of a
+// function with one argument, and a conversion to a parenthesized type
+// has the same syntax as a call of a parenthesized expression. Examples:
+//    int32(x)      (*T)(p)
+// Both are parsed as calls (primaryExpr arguments), so that the parser
+// does not need to look ahead to choose; the visitor methods check
+// whether the function part denotes a type (TypeChecking.calleeType).
 primaryExpr
         :   operand
         |	conversion
@@ -344,10 +347,15 @@ unaryOp
         :   '+' | '-' | '!' | '^' | '*' | '&'
         ;
 
-// when type is a typename (identifier), this construct is ambiguous;
-// it has the same syntax as a call to a function with one argument
+// only conversions to types which cannot be mistaken for an expression
 conversion
-        :   type '(' expression ','? ')'
+        :   conversionType '(' expression ','? ')'      // CHANGED
+        ;
+
+conversionType
+        :   arrayType
+        |   sliceType
+        |   structType
         ;
 
 statement
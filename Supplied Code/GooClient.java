@@ -0,0 +1,63 @@
+// GooClient.java
+//
+// A thin client for the compile server (see GooServer.java).
+// Usage:
+//     java GooClient [-port N] [options] filename ...
+// The options and file names are forwarded to the server listening on
+// the local port N as one request, each quoted if it needs to be (see
+// GooServer.quoteArg). The file names are made absolute
+// first, as is the directory given with -cache, because the server may
+// be running in another directory.
+// The messages from the server are printed and the client exits with
+// the status reported by the server.
+
+import java.io.*;
+import java.net.*;
+
+public class GooClient {
+
+    public static void main(String[] args) throws IOException {
+    	int port = GooServer.defaultPort;
+    	boolean nextArgIsPort = false;
+    	boolean nextArgIsValue = false;
+    	StringBuilder request = new StringBuilder();
+
+        for(String s : args) {
+        	if (nextArgIsPort) {
+        		nextArgIsPort = false;
+        		port = Integer.parseInt(s);
+        		continue;
+        	}
+        	if (nextArgIsValue)
+        		nextArgIsValue = false;
+        	else if (s.equals("-port")) {
+        		nextArgIsPort = true;
+        		continue;
+        	} else if (s.equals("-triple") || s.equals("-cachesize"))
+        		nextArgIsValue = true;
+        	else if (!s.startsWith("-"))
+        		s = new File(s).getAbsolutePath();
+        	if (request.length() > 0)
+        		request.append(' ');
+        	request.append(GooServer.quoteArg(s));
+        }
+
+		Socket sock = new Socket(InetAddress.getLoopbackAddress(), port);
+		PrintStream out = new PrintStream(sock.getOutputStream(), true, "UTF-8");
+		BufferedReader in = new BufferedReader(
+			new InputStreamReader(sock.getInputStream(), "UTF-8"));
+		out.println(request.toString());
+		int status = 1;
+		String line;
+		while((line = in.readLine()) != null) {
+			if (line.startsWith("out ")) {
+				System.out.println(line.substring(4));
+			} else if (line.startsWith("end ")) {
+				status = Integer.parseInt(line.split(" ")[1]);
+				break;
+			}
+		}
+		sock.close();
+		System.exit(status);
+    }
+}
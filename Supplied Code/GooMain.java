@@ -10,21 +10,49 @@
 import org.antlr.v4.runtime.*;
 import org.antlr.v4.runtime.tree.*;
 import org.antlr.v4.runtime.atn.*;
+import org.antlr.v4.runtime.misc.*;
 import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
 
 public class GooMain {
+	// holds the options which are copied into the context
+	// of each file compiled in one run
+	static CompilationContext options = new CompilationContext(System.out);
+	static int numThreads = Runtime.getRuntime().availableProcessors();
+	static boolean serverMode = false;
+	static int serverPort = -1;		// -1 => serve requests on stdin/stdout
+
+	// the visitors recurse deeply on long expressions and statement lists,
+	// so worker threads are given a bigger stack than the default
+	static final long workerStackSize = 16L*1024*1024;
 
 	public static void usage() {
 		String[] lines = {
 			"USAGE:",
-			"    java GooMain [options] [filename]",
+			"    java GooMain [options] [filename ...]",
 			"OPTIONS:",
 			"    -triple TTTT   use TTTT as the LLVM target triple",
+			"    -j N           compile up to N files in parallel (default: one per core)",
+			"    -server        run as a compile server, reading requests from standard input",
+			"    -port N        run as a compile server, listening on local TCP port N",
+			"    -cache DIR     reuse the output of unchanged sources, cached in DIR",
+			"    -cachesize MB  limit the size of the cache directory (default 256)",
+			"    -scanner       use the hand-written scanner instead of the generated lexer",
+			"    -packstructs   reorder struct fields to reduce padding",
+			"    -emit-bc       write LLVM bitcode (a .bc file) instead of a .ll file",
 			"DEBUGGING OPTIONS:",
 			"    -dtsy   enable tracing of symbol table actions",
 			"    -dsym   dump symbol table at each scope close",
 			"    -dpre   dump predefined symbols",
 			"    -dppt   print parse tree",
+			"    -dstats print statistics (such as compile cache hits) at the end",
+			"    -dtime  report the time and memory used by each phase",
+			"    -dtime=json   same, as one line of JSON per file",
+			"    -dlexcheck    check that the scanner and the generated lexer agree",
+			"    -dparseprof   profile the parser's decisions over all the files",
+			"    -dbccheck     with -emit-bc, check that the bitcode reads back as written",
+			"    -dverify      check the types in the generated LLVM code (see llcheck.sh)",
 			null
 		};
 		for(String s: lines)
@@ -33,107 +61,424 @@ public class GooMain {
 	}
 
     public static void main(String[] args) throws Exception {
-		boolean traceSymTab = false;
-		boolean printTree = false;
-		boolean dumpSymTab = false;
-		boolean dumpPredefineds = false;
-    	String fileName = null;
-    	String triple = null;
-    	boolean nextArgIsTriple = false;
+    	List<String> fileNames = new ArrayList<String>();
+    	if (!parseArgs(args, options, fileNames, System.out, true))
+    		usage();
+
+    	if (serverMode) {
+    		if (!fileNames.isEmpty())
+    			usage();
+    		GooServer server = new GooServer(options, numThreads);
+    		if (serverPort < 0)
+    			server.serveStdio();
+    		else
+    			server.serveSocket(serverPort);
+    		return;
+    	}
+
+        if (fileNames.size() <= 1) {
+        	// a single file (or standard input) is compiled on this thread,
+        	// with messages written directly to standard output
+        	String fileName = fileNames.isEmpty()? null : fileNames.get(0);
+        	boolean ok = compile(newContext(options, System.out), fileName, false);
+        	printSummaries(options, System.out);
+        	if (!ok)
+        		System.exit(1);
+        	return;
+        }
+        ExecutorService pool = newWorkerPool(Math.min(numThreads, fileNames.size()));
+        boolean ok = compileAll(options, fileNames, pool, System.out);
+        pool.shutdown();
+        printSummaries(options, System.out);
+        if (!ok)
+        	System.exit(1);
+    }
+
+	// prints the reports which cover all the files compiled
+	static void printSummaries( CompilationContext opts, PrintStream out ) {
+		if (opts.parseProfile != null)
+			opts.parseProfile.print(out);
+		if (opts.dumpStats)
+			opts.stats.print(out);
+	}
+
+	// Processes the command line arguments, setting the options in opts
+	// and adding the file names to fileNames; the result is false if the
+	// arguments are malformed. The options which control the driver itself
+	// (-j, -server, -port) are accepted only when driver is true.
+	static boolean parseArgs( String[] args, CompilationContext opts,
+			List<String> fileNames, PrintStream out, boolean driver ) {
+    	String pendingOption = null;	// option whose value is the next argument
 
         for(String s : args) {
-        	if (nextArgIsTriple) {
-        		nextArgIsTriple = false;
-        		triple = s;
+        	if (pendingOption != null) {
+        		if (pendingOption.equals("-triple"))
+        			opts.triple = s;
+        		else if (pendingOption.equals("-cache"))
+        			opts.cacheDir = s;
+        		else {
+        			int n;
+	        		try {
+	        			n = Integer.parseInt(s);
+	        		} catch(NumberFormatException e) {
+	        			out.println("-- bad number for " + pendingOption + ": " + s);
+	        			return false;
+	        		}
+	        		if (pendingOption.equals("-j")) {
+	        			if (n < 1) return false;
+	        			numThreads = n;
+	        		} else if (pendingOption.equals("-cachesize")) {
+	        			if (n < 1) return false;
+	        			opts.cacheMaxBytes = n*1024L*1024L;
+	        		} else {
+	        			serverMode = true;
+	        			serverPort = n;
+	        		}
+	        	}
+        		pendingOption = null;
         		continue;
         	}
         	if (s.startsWith("-")) {
         		if (s.equals("-dtsy"))
-        			traceSymTab = true;
+        			opts.traceSymTab = true;
         		else if (s.equals("-dppt"))
-        			printTree = true;
+        			opts.printTree = true;
         		else if (s.equals("-dsym"))
-        			dumpSymTab = true;
+        			opts.dumpSymTab = true;
         		else if (s.equals("-dpre"))
-        			dumpPredefineds = true;
-        		else if (s.equals("-triple"))
-        			nextArgIsTriple = true;
+        			opts.dumpPredefineds = true;
+        		else if (s.equals("-dstats"))
+        			opts.dumpStats = true;
+        		else if (s.equals("-dparseprof"))
+        			opts.parseProfile = new ParseProfile();
+        		else if (s.equals("-dlexcheck"))
+        			opts.lexCheck = true;
+        		else if (s.equals("-scanner"))
+        			opts.useScanner = true;
+        		else if (s.equals("-packstructs"))
+        			opts.packStructs = true;
+        		else if (s.equals("-emit-bc"))
+        			opts.emitBitcode = true;
+        		else if (s.equals("-dbccheck"))
+        			opts.bitcodeCheck = true;
+        		else if (s.equals("-dverify"))
+        			opts.verifyIR = true;
+        		else if (s.equals("-dtime") || s.equals("-dtime=json")) {
+        			opts.timePhases = true;
+        			opts.timeJson = s.endsWith("json");
+        		}
+        		else if (s.equals("-triple") || s.equals("-cache") || s.equals("-cachesize"))
+        			pendingOption = s;
+        		else if (driver && (s.equals("-j") || s.equals("-port")))
+        			pendingOption = s;
+        		else if (driver && s.equals("-server"))
+        			serverMode = true;
         		else  // unknown option, ignore it
-        			System.out.println("-- unrecognized option: "+s);
-        	} else {
-        		if (fileName != null)
-        			usage();
-        		else
-        			fileName = s;
-        	}
+        			out.println("-- unrecognized option: "+s);
+        	} else
+        		fileNames.add(s);
         }
+        return pendingOption == null;
+	}
+
+	// creates a pool of threads for compiling files
+	static ExecutorService newWorkerPool( int size ) {
+		return Executors.newFixedThreadPool(size, new ThreadFactory() {
+				int count = 0;
+				public synchronized Thread newThread(Runnable r) {
+					Thread t = new Thread(null, r, "goo-worker-" + (++count), workerStackSize);
+					t.setDaemon(true);
+					return t;
+				}
+			});
+	}
+
+	// Compiles each file in a separate task on the pool of worker threads.
+	// The messages for each file are collected separately and written to
+	// out in the order the files were named, so they cannot become
+	// interleaved. The result is false if any file failed to compile.
+	static boolean compileAll( final CompilationContext opts, List<String> fileNames,
+			ExecutorService pool, PrintStream out ) throws InterruptedException {
+		List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+		List<ByteArrayOutputStream> outputs = new ArrayList<ByteArrayOutputStream>();
+		for( final String fileName : fileNames ) {
+			final ByteArrayOutputStream buf = new ByteArrayOutputStream();
+			outputs.add(buf);
+			results.add(pool.submit(new Callable<Boolean>() {
+				public Boolean call() {
+					PrintStream msgs = new PrintStream(buf, true);
+					CompilationContext cc = newContext(opts, msgs);
+					try {
+						// errors found by the type checker do not halt code
+						// generation, but they still make the file a failure
+						return compile(cc, fileName, true) && cc.getErrorCount() == 0;
+					} catch(Throwable e) {
+						msgs.println("* Internal error while compiling " + fileName + ": " + e);
+						return false;
+					} finally {
+						msgs.flush();
+					}
+				}
+			}));
+		}
+
+		int failures = 0;
+		for( int i = 0; i < fileNames.size(); i++ ) {
+			boolean ok;
+			try {
+				ok = results.get(i).get();
+			} catch(ExecutionException e) {
+				ok = false;
+			}
+			if (!ok) failures++;
+			ByteArrayOutputStream buf = outputs.get(i);
+			if (buf.size() > 0) {
+				out.println("=== " + fileNames.get(i) + " ===");
+				out.print(buf.toString());
+			}
+		}
+		if (failures > 0)
+			out.println("* " + failures + " of " + fileNames.size()
+				+ " files failed to compile");
+		return failures == 0;
+	}
+
+	// creates the context for compiling one file, with the options
+	// copied from opts and messages written to out
+	static CompilationContext newContext( CompilationContext opts, PrintStream out ) {
+		CompilationContext cc = new CompilationContext(out);
+		cc.copyOptions(opts);
+		return cc;
+	}
+
+	// Runs all the compiler phases on one file (standard input if fileName
+	// is null), writing the LLVM code to a '.ll' file alongside it.
+	// All messages go to the output stream of the context cc.
+	// The result is false if compilation was halted by errors.
+	static boolean compile( CompilationContext cc, String fileName, boolean batch ) throws IOException {
+		cc.makeCurrent();
+		PhaseTimer timer = new PhaseTimer(cc.timePhases,
+			fileName == null? "(standard input)" : fileName);
+		try {
+			return compile(cc, fileName, batch, timer);
+		} finally {
+			// the phases completed are reported even if compilation was halted
+			timer.print(cc.getOutput(), cc.timeJson);
+		}
+	}
+
+	private static boolean compile( CompilationContext cc, String fileName, boolean batch,
+			PhaseTimer timer ) throws IOException {
+		PrintStream out = cc.getOutput();
 
 		// Open the input
-        ANTLRInputStream input;
+		timer.start("read");
+        CharStream input;
+        String llFileName;
+        CompileCache cache = null;
+        String cacheKey = null;
         if (fileName == null) {
         	input = new ANTLRInputStream(System.in);
         	fileName = "(standard input)";
-        } else
-        	input = new ANTLRInputStream(new FileInputStream(fileName));
+        	llFileName = cc.emitBitcode? "code.bc" : "code.ll";
+        } else {
+        	MappedCharStream source;
+        	try {
+        		source = MappedCharStream.open(fileName);
+        	} catch(IOException e) {
+        		ReportError.error("Unable to read file " + fileName + ": " + e);
+        		return false;
+        	}
+        	llFileName = llFileNameFor(fileName, cc.emitBitcode);
+        	// the debugging dumps and checks are produced only by a real compilation
+        	if (cc.cacheDir != null && !cc.traceSymTab && !cc.dumpSymTab
+        			&& !cc.dumpPredefineds && !cc.printTree
+        			&& !cc.lexCheck && !cc.verifyIR && !cc.bitcodeCheck) {
+        		try {
+        			cache = CompileCache.forDirectory(cc.cacheDir, cc.cacheMaxBytes);
+        		} catch(IOException e) {
+        			ReportError.warning("compile cache not used: " + e.getMessage());
+        		}
+        	}
+        	if (cache != null) {
+        		cacheKey = cache.key(source.getBytes(), cc.triple == null? LLVM.defaultTriple : cc.triple,
+        				codeGenOptions(cc));
+        		timer.start("cache");
+        		if (cache.fetch(cacheKey, new File(llFileName))) {
+        			cc.stats.increment("cache hits");
+        			return true;
+        		}
+        		cc.stats.increment("cache misses");
+        	}
+        	input = source;
+        }
+
+        if (cc.lexCheck) {
+        	String diff = GooScanner.compare(input);
+        	if (diff == null)
+        		out.println("-- lexcheck: identical token streams from GooLexer and GooScanner");
+        	else
+        		ReportError.error("* lexcheck: " + diff);
+        }
 
 		// Create the lexer
-        GooLexer lexer = new GooLexer(input);
+        Lexer lexer = cc.useScanner? new GooScanner(input) : new GooLexer(input);
+        lexer.setTokenFactory(new NameTokenFactory(cc.names));
         CommonTokenStream tokens = new CommonTokenStream(lexer);
 
 		// Parse the Goo source file, creating a parse tree
         GooParser parser = new GooParser(tokens);
+        if (batch) {
+        	// syntax errors must be reported with the other messages for this file
+        	lexer.removeErrorListeners();
+        	lexer.addErrorListener(ReportError.syntaxErrorListener);
+        	parser.removeErrorListeners();
+        	parser.addErrorListener(ReportError.syntaxErrorListener);
+        }
+
+        // the parser normally pulls tokens from the lexer on demand;
+        // they are read in advance so that lexing can be timed separately
+        if (timer.isEnabled()) {
+        	timer.start("lex");
+        	tokens.fill();
+        }
 
-        ParseTree tree = parser.sourceFile();	// sourceFile is start symbol
+		timer.start("parse");
+        if (cc.parseProfile != null)
+        	parser.setProfile(true);
+        ParseTree tree = parseSourceFile(parser, cc);
+        if (cc.parseProfile != null)
+        	cc.parseProfile.add(parser);
+        timer.stop();
         
-        if (printTree) {
-        	System.out.println(tree.toStringTree(parser));
-        	System.out.println();
+        if (cc.printTree) {
+        	out.println(tree.toStringTree(parser));
+        	out.println();
         }
 
 		if (parser.getNumberOfSyntaxErrors() > 0) {
 			// diagnostic parsing mode seems to upset the error count
-			System.out.println("* Compilation halted -- there were "
+			out.println("* Compilation halted -- there were "
 				+ parser.getNumberOfSyntaxErrors() + " syntax errors");
-			System.exit(1);
+			return false;
 		}
 
 		// Traverse the parse tree, building the symbol table
-        SymTabVisitor1 bg = new SymTabVisitor1(traceSymTab,dumpSymTab,dumpPredefineds);
+		timer.start("symtab1");
+        int nodeCount = IndexedContext.number(tree);	// for the NodeTables
+        cc.stats.add("parse tree nodes", nodeCount);
+        cc.stats.add("names interned", cc.names.size());
+        SymTabVisitor1 bg = new SymTabVisitor1(cc, nodeCount);
         bg.visit(tree);
+        timer.stop();
 
-		if (ReportError.getErrorCount() > 0) {
-			System.out.println("* Compilation halted -- there were "
-				+ ReportError.getErrorCount() + " errors");
-			System.exit(1);
+		if (cc.getErrorCount() > 0) {
+			out.println("* Compilation halted -- there were "
+				+ cc.getErrorCount() + " errors");
+			return false;
 		}
 			
 		// The next phase will be type checking and most semantic checking
 		// of function bodies
 
+		// Lower the expressions to Ast trees, which pass 2 checks and
+		// the code generator uses
+		timer.start("lower");
+        AstBuilder ab = new AstBuilder();
+        ab.visit(tree);
+        cc.stats.add("ast nodes", ab.getNodeCount());
+        cc.stats.add("parse tree nodes released", ab.getReleasedCount());
+
 		// Traverse the parse tree, building the symbol table
-        SymTabVisitor2 ck = new SymTabVisitor2(traceSymTab,dumpSymTab,dumpPredefineds);
+        SymTabVisitor2 ck = new SymTabVisitor2(cc);
         ck.setScopes(bg.getScopes());
         ck.setTypes(bg.getTypes());
+        Bindings bindings = new Bindings(nodeCount);
+        ck.setBindings(bindings);
+        ck.setAst(ab.getAst());
+		timer.start("symtab2");
         ck.visit(tree);
 
+        cc.stats.add("types interned", cc.typeTable.size());
+        cc.stats.add("type table hits", cc.typeTable.getHits());
+        cc.stats.add("type identity memo hits", cc.typeTable.identicalHits);
+        cc.stats.add("type identity memo misses", cc.typeTable.identicalMisses);
+        cc.stats.add("assignability memo hits", cc.typeTable.assignableHits);
+        cc.stats.add("assignability memo misses", cc.typeTable.assignableMisses);
+        timer.stop();
+
 		// The final phase will complete the semantic checking and
 		// generate the input for LLVM
-		String llFileName;
-		if (fileName.charAt(0) == '(')
-			llFileName = "code.ll";
-		else {
-			int dotPos = fileName.lastIndexOf('.');
-			if (dotPos > 0)
-				llFileName = fileName.substring(0,dotPos)+".ll";
-			else
-				llFileName = fileName+".ll";
-		}
-		LLVM ll = new LLVM(llFileName, triple);
-		CGenVisitor cgv = new CGenVisitor(ll);
+		LLVM ll = new LLVM(cc, llFileName);
+		CGenVisitor cgv = new CGenVisitor(cc, ll);
         cgv.setScopes(bg.getScopes());
         cgv.setTypes(bg.getTypes());
-		ll.open();
+        cgv.setBindings(bindings);
+        cgv.setAst(ab.getAst());
+		if (!ll.open())
+			return false;
+		timer.start("cgen");
         cgv.visit(tree);
+		timer.start("close");
         ll.close();
+        timer.stop();
+
+		// only a clean compilation is cached, since a hit produces no messages
+        if (cache != null && cc.getErrorCount() == 0 && cc.getWarningCount() == 0) {
+        	try {
+        		cc.stats.add("cache evictions", cache.store(cacheKey, new File(llFileName)));
+        		cc.stats.increment("cache stores");
+        	} catch(IOException e) {
+        		cc.stats.increment("cache store failures");
+        	}
+        }
+        return true;
     }
+
+	// Parses with SLL prediction first, which is much faster than full LL
+	// prediction but may fail on valid input; the parse stops at the first
+	// error. Only then is the file parsed again with LL prediction and the
+	// usual error reporting and recovery. The tokens are not read again.
+	static ParseTree parseSourceFile( GooParser parser, CompilationContext cc ) {
+		List<ANTLRErrorListener> listeners =
+			new ArrayList<ANTLRErrorListener>(parser.getErrorListeners());
+		ANTLRErrorStrategy errHandler = parser.getErrorHandler();
+		parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+		parser.removeErrorListeners();
+		parser.setErrorHandler(new BailErrorStrategy());
+		cc.stats.increment("parses");
+		try {
+			return parser.sourceFile();	// sourceFile is start symbol
+		} catch(ParseCancellationException e) {
+			cc.stats.increment("parse fallbacks to LL");
+			if (cc.parseProfile != null)
+				cc.parseProfile.addPass(parser);
+		}
+		parser.reset();		// rewinds the token stream
+		for( ANTLRErrorListener listener : listeners )
+			parser.addErrorListener(listener);
+		parser.setErrorHandler(errHandler);
+		// the figures of the second pass are collected afresh; the caller adds them
+		if (cc.parseProfile != null)
+			parser.setInterpreter(new ProfilingATNSimulator(parser));
+		parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+		return parser.sourceFile();
+	}
+
+	// the LLVM code for a source file is written alongside it
+	static String llFileNameFor( String fileName, boolean bitcode ) {
+		String ext = bitcode? ".bc" : ".ll";
+		int dotPos = fileName.lastIndexOf('.');
+		if (dotPos > 0)
+			return fileName.substring(0,dotPos)+ext;
+		return fileName+ext;
+	}
+
+	// the options which change the code generated, as part of a cache key
+	static String codeGenOptions( CompilationContext cc ) {
+		String s = "";
+		if (cc.packStructs) s += "-packstructs ";
+		if (cc.emitBitcode) s += "-emit-bc ";
+		return s.trim();
+	}
 }
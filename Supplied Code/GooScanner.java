@@ -0,0 +1,553 @@
+// GooScanner.java
+//
+// A hand-written scanner for Goo, selected with the -scanner option as a
+// faster replacement for the lexer generated from GooLexerRules.g4.
+// It produces exactly the same tokens as GooLexer -- the same types, texts,
+// positions and lexical error messages -- including the semicolons which
+// are inserted at the ends of lines by the emit() method in the grammar,
+// with all the quirks of that method. The -dlexcheck option compares the
+// two on a source file (see lexcheck.sh).
+//
+// Rather than simulating the lexer's ATN one character at a time, the
+// scanner indexes the input directly and dispatches on a table of
+// character classes. A MappedCharStream is read in place; any other
+// CharStream is read from its text. Keywords and operators are found in tables
+// built from the token vocabulary of GooLexer, and the token types which
+// allow a semicolon to be inserted are held in a boolean array.
+//
+// Some of the rules below follow from ANTLR's longest-match semantics:
+//   * a number such as 0x or 1e+ which is not complete is matched as
+//     far as its longest valid prefix (0 or 1) only;
+//   * a /* ... */ comment on one line is matched by the NL rule (which
+//     refers to BlockNLComment and precedes BlockComment), unless the
+//     greedy BlockComment rule finds a later */ on the same line;
+//   * after a lexical error the input is resumed after the character at
+//     which the error was detected.
+
+import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.atn.*;
+import org.antlr.v4.runtime.misc.*;
+import java.util.*;
+
+public class GooScanner extends Lexer {
+	// character classes of the ASCII characters
+	private static final byte OTHER = 0, SPACE = 1, NEWLINE = 2, LETTER = 3, DIGIT = 4,
+		DOT = 5, QUOTE = 6, APOSTROPHE = 7, SLASH = 8, OPERATOR = 9;
+	private static final byte[] charClass = new byte[128];
+
+	// the operators, indexed by their first character, longest first
+	private static final char[][][] opText = new char[128][][];
+	private static final int[][] opType = new int[128][];
+
+	// the keywords, indexed by their first letter
+	private static final char[][][] kwText = new char[26][][];
+	private static final int[][] kwType = new int[26][];
+
+	// the token types which cause a NL token to become a semicolon
+	private static final boolean[] endsStatement;
+
+	// results of match(), besides a token type
+	private static final int SKIP_TOKEN = -2, ERROR = -3;
+
+	static {
+		for( char c = 'a'; c <= 'z'; c++ ) charClass[c] = LETTER;
+		for( char c = 'A'; c <= 'Z'; c++ ) charClass[c] = LETTER;
+		for( char c = '0'; c <= '9'; c++ ) charClass[c] = DIGIT;
+		charClass['_'] = LETTER;
+		charClass[' '] = charClass['\t'] = charClass['\f'] = SPACE;
+		charClass['\n'] = charClass['\r'] = NEWLINE;
+		charClass['.'] = DOT;
+		charClass['"'] = QUOTE;
+		charClass['\''] = APOSTROPHE;
+		charClass['/'] = SLASH;
+
+		// the literal names in the vocabulary are the keywords and operators
+		List<List<String>> ops = new ArrayList<List<String>>();
+		List<List<String>> kws = new ArrayList<List<String>>();
+		for( int i = 0; i < 128; i++ ) ops.add(new ArrayList<String>());
+		for( int i = 0; i < 26; i++ ) kws.add(new ArrayList<String>());
+		Map<String,Integer> types = new HashMap<String,Integer>();
+		int maxType = 0;
+		for( int t = Token.MIN_USER_TOKEN_TYPE; ; t++ ) {
+			String lit = GooLexer.VOCABULARY.getLiteralName(t);
+			if (lit == null && GooLexer.VOCABULARY.getSymbolicName(t) == null)
+				break;
+			maxType = t;
+			if (lit == null || lit.length() <= 2)
+				continue;
+			String s = lit.substring(1, lit.length()-1);
+			types.put(s, t);
+			char c = s.charAt(0);
+			if (c >= 'a' && c <= 'z')
+				kws.get(c - 'a').add(s);
+			else {
+				ops.get(c).add(s);
+				if (charClass[c] == OTHER)
+					charClass[c] = OPERATOR;
+			}
+		}
+		for( int c = 0; c < 128; c++ ) {
+			List<String> list = ops.get(c);
+			Collections.sort(list, new Comparator<String>() {
+				public int compare(String a, String b) { return b.length() - a.length(); }
+			});
+			opText[c] = new char[list.size()][];
+			opType[c] = new int[list.size()];
+			for( int i = 0; i < list.size(); i++ ) {
+				opText[c][i] = list.get(i).toCharArray();
+				opType[c][i] = types.get(list.get(i));
+			}
+		}
+		for( int c = 0; c < 26; c++ ) {
+			List<String> list = kws.get(c);
+			kwText[c] = new char[list.size()][];
+			kwType[c] = new int[list.size()];
+			for( int i = 0; i < list.size(); i++ ) {
+				kwText[c][i] = list.get(i).toCharArray();
+				kwType[c][i] = types.get(list.get(i));
+			}
+		}
+
+		// the same set as lastTokens in GooLexerRules.g4
+		endsStatement = new boolean[maxType+1];
+		int[] last = { GooLexer.Identifier, GooLexer.IntLit, GooLexer.FloatLit,
+			GooLexer.RuneLit, GooLexer.StringLit, GooLexer.BREAK, GooLexer.CONTINUE,
+			GooLexer.FALLTHROUGH, GooLexer.RETURN, GooLexer.PLUSPLUS, GooLexer.MINUSMINUS,
+			GooLexer.RPAREN, GooLexer.RSQ, GooLexer.RBRACE };
+		for( int t : last )
+			endsStatement[t] = true;
+	}
+
+	private CharSequence buf;	// the whole input
+	private int n;				// its length
+	private int pos;			// the next character
+	private int line, col;		// the position of pos
+	private int matchEnd;		// set by match()
+	private boolean hitEOF;
+	private int prevTokenType;
+
+	// the start of the last token matched (or skipped)
+	private int tokenStart, tokenStartLine, tokenStartCol;
+
+	public GooScanner( CharStream input ) {
+		super(input);
+		load();
+	}
+
+	private void load() {
+		if (_input == null) return;
+		n = _input.size();
+		buf = _input instanceof CharSequence? (CharSequence)_input : _input.getText(Interval.of(0, n-1));
+		pos = _input.index();
+		line = 1;  col = 0;
+		hitEOF = false;
+		prevTokenType = Token.INVALID_TYPE;
+	}
+
+	@Override
+	public Token nextToken() {
+		if (hitEOF && prevTokenType == GooLexer.RBRACE) {
+			// the file ends with a right brace and no newline; as in GooLexer
+			// the semicolon has the position of the last token matched
+			prevTokenType = Token.INVALID_TYPE;
+			return newToken(GooLexer.SEMI, ";");
+		}
+		int type = scan();
+		if (type == GooLexer.NL) {
+			if (prevTokenType > 0 && endsStatement[prevTokenType]) {
+				// convert the NL token into a semicolon
+				prevTokenType = Token.INVALID_TYPE;
+				return newToken(GooLexer.SEMI, ";");
+			}
+			// skip NL tokens
+			do
+				type = scan();
+			while(type == GooLexer.NL);
+		}
+		if (type == Token.EOF)
+			return _factory.create(_tokenFactorySourcePair, Token.EOF, null,
+				Token.DEFAULT_CHANNEL, pos, pos-1, line, col);
+		prevTokenType = type;
+		return newToken(type, null);
+	}
+
+	private Token newToken( int type, String text ) {
+		if (text == null && type == GooLexer.Identifier && _factory instanceof NameTokenFactory)
+			text = ((NameTokenFactory)_factory).getNames().intern(buf, tokenStart, pos-tokenStart);
+		return _factory.create(_tokenFactorySourcePair, type, text, Token.DEFAULT_CHANNEL,
+			tokenStart, pos-1, tokenStartLine, tokenStartCol);
+	}
+
+	// advances past the next token which is not skipped and returns its
+	// type; the token extends from tokenStart to pos-1
+	private int scan() {
+		while(true) {
+			if (hitEOF)
+				return Token.EOF;
+			tokenStart = pos;  tokenStartLine = line;  tokenStartCol = col;
+			int type = match();
+			if (type == ERROR) {
+				reportError(matchEnd);
+				// as Lexer.recover, resume after the offending character
+				advance(matchEnd < n? matchEnd+1 : n);
+			} else
+				advance(matchEnd);
+			hitEOF = pos == n;
+			if (type != SKIP_TOKEN && type != ERROR)
+				return type;
+		}
+	}
+
+	private void advance( int end ) {
+		for( ; pos < end; pos++ ) {
+			if (buf.charAt(pos) == '\n') {
+				line++;  col = 0;
+			} else
+				col++;
+		}
+	}
+
+	// Matches the longest token at pos, setting matchEnd to the index
+	// after it, and returns its type (or SKIP_TOKEN). For a lexical error,
+	// the result is ERROR and matchEnd is the index of the character which
+	// cannot be matched.
+	private int match() {
+		int p = pos;
+		if (p == n) {
+			matchEnd = p;
+			return Token.EOF;
+		}
+		char c = buf.charAt(p);
+		int cls = c < 128? charClass[c] : OTHER;
+		switch(cls) {
+		case SPACE:
+			do p++; while(p < n && buf.charAt(p) < 128 && charClass[buf.charAt(p)] == SPACE);
+			matchEnd = p;
+			return SKIP_TOKEN;
+		case NEWLINE:
+			matchEnd = c == '\r' && p+1 < n && buf.charAt(p+1) == '\n'? p+2 : p+1;
+			return GooLexer.NL;
+		case LETTER:
+			return identifier(p);
+		case DIGIT:
+			return number(p);
+		case DOT:
+			if (p+1 < n && isDigit(buf.charAt(p+1)))
+				return number(p);
+			return operator(p);
+		case QUOTE:
+			return stringLit(p);
+		case APOSTROPHE:
+			return runeLit(p);
+		case SLASH:
+			if (p+1 < n && buf.charAt(p+1) == '/') {
+				// LineComment
+				p += 2;
+				while(p < n && buf.charAt(p) != '\n' && buf.charAt(p) != '\r')
+					p++;
+				matchEnd = p;
+				return SKIP_TOKEN;
+			}
+			if (p+1 < n && buf.charAt(p+1) == '*') {
+				int type = comment(p);
+				if (type != ERROR)
+					return type;
+			}
+			return operator(p);
+		case OPERATOR:
+			return operator(p);
+		default:
+			if (c > 0xFF) {
+				int k = letter(p, true);
+				if (k > 0)
+					return identifier(p);
+				if (Character.isHighSurrogate(c))
+					return error(p+1);	// the pair was incomplete or not a letter
+			}
+			return error(p);
+		}
+	}
+
+	private int error( int failIndex ) {
+		matchEnd = failIndex;
+		return ERROR;
+	}
+
+	private static boolean isDigit( char c ) { return c >= '0' && c <= '9'; }
+
+	private static boolean isHexDigit( char c ) {
+		return isDigit(c) || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+	}
+
+	// the number of chars in the Letter (or LetterOrDigit) at p, or 0
+	private int letter( int p, boolean start ) {
+		char c = buf.charAt(p);
+		if (c < 128)
+			return charClass[c] == LETTER || (!start && charClass[c] == DIGIT)? 1 : 0;
+		if (c <= 0xFF)
+			return 0;
+		if (Character.isHighSurrogate(c)) {
+			if (p+1 >= n || !Character.isLowSurrogate(buf.charAt(p+1)))
+				return 0;
+			int cp = Character.toCodePoint(c, buf.charAt(p+1));
+			boolean ok = start? Character.isJavaIdentifierStart(cp) : Character.isJavaIdentifierPart(cp);
+			return ok? 2 : 0;
+		}
+		boolean ok = start? Character.isJavaIdentifierStart(c) : Character.isJavaIdentifierPart(c);
+		return ok? 1 : 0;
+	}
+
+	// Identifier, or a keyword
+	private int identifier( int p ) {
+		int e = p + letter(p, true);
+		int k;
+		while(e < n && (k = letter(e, false)) > 0)
+			e += k;
+		matchEnd = e;
+		char c = buf.charAt(p);
+		if (c >= 'a' && c <= 'z') {
+			char[][] kws = kwText[c - 'a'];
+			for( int i = 0; i < kws.length; i++ )
+				if (sameText(kws[i], p, e))
+					return kwType[c - 'a'][i];
+		}
+		return GooLexer.Identifier;
+	}
+
+	private boolean sameText( char[] text, int start, int end ) {
+		if (text.length != end - start)
+			return false;
+		for( int i = 0; i < text.length; i++ )
+			if (buf.charAt(start+i) != text[i])
+				return false;
+		return true;
+	}
+
+	// IntLit, FloatLit or ImaginaryLit, starting with a digit or a
+	// period followed by a digit
+	private int number( int p ) {
+		int end, type;
+		if (buf.charAt(p) == '.') {
+			end = exponent(digits(p+1));
+			type = GooLexer.FloatLit;
+		} else {
+			int q = digits(p);
+			int intEnd;
+			if (buf.charAt(p) != '0')
+				intEnd = q;
+			else if (p+2 < n && (buf.charAt(p+1) == 'x' || buf.charAt(p+1) == 'X') && isHexDigit(buf.charAt(p+2))) {
+				intEnd = p+2;
+				while(intEnd < n && isHexDigit(buf.charAt(intEnd)))
+					intEnd++;
+			} else {
+				intEnd = p+1;
+				while(intEnd < n && buf.charAt(intEnd) >= '0' && buf.charAt(intEnd) <= '7')
+					intEnd++;
+			}
+			// a float is always longer than the digits of an int
+			int floatEnd = -1;
+			if (q < n && buf.charAt(q) == '.')
+				floatEnd = exponent(digits(q+1));
+			else if (exponent(q) > q)
+				floatEnd = exponent(q);
+			if (floatEnd > 0) {
+				end = floatEnd;
+				type = GooLexer.FloatLit;
+			} else {
+				end = intEnd;
+				type = GooLexer.IntLit;
+			}
+		}
+		if (end < n && buf.charAt(end) == 'i') {
+			end++;
+			type = GooLexer.ImaginaryLit;
+		}
+		matchEnd = end;
+		return type;
+	}
+
+	private int digits( int p ) {
+		while(p < n && isDigit(buf.charAt(p)))
+			p++;
+		return p;
+	}
+
+	// the end of the Exponent at p, or p if there is none
+	private int exponent( int p ) {
+		if (p >= n || (buf.charAt(p) != 'e' && buf.charAt(p) != 'E'))
+			return p;
+		int e = p+1;
+		if (e < n && (buf.charAt(e) == '+' || buf.charAt(e) == '-'))
+			e++;
+		if (e >= n || !isDigit(buf.charAt(e)))
+			return p;
+		return digits(e);
+	}
+
+	private int stringLit( int p ) {
+		int e = p+1;
+		while(true) {
+			if (e == n)
+				return error(e);
+			char c = buf.charAt(e);
+			if (c == '"') {
+				matchEnd = e+1;
+				return GooLexer.StringLit;
+			}
+			if (c == '\n' || c == '\r')
+				return error(e);
+			if (c == '\\') {
+				if (e+1 == n || "abfnrtv\\\"".indexOf(buf.charAt(e+1)) < 0)
+					return error(e+1);
+				e += 2;
+			} else
+				e++;
+		}
+	}
+
+	private int runeLit( int p ) {
+		int e = p+1;
+		if (e == n)
+			return error(e);
+		char c = buf.charAt(e);
+		if (c == '\'' || c == '\n' || c == '\r')
+			return error(e);
+		if (c == '\\') {
+			if (e+1 == n || "abfnrtv\\'".indexOf(buf.charAt(e+1)) < 0)
+				return error(e+1);
+			e += 2;
+		} else
+			e++;
+		if (e == n || buf.charAt(e) != '\'')
+			return error(e);
+		matchEnd = e+1;
+		return GooLexer.RuneLit;
+	}
+
+	// A comment starting with /* at p. The non-greedy BlockNLComment (and
+	// so NL) ends at the first */, while BlockComment ends at the last */
+	// on the same line; the longer wins, NL if they are equal. The result
+	// is ERROR if there is no */ at all.
+	private int comment( int p ) {
+		int first = -1;
+		boolean newline = false;
+		for( int e = p+2; e+1 < n; e++ ) {
+			char c = buf.charAt(e);
+			if (c == '\n' || c == '\r')
+				newline = true;
+			else if (c == '*' && buf.charAt(e+1) == '/') {
+				first = e;
+				break;
+			}
+		}
+		if (first < 0)
+			return ERROR;
+		matchEnd = first+2;
+		if (newline)
+			return GooLexer.NL;
+		int last = first;
+		for( int e = first+2; e+1 < n && buf.charAt(e) != '\n' && buf.charAt(e) != '\r'; e++ )
+			if (buf.charAt(e) == '*' && buf.charAt(e+1) == '/')
+				last = e;
+		if (last == first)
+			return GooLexer.NL;
+		matchEnd = last+2;
+		return SKIP_TOKEN;
+	}
+
+	private int operator( int p ) {
+		char c = buf.charAt(p);
+		char[][] ops = opText[c];
+		for( int i = 0; i < ops.length; i++ ) {
+			char[] op = ops[i];
+			if (p + op.length <= n && sameText(op, p, p + op.length)) {
+				matchEnd = p + op.length;
+				return opType[c][i];
+			}
+		}
+		return error(p);
+	}
+
+	private void reportError( int failIndex ) {
+		int stop = Math.min(failIndex, n-1);
+		String text = buf.subSequence(tokenStart, stop+1).toString();
+		String msg = "token recognition error at: '" + getErrorDisplay(text) + "'";
+		LexerNoViableAltException e = new LexerNoViableAltException(this, _input, tokenStart, null);
+		getErrorListenerDispatch().syntaxError(this, null, tokenStartLine, tokenStartCol, msg, e);
+	}
+
+	// Lexes input with GooLexer and with GooScanner, and compares the tokens
+	// and the lexical error messages. The result describes the first
+	// difference, or is null if there is none. The input is left at its start.
+	public static String compare( CharStream input ) {
+		int start = input.index();
+		List<String> expected = new ArrayList<String>();
+		lexAll(new GooLexer(input), expected);
+		input.seek(start);
+		List<String> actual = new ArrayList<String>();
+		lexAll(new GooScanner(input), actual);
+		input.seek(start);
+		for( int i = 0; i < Math.max(expected.size(), actual.size()); i++ ) {
+			String x = i < expected.size()? expected.get(i) : "nothing";
+			String y = i < actual.size()? actual.get(i) : "nothing";
+			if (!x.equals(y))
+				return "item " + (i+1) + ": GooLexer gave " + x + ", GooScanner gave " + y;
+		}
+		return null;
+	}
+
+	// appends a description of each token and error message to items
+	private static void lexAll( Lexer lexer, final List<String> items ) {
+		lexer.removeErrorListeners();
+		lexer.addErrorListener(new BaseErrorListener() {
+			@Override
+			public void syntaxError( Recognizer<?,?> recognizer, Object offendingSymbol,
+					int line, int charPositionInLine, String msg, RecognitionException e ) {
+				items.add("error " + line + ":" + charPositionInLine + " " + msg);
+			}
+		});
+		Vocabulary v = GooLexer.VOCABULARY;
+		while(true) {
+			Token t = lexer.nextToken();
+			items.add(v.getDisplayName(t.getType()) + " '" + lexer.getErrorDisplay(t.getText())
+				+ "' " + t.getLine() + ":" + t.getCharPositionInLine()
+				+ " [" + t.getStartIndex() + ".." + t.getStopIndex() + "] channel " + t.getChannel());
+			if (t.getType() == Token.EOF)
+				break;
+		}
+	}
+
+	// the position is tracked here, not by a LexerATNSimulator
+
+	@Override public int getLine() { return line; }
+
+	@Override public int getCharPositionInLine() { return col; }
+
+	@Override public void setLine( int line ) { this.line = line; }
+
+	@Override public void setCharPositionInLine( int col ) { this.col = col; }
+
+	@Override public int getCharIndex() { return pos; }
+
+	@Override
+	public void reset() {
+		if (_input != null)
+			_input.seek(0);
+		load();
+	}
+
+	@Override
+	public void setInputStream( IntStream input ) {
+		super.setInputStream(input);	// calls reset()
+		load();
+	}
+
+	@Override public Vocabulary getVocabulary() { return GooLexer.VOCABULARY; }
+
+	@Override public String[] getRuleNames() { return GooLexer.ruleNames; }
+
+	@Override public String getGrammarFileName() { return "GooLexerRules.g4"; }
+
+	// there is no ATN: the scanner is written by hand
+	@Override public ATN getATN() { return null; }
+}
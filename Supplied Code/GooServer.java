@@ -0,0 +1,177 @@
+// GooServer.java
+//
+// A long-running compile server, started by  java GooMain -server  or
+// java GooMain -port N . Keeping one JVM alive avoids paying for JVM
+// startup, class loading and a cold ANTLR prediction cache on every
+// compilation: the DFA cache of the generated lexer and parser is static
+// and stays warm between requests, and the scope of predefined names is
+// built once and shared (see Predefined.sharedScope).
+//
+// Protocol: a request is one line holding the arguments that would be
+// given to GooMain, separated by spaces. An argument which contains a
+// space or a double quote (such as a path with a space in it), or which
+// is empty, is written in double quotes, with \" and \\ standing for a
+// quote and a backslash inside them (see quoteArg and splitArgs); other
+// backslashes, as in a Windows path, are taken literally.
+// The response is zero or more lines of the form
+//      out <message text>
+// followed by one line
+//      end <status> <milliseconds>
+// where status is 0 if every file compiled without errors, 1 otherwise,
+// and milliseconds is the time the server took to handle the request.
+//
+// With -server, requests are read from standard input and the responses
+// are written to standard output, one request at a time. With -port N,
+// the server listens on the loopback interface; a connection may send
+// any number of requests and connections are served concurrently.
+// GooClient is a thin client for the second mode.
+// In both modes, the files named in one request are compiled in parallel.
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+public class GooServer {
+	static final int defaultPort = 7878;
+
+	CompilationContext defaults;	// options given when the server was started
+	ExecutorService workers;		// compiles the files
+	AtomicInteger requestCount = new AtomicInteger();
+
+	public GooServer( CompilationContext defaults, int numThreads ) {
+		this.defaults = defaults;
+		workers = GooMain.newWorkerPool(numThreads);
+	}
+
+	// serves requests read from standard input until end of file
+	public void serveStdio() throws IOException {
+		BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+		String line;
+		while((line = in.readLine()) != null)
+			handleRequest(line, System.out);
+	}
+
+	// serves connections on the loopback interface, each on its own thread
+	public void serveSocket( int port ) throws IOException {
+		ServerSocket listener = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+		ExecutorService connections = Executors.newCachedThreadPool();
+		System.err.println("goo-server: listening on port " + listener.getLocalPort());
+		while(true) {
+			final Socket sock = listener.accept();
+			connections.execute(new Runnable() {
+				public void run() {
+					try {
+						BufferedReader in = new BufferedReader(
+							new InputStreamReader(sock.getInputStream(), "UTF-8"));
+						PrintStream out = new PrintStream(sock.getOutputStream(), false, "UTF-8");
+						String line;
+						while((line = in.readLine()) != null)
+							handleRequest(line, out);
+					} catch(IOException e) {
+						System.err.println("goo-server: " + e);
+					} finally {
+						try { sock.close(); } catch(IOException e) { }
+					}
+				}
+			});
+		}
+	}
+
+	// the argument as it is written in a request line
+	static String quoteArg( String arg ) {
+		boolean plain = arg.length() > 0;
+		for( int i = 0; i < arg.length() && plain; i++ )
+			plain = !Character.isWhitespace(arg.charAt(i)) && arg.charAt(i) != '"';
+		if (plain)
+			return arg;
+		StringBuilder sb = new StringBuilder("\"");
+		for( int i = 0; i < arg.length(); i++ ) {
+			char c = arg.charAt(i);
+			if (c == '"' || c == '\\')
+				sb.append('\\');
+			sb.append(c);
+		}
+		return sb.append('"').toString();
+	}
+
+	// splits a request line into its arguments; null if a quote is not closed
+	static String[] splitArgs( String line ) {
+		List<String> args = new ArrayList<String>();
+		StringBuilder arg = new StringBuilder();
+		boolean inArg = false, quoted = false;
+		for( int i = 0; i < line.length(); i++ ) {
+			char c = line.charAt(i);
+			if (quoted) {
+				if (c == '"')
+					quoted = false;
+				else if (c == '\\' && i+1 < line.length()
+						&& (line.charAt(i+1) == '"' || line.charAt(i+1) == '\\'))
+					arg.append(line.charAt(++i));
+				else
+					arg.append(c);
+			} else if (Character.isWhitespace(c)) {
+				if (inArg)
+					args.add(arg.toString());
+				arg.setLength(0);
+				inArg = false;
+			} else {
+				inArg = true;
+				if (c == '"')
+					quoted = true;
+				else
+					arg.append(c);
+			}
+		}
+		if (quoted)
+			return null;
+		if (inArg)
+			args.add(arg.toString());
+		return args.toArray(new String[args.size()]);
+	}
+
+	// compiles the files named in one request line and writes the response
+	void handleRequest( String line, PrintStream out ) {
+		long start = System.nanoTime();
+		int reqNum = requestCount.incrementAndGet();
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		PrintStream msgs = new PrintStream(buf, true);
+
+		String[] args = splitArgs(line);
+		CompilationContext opts = GooMain.newContext(defaults, msgs);
+		opts.sharePredefineds = true;
+		opts.stats = new Statistics();		// report the counts for this request only
+		if (opts.parseProfile != null)
+			opts.parseProfile = new ParseProfile();
+		List<String> fileNames = new ArrayList<String>();
+		boolean ok = false;
+		if (args == null || !GooMain.parseArgs(args, opts, fileNames, msgs, false))
+			msgs.println("* malformed request: " + line);
+		else if (fileNames.isEmpty())
+			msgs.println("* no file names in request");
+		else {
+			try {
+				ok = GooMain.compileAll(opts, fileNames, workers, msgs);
+			} catch(InterruptedException e) {
+				msgs.println("* request interrupted");
+			}
+			GooMain.printSummaries(opts, msgs);
+		}
+		msgs.flush();
+
+		double millis = (System.nanoTime() - start) / 1e6;
+		BufferedReader lines = new BufferedReader(new StringReader(buf.toString()));
+		synchronized(out) {
+			try {
+				String s;
+				while((s = lines.readLine()) != null)
+					out.println("out " + s);
+			} catch(IOException e) { /* cannot happen with a StringReader */ }
+			out.printf("end %d %.1f\n", ok? 0 : 1, millis);
+			out.flush();
+		}
+		System.err.printf("goo-server: request %d, %d file(s), %s in %.1f ms\n",
+			reqNum, fileNames.size(), ok? "ok" : "failed", millis);
+	}
+}
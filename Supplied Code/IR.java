@@ -0,0 +1,324 @@
+// IR.java
+//
+// An in-memory model of the LLVM module being generated. The code
+// generator (LLVM, LLVMExtras, CGenFunctionCall and CGenVisitor) builds
+// the module, and LLVM.close writes it as a .ll file with IRWriter.
+//
+// A Module holds the named struct types, the global variables and the
+// functions, in the order they were created. A Function holds its basic
+// blocks (a declaration has none), and a BasicBlock its instructions.
+// Every operand is a Value: a constant, a global, a function, a parameter
+// or the Instruction which computes it. Types are held as strings in
+// their .ll form (such as i32, [4 x i8] or %struct.1*), and a value's type
+// is the type it has as an operand, so the type of a global or an alloca
+// is a pointer type.
+//
+// An instruction which produces a value is not given a name when it is
+// built. The numbers %0, %1, ... are assigned when the function is
+// written, so a later pass may add, remove or move instructions without
+// renumbering anything. Branch targets and phi predecessors are given
+// by the labels of the blocks.
+//
+// LLVM.close writes the module with IRWriter, or with BitcodeWriter when
+// the -emit-bc option is given.
+
+import java.util.*;
+
+public class IR {
+
+	public enum Op { ALLOCA, LOAD, STORE, BINOP, ICMP, FCMP, CAST, GEP, CALL, PHI, BR, CONDBR, RET }
+
+	public static abstract class Value {
+		public final String type;	// null if an instruction has no result
+		public final String name;	// null if it is numbered when written
+		int number = -1;			// set by IRWriter
+
+		Value( String type, String name ) { this.type = type;  this.name = name; }
+
+		public String getType() { return type; }
+
+		public String getName() { return name; }
+	}
+
+	// a constant in .ll form, such as 42, 0x400921FB54442D18, true,
+	// c"abc\00", zeroinitializer or a constant getelementptr expression
+	public static class Const extends Value {
+		public Const( String type, String text ) { super(type, text); }
+	}
+
+	// a constant  getelementptr inbounds (T, T* base, i32 0, ...)  whose
+	// base is a global, such as the address of the first char of a string
+	public static class ConstGEP extends Const {
+		public final String elementType;
+		public final Value base;
+		public final Value[] indexes;
+
+		public ConstGEP( String type, String elementType, Value base, Value... indexes ) {
+			super(type, text(elementType, base, indexes));
+			this.elementType = elementType;  this.base = base;  this.indexes = indexes;
+		}
+
+		static String text( String elementType, Value base, Value[] indexes ) {
+			StringBuilder sb = new StringBuilder("getelementptr inbounds (");
+			sb.append(elementType).append(", ").append(base.type).append(' ').append(base.name);
+			for( Value v : indexes )
+				sb.append(", ").append(v.type).append(' ').append(v.name);
+			return sb.append(')').toString();
+		}
+	}
+
+	// a global variable or constant, such as  @x.1 = common global i32 0, align 4
+	public static class Global extends Value {
+		public final String linkage;	// e.g. "common global", "private unnamed_addr constant"
+		public final String valueType;	// the type of the variable
+		public final String init;		// the initializer, in .ll form
+		public final int align;
+
+		public Global( String name, String linkage, String valueType, String init, int align ) {
+			super(valueType + "*", name);
+			this.linkage = linkage;  this.valueType = valueType;
+			this.init = init;  this.align = align;
+		}
+	}
+
+	// a named struct type, such as  %struct.1 = type { i32, double }
+	public static class TypeDef {
+		public final String name;
+		public final String body;
+		public String comment;			// written on the following line, or null
+
+		public TypeDef( String name, String body ) { this.name = name;  this.body = body; }
+	}
+
+	public static class Param extends Value {
+		public Param( String type, String name ) { super(type, name); }
+	}
+
+	public static class Instruction extends Value {
+		public final Op op;
+		public final String opcode;		// add, fmul, sext, ...; the predicate of a compare
+		public final String elementType;// the type allocated, loaded or indexed;
+										// the function type of a call
+		public final Value[] operands;
+		public final String[] labels;	// branch targets; phi predecessors
+		public int align = 0;			// 0 if none is written
+		public String comment = null;
+
+		Instruction( Op op, String opcode, String type, String name, String elementType,
+				Value[] operands, String[] labels ) {
+			super(type, name);
+			this.op = op;  this.opcode = opcode;  this.elementType = elementType;
+			this.operands = operands;  this.labels = labels;
+		}
+
+		// true if the instruction has a result which other instructions may use
+		public boolean hasResult() {
+			return type != null && !type.equals("void");
+		}
+	}
+
+	static final Value[] noValues = new Value[0];
+	static final String[] noLabels = new String[0];
+
+	// ********************** instructions ******************************
+
+	public static Instruction alloca( String typ, String name, int align ) {
+		Instruction i = new Instruction(Op.ALLOCA, "alloca", typ+"*", name, typ, noValues, noLabels);
+		i.align = align;
+		return i;
+	}
+
+	public static Instruction load( Value ptr ) {
+		String typ = ptr.type.substring(0, ptr.type.length()-1);
+		return new Instruction(Op.LOAD, "load", typ, null, typ, new Value[]{ ptr }, noLabels);
+	}
+
+	public static Instruction store( Value val, Value ptr, int align ) {
+		Instruction i = new Instruction(Op.STORE, "store", null, null, null, new Value[]{ val, ptr }, noLabels);
+		i.align = align;
+		return i;
+	}
+
+	// an arithmetic or logical operation on two operands of the same type
+	public static Instruction binary( String opcode, Value lhs, Value rhs ) {
+		return new Instruction(Op.BINOP, opcode, lhs.type, null, null, new Value[]{ lhs, rhs }, noLabels);
+	}
+
+	public static Instruction icmp( String pred, Value lhs, Value rhs ) {
+		return new Instruction(Op.ICMP, pred, "i1", null, null, new Value[]{ lhs, rhs }, noLabels);
+	}
+
+	public static Instruction fcmp( String pred, Value lhs, Value rhs ) {
+		return new Instruction(Op.FCMP, pred, "i1", null, null, new Value[]{ lhs, rhs }, noLabels);
+	}
+
+	public static Instruction cast( String opcode, Value val, String toType ) {
+		return new Instruction(Op.CAST, opcode, toType, null, null, new Value[]{ val }, noLabels);
+	}
+
+	// getelementptr inbounds; the result type is a pointer to resultType
+	public static Instruction gep( String elementType, Value ptr, String resultType, Value... indexes ) {
+		Value[] ops = new Value[indexes.length+1];
+		ops[0] = ptr;
+		System.arraycopy(indexes, 0, ops, 1, indexes.length);
+		return new Instruction(Op.GEP, "getelementptr", resultType+"*", null, elementType, ops, noLabels);
+	}
+
+	// fnType is the return type, or the whole function type for a
+	// function with a variable number of arguments
+	public static Instruction call( String returnType, String fnType, Value callee, List<Value> args ) {
+		Value[] ops = new Value[args.size()+1];
+		ops[0] = callee;
+		for( int k = 0; k < args.size(); k++ )
+			ops[k+1] = args.get(k);
+		return new Instruction(Op.CALL, "call", returnType, null, fnType, ops, noLabels);
+	}
+
+	public static Instruction phi( String typ, Value[] vals, String[] preds ) {
+		return new Instruction(Op.PHI, "phi", typ, null, null, vals, preds);
+	}
+
+	public static Instruction br( String label ) {
+		return new Instruction(Op.BR, "br", null, null, null, noValues, new String[]{ label });
+	}
+
+	public static Instruction condBr( Value cond, String trueLabel, String falseLabel ) {
+		return new Instruction(Op.CONDBR, "br", null, null, null, new Value[]{ cond },
+			new String[]{ trueLabel, falseLabel });
+	}
+
+	public static Instruction ret( Value val ) {
+		return new Instruction(Op.RET, "ret", null, null, null,
+			val == null? noValues : new Value[]{ val }, noLabels);
+	}
+
+	// ********************** constants ******************************
+
+	// the bits of a floating point constant such as 0x400921FB54442D18
+	// or 2.5e+00; for a float they are the 32 bits of the float
+	public static long floatBits( String type, String text ) {
+		double d = text.startsWith("0x")?
+			Double.longBitsToDouble(new java.math.BigInteger(text.substring(2), 16).longValue())
+			: Double.parseDouble(text);
+		if (type.equals("float"))
+			return Float.floatToRawIntBits((float)d) & 0xFFFFFFFFL;
+		return Double.doubleToRawLongBits(d);
+	}
+
+	// the inverse of floatBits, in the hex form LLVM writes
+	public static String floatText( String type, long bits ) {
+		double d = type.equals("float")? Float.intBitsToFloat((int)bits) : Double.longBitsToDouble(bits);
+		return String.format("0x%016X", Double.doubleToRawLongBits(d));
+	}
+
+
+	// the bytes of a constant such as  c"abc\0A\00"
+	public static byte[] decodeString( String text ) {
+		java.io.ByteArrayOutputStream b = new java.io.ByteArrayOutputStream();
+		int end = text.length()-1;
+		for( int k = 2; k < end; k++ ) {
+			char c = text.charAt(k);
+			if (c == '\\' && k+2 < end) {
+				b.write(Integer.parseInt(text.substring(k+1, k+3), 16));
+				k += 2;
+			} else if (c < 0x80)
+				b.write(c);
+			else {
+				int cp = text.codePointAt(k);
+				byte[] enc = new String(Character.toChars(cp)).getBytes();
+				b.write(enc, 0, enc.length);
+				k += Character.charCount(cp) - 1;
+			}
+		}
+		return b.toByteArray();
+	}
+
+	// the inverse of decodeString, escaping what LLVM escapes
+	public static String encodeString( byte[] bytes ) {
+		StringBuilder sb = new StringBuilder("c\"");
+		for( byte x : bytes ) {
+			int c = x & 0xFF;
+			if (c < 0x20 || c >= 0x7F || c == '"' || c == '\\')
+				sb.append('\\').append(Character.toUpperCase(Character.forDigit(c >> 4, 16)))
+				  .append(Character.toUpperCase(Character.forDigit(c & 15, 16)));
+			else
+				sb.append((char)c);
+		}
+		return sb.append('"').toString();
+	}
+
+	// ********************** containers ******************************
+
+	public static class BasicBlock {
+		public final String label;
+		public final List<Instruction> instructions = new ArrayList<Instruction>();
+
+		public BasicBlock( String label ) { this.label = label; }
+	}
+
+	public static class Function extends Value {
+		public final String returnType;
+		public final List<Param> params = new ArrayList<Param>();
+		public final boolean varArgs;
+		public String attributes = null;	// e.g. "#1", or null
+		public String comment = null;		// written on the line before
+		public final List<BasicBlock> blocks = new ArrayList<BasicBlock>();
+
+		public Function( String name, String returnType, boolean varArgs ) {
+			super(null, name);
+			this.returnType = returnType;  this.varArgs = varArgs;
+		}
+
+		public boolean isDeclaration() { return blocks.isEmpty(); }
+
+		// the number of instructions in the body
+		public int size() {
+			int n = 0;
+			for( BasicBlock b : blocks )
+				n += b.instructions.size();
+			return n;
+		}
+
+		// parses a line such as  declare i32 @printf(i8*, ...) #1
+		public static Function parseDeclaration( String line ) {
+			String s = line.trim();
+			if (!s.startsWith("declare "))
+				throw new IllegalArgumentException("not a declaration: " + line);
+			int at = s.indexOf(" @");
+			int lp = s.indexOf('(', at);
+			int rp = s.lastIndexOf(')');
+			String rest = s.substring(rp+1).trim();
+			boolean varArgs = false;
+			List<String> ptypes = new ArrayList<String>();
+			for( String p : s.substring(lp+1, rp).split(",") ) {
+				p = p.trim();
+				if (p.equals("..."))
+					varArgs = true;
+				else if (p.length() > 0)
+					ptypes.add(p);
+			}
+			Function f = new Function(s.substring(at+1, lp), s.substring(8, at).trim(), varArgs);
+			for( String p : ptypes )
+				f.params.add(new Param(p, null));
+			if (rest.length() > 0)
+				f.attributes = rest;
+			return f;
+		}
+	}
+
+	public static class Module {
+		public String preamble = "";		// the target datalayout line, as in LLVMPredefined
+		public String triple;
+		public String epilog = "";			// the attribute groups
+		public final List<TypeDef> types = new ArrayList<TypeDef>();
+		public final List<Global> globals = new ArrayList<Global>();
+		public final List<Function> functions = new ArrayList<Function>();
+
+		// the quoted string of the target datalayout line
+		public String getDataLayout() {
+			int start = preamble.indexOf('"');
+			int end = preamble.indexOf('"', start+1);
+			return start < 0 || end < 0? "" : preamble.substring(start+1, end);
+		}
+	}
+}
@@ -0,0 +1,229 @@
+// IRVerifier.java
+//
+// Checks an IR.Module for the type errors which llvm-as would reject,
+// for the -dverify option (see llcheck.sh). The operands of each
+// instruction must have the types it requires: a store writes a T
+// through a T*, a binary operation or compare has operands of one type,
+// a call passes the parameter types of the function called, and so on.
+// Each block must end with a branch or a return to a block of the same
+// function, and each constant must be written as its type requires: an
+// integer within the range of its width, or a floating point number.
+//
+// Only the types are checked; whether each value is defined before it
+// is used is not.
+
+import java.math.*;
+import java.util.*;
+
+public class IRVerifier {
+	private final List<String> errors = new ArrayList<String>();
+	private final Map<String, IR.Function> functions = new HashMap<String, IR.Function>();
+	private IR.Function function;
+	private IR.BasicBlock block;
+
+	// the problems found in m, or an empty list
+	public List<String> verify( IR.Module m ) {
+		for( IR.Function f : m.functions )
+			functions.put(f.name, f);
+		for( IR.Global g : m.globals )
+			if (!g.init.startsWith("c\"") && !g.init.equals("zeroinitializer"))
+				constant(g.valueType, g.init, "initializer of " + g.name);
+		for( IR.Function f : m.functions )
+			verify(f);
+		return errors;
+	}
+
+	private void verify( IR.Function f ) {
+		function = f;
+		Set<String> labels = new HashSet<String>();
+		for( IR.BasicBlock b : f.blocks )
+			labels.add(b.label);
+		for( IR.BasicBlock b : f.blocks ) {
+			block = b;
+			int n = b.instructions.size();
+			if (n == 0 || !isTerminator(b.instructions.get(n-1)))
+				error(null, "the block does not end with a branch or return");
+			for( int k = 0; k < n; k++ ) {
+				IR.Instruction i = b.instructions.get(k);
+				if (k < n-1 && isTerminator(i))
+					error(i, "a branch or return is not the last instruction of its block");
+				for( String label : i.labels )
+					if (!labels.contains(label))
+						error(i, "label %" + label + " is not a block of the function");
+				verify(i);
+			}
+		}
+		function = null;
+		block = null;
+	}
+
+	private static boolean isTerminator( IR.Instruction i ) {
+		return i.op == IR.Op.BR || i.op == IR.Op.CONDBR || i.op == IR.Op.RET;
+	}
+
+	private void verify( IR.Instruction i ) {
+		IR.Value[] ops = i.operands;
+		for( IR.Value v : ops )
+			if (v instanceof IR.Const && !(v instanceof IR.ConstGEP) && v.type != null)
+				constant(v.type, v.name, i.opcode);
+		switch(i.op) {
+		case ALLOCA:
+			break;
+		case LOAD:
+			expect(i, ops[0], i.elementType + "*");
+			break;
+		case STORE:
+			expect(i, ops[1], ops[0].type + "*");
+			break;
+		case BINOP:
+			expect(i, ops[1], ops[0].type);
+			if (i.opcode.startsWith("f")? !isFloat(ops[0].type) : !isInt(ops[0].type))
+				error(i, "operands of type " + ops[0].type);
+			break;
+		case ICMP:
+			expect(i, ops[1], ops[0].type);
+			if (!isInt(ops[0].type) && !isPointer(ops[0].type))
+				error(i, "operands of type " + ops[0].type);
+			break;
+		case FCMP:
+			expect(i, ops[1], ops[0].type);
+			if (!isFloat(ops[0].type))
+				error(i, "operands of type " + ops[0].type);
+			break;
+		case CAST:
+			cast(i, ops[0].type, i.type);
+			break;
+		case GEP:
+			expect(i, ops[0], i.elementType + "*");
+			for( int k = 1; k < ops.length; k++ )
+				if (!isInt(ops[k].type))
+					error(i, "index of type " + ops[k].type);
+			break;
+		case CALL:
+			call(i);
+			break;
+		case PHI:
+			for( IR.Value v : ops )
+				expect(i, v, i.type);
+			break;
+		case BR:
+			break;
+		case CONDBR:
+			expect(i, ops[0], "i1");
+			break;
+		case RET:
+			if (ops.length == 0) {
+				if (!function.returnType.equals("void"))
+					error(i, "no value returned from a function returning " + function.returnType);
+			} else
+				expect(i, ops[0], function.returnType);
+			break;
+		}
+	}
+
+	private void cast( IR.Instruction i, String from, String to ) {
+		boolean ok;
+		switch(i.opcode) {
+		case "trunc":
+			ok = isInt(from) && isInt(to) && width(from) > width(to);  break;
+		case "zext": case "sext":
+			ok = isInt(from) && isInt(to) && width(from) < width(to);  break;
+		case "fptrunc":
+			ok = from.equals("double") && to.equals("float");  break;
+		case "fpext":
+			ok = from.equals("float") && to.equals("double");  break;
+		case "fptosi": case "fptoui":
+			ok = isFloat(from) && isInt(to);  break;
+		case "sitofp": case "uitofp":
+			ok = isInt(from) && isFloat(to);  break;
+		case "ptrtoint":
+			ok = isPointer(from) && isInt(to);  break;
+		case "inttoptr":
+			ok = isInt(from) && isPointer(to);  break;
+		case "bitcast":
+			ok = isPointer(from) == isPointer(to);  break;
+		default:
+			ok = false;
+		}
+		if (!ok)
+			error(i, "cannot convert " + from + " to " + to);
+	}
+
+	// the callee's parameter types are known if it is a function of the module
+	private void call( IR.Instruction i ) {
+		IR.Value[] ops = i.operands;
+		IR.Function f = functions.get(ops[0].name);
+		if (f == null)
+			return;
+		if (!i.type.equals(f.returnType))
+			error(i, f.name + " returns " + f.returnType + ", not " + i.type);
+		int nargs = ops.length-1;
+		if (nargs < f.params.size() || (nargs > f.params.size() && !f.varArgs))
+			error(i, f.name + " takes " + f.params.size() + " arguments, not " + nargs);
+		for( int k = 0; k < nargs && k < f.params.size(); k++ )
+			expect(i, ops[k+1], f.params.get(k).type);
+	}
+
+	// checks that a constant is written in the form its type requires
+	private void constant( String type, String text, String where ) {
+		if (isFloat(type)) {
+			boolean ok = text.startsWith("0x") || text.indexOf('.') >= 0 || text.indexOf('e') >= 0
+				|| text.equals("zeroinitializer");
+			if (!ok)
+				error(null, where + ": " + text + " is not a " + type + " constant");
+		} else if (isInt(type)) {
+			if (text.equals("true") || text.equals("false")) {
+				if (!type.equals("i1"))
+					error(null, where + ": " + text + " is not an " + type + " constant");
+				return;
+			}
+			BigInteger v;
+			try {
+				v = new BigInteger(text);
+			} catch(NumberFormatException e) {
+				error(null, where + ": " + text + " is not an " + type + " constant");
+				return;
+			}
+			// either the signed or the unsigned range of the width
+			int w = width(type);
+			if (v.compareTo(BigInteger.ONE.shiftLeft(w)) >= 0
+					|| v.compareTo(BigInteger.ONE.shiftLeft(w-1).negate()) < 0)
+				error(null, where + ": " + text + " does not fit in " + type);
+		}
+	}
+
+	private void expect( IR.Instruction i, IR.Value v, String type ) {
+		if (v.type == null || !v.type.equals(type))
+			error(i, "operand of type " + v.type + " where " + type + " is required");
+	}
+
+	private void error( IR.Instruction i, String msg ) {
+		StringBuilder sb = new StringBuilder();
+		if (function != null)
+			sb.append(function.name).append(", block ").append(block.label).append(": ");
+		if (i != null)
+			sb.append(i.opcode).append(": ");
+		errors.add(sb.append(msg).toString());
+	}
+
+	static boolean isInt( String t ) {
+		if (t == null || t.length() < 2 || t.charAt(0) != 'i')
+			return false;
+		for( int k = 1; k < t.length(); k++ )
+			if (!Character.isDigit(t.charAt(k)))
+				return false;
+		return true;
+	}
+
+	static boolean isFloat( String t ) {
+		return "double".equals(t) || "float".equals(t);
+	}
+
+	static boolean isPointer( String t ) {
+		return t != null && t.endsWith("*");
+	}
+
+	private static int width( String intType ) {
+		return Integer.parseInt(intType.substring(1));
+	}
+}
@@ -0,0 +1,222 @@
+// IRWriter.java
+//
+// Writes an IR.Module in the LLVM text format. The unnamed values of a
+// function are numbered %0, %1, ... in the order in which they are
+// written, which is the order LLVM requires; every block has a label,
+// so the blocks take no numbers.
+//
+// The text is appended straight into the buffers of an LLOutput, so no
+// format strings are interpreted and no String is built for a line.
+//
+// In canonical mode, what a .bc file does not hold (the comments, the
+// attributes and the epilog) is left out, and every constant is written
+// in the one form BitcodeReader gives it; so a module and the module read
+// back from its bitcode have the same canonical text (see -dbccheck).
+
+import java.io.*;
+import java.math.*;
+import java.nio.channels.*;
+
+public class IRWriter {
+	private final LLOutput out;
+	private final boolean canonical;
+
+	public IRWriter( LLOutput out ) {
+		this(out, false);
+	}
+
+	public IRWriter( LLOutput out, boolean canonical ) {
+		this.out = out;
+		this.canonical = canonical;
+	}
+
+	// the canonical text of module m
+	public static String canonicalText( IR.Module m ) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		LLOutput o = new LLOutput(Channels.newChannel(bytes));
+		new IRWriter(o, true).write(m);
+		o.flush();
+		return bytes.toString();
+	}
+
+	public void write( IR.Module m ) throws IOException {
+		if (canonical)
+			out.append("target datalayout = \"").append(m.getDataLayout()).append('"');
+		else
+			out.append(m.preamble);
+		out.append('\n');
+		out.append("target triple = \"").append(m.triple).append("\"\n\n");
+		for( IR.TypeDef t : m.types ) {
+			out.append(t.name).append(" = ").append(t.body).append('\n');
+			if (t.comment != null && !canonical)
+				out.append("; ").append(t.comment).append('\n');
+		}
+		for( IR.Global g : m.globals ) {
+			out.append(g.name).append(" = ").append(g.linkage).append(' ')
+			  .type(g.valueType).append(' ').append(constant(g.valueType, g.init))
+			  .append(", align ").append(g.align).append('\n');
+		}
+		for( IR.Function f : m.functions )
+			writeFunction(f);
+		if (!canonical)
+			out.append('\n').append(m.epilog).append('\n');
+	}
+
+	// the text of a constant; in canonical mode integers are decimal,
+	// floating point numbers are hex and strings escape as LLVM does
+	private String constant( String type, String text ) {
+		if (!canonical || type == null)
+			return text;
+		if (text.startsWith("c\""))
+			return IR.encodeString(IR.decodeString(text));
+		if (type.equals("float") || type.equals("double"))
+			return IR.floatText(type, IR.floatBits(type, text));
+		if (type.startsWith("i") && !type.endsWith("*")) {
+			if (text.equals("true")) return "1";
+			if (text.equals("false")) return "0";
+			try {
+				return new BigInteger(text).toString();
+			} catch(NumberFormatException e) { }
+		}
+		return text;
+	}
+
+	private void writeFunction( IR.Function f ) throws IOException {
+		if (!f.isDeclaration())
+			out.append('\n');
+		if (f.comment != null && !canonical)
+			out.append("; ").append(f.comment).append('\n');
+		out.append(f.isDeclaration()? "declare " : "define ").type(f.returnType)
+		  .append(' ').append(f.name).append('(');
+		boolean notFirst = false;
+		for( IR.Param p : f.params ) {
+			if (notFirst) out.append(", ");
+			notFirst = true;
+			out.type(p.type);
+			if (p.name != null)
+				out.append(' ').append(p.name);
+		}
+		if (f.varArgs)
+			out.append(notFirst? ", ..." : "...");
+		out.append(')');
+		if (f.attributes != null && !canonical)
+			out.append(' ').append(f.attributes);
+		if (f.isDeclaration()) {
+			out.append('\n');
+			return;
+		}
+		out.append(" {\n");
+		int next = 0;
+		for( IR.BasicBlock b : f.blocks )
+			for( IR.Instruction i : b.instructions )
+				if (i.name == null && i.hasResult())
+					i.number = next++;
+		for( IR.BasicBlock b : f.blocks ) {
+			out.append(b.label).append(":\n");
+			for( IR.Instruction i : b.instructions )
+				writeInstruction(i);
+		}
+		out.append("}\n");
+	}
+
+	private void ref( IR.Value v ) throws IOException {
+		if (v instanceof IR.Const)
+			out.append(constant(v.type, v.name));
+		else if (v.name != null)
+			out.append(v.name);
+		else
+			out.temporary(v.number);
+	}
+
+	private void typed( IR.Value v ) throws IOException {
+		out.type(v.type).append(' ');
+		ref(v);
+	}
+
+	private void writeInstruction( IR.Instruction i ) throws IOException {
+		out.append("  ");
+		if (i.hasResult()) {
+			ref(i);
+			out.append(" = ");
+		}
+		IR.Value[] ops = i.operands;
+		switch(i.op) {
+		case ALLOCA:
+			out.append("alloca ").type(i.elementType);
+			break;
+		case LOAD:
+			out.append("load ").type(i.elementType).append(", ");
+			typed(ops[0]);
+			break;
+		case STORE:
+			out.append("store ");
+			typed(ops[0]);
+			out.append(", ");
+			typed(ops[1]);
+			break;
+		case BINOP:
+			out.append(i.opcode).append(' ');
+			typed(ops[0]);
+			out.append(", ");
+			ref(ops[1]);
+			break;
+		case ICMP:
+		case FCMP:
+			out.append(i.op == IR.Op.ICMP? "icmp " : "fcmp ").append(i.opcode).append(' ');
+			typed(ops[0]);
+			out.append(", ");
+			ref(ops[1]);
+			break;
+		case CAST:
+			out.append(i.opcode).append(' ');
+			typed(ops[0]);
+			out.append(" to ").type(i.type);
+			break;
+		case GEP:
+			out.append("getelementptr inbounds ").type(i.elementType);
+			for( IR.Value v : ops ) {
+				out.append(", ");
+				typed(v);
+			}
+			break;
+		case CALL:
+			out.append("call ").type(i.elementType).append(' ');
+			ref(ops[0]);
+			out.append('(');
+			for( int k = 1; k < ops.length; k++ ) {
+				if (k > 1) out.append(", ");
+				typed(ops[k]);
+			}
+			out.append(')');
+			break;
+		case PHI:
+			out.append("phi ").type(i.type);
+			for( int k = 0; k < ops.length; k++ ) {
+				out.append(k == 0? " [ " : ", [ ");
+				ref(ops[k]);
+				out.append(", ").label(i.labels[k]).append(" ]");
+			}
+			break;
+		case BR:
+			out.append("br label ").label(i.labels[0]);
+			break;
+		case CONDBR:
+			out.append("br ");
+			typed(ops[0]);
+			out.append(", label ").label(i.labels[0]).append(", label ").label(i.labels[1]);
+			break;
+		case RET:
+			out.append("ret ");
+			if (ops.length == 0)
+				out.append("void");
+			else
+				typed(ops[0]);
+			break;
+		}
+		if (i.align > 0)
+			out.append(", align ").append(i.align);
+		if (i.comment != null && !canonical)
+			out.append(" ; ").append(i.comment);
+		out.append('\n');
+	}
+}
@@ -0,0 +1,42 @@
+// IndexedContext.java
+//
+// The superclass of all the context classes generated for Goo.g4. ANTLR
+// 4.5.1 has no contextSuperClass option, so the makefile edits the
+// generated GooParser.java to extend this class. After parsing, the rule
+// nodes of the parse tree are numbered 0, 1, 2, ... in preorder, so that
+// NodeTable can keep the scope or type of a node in an array slot instead
+// of a hash map.
+
+import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.tree.*;
+import java.util.*;
+
+public class IndexedContext extends ParserRuleContext {
+	int nodeIndex = -1;		// -1 until the tree has been numbered
+
+	public IndexedContext() { }
+
+	public IndexedContext( ParserRuleContext parent, int invokingStateNumber ) {
+		super(parent, invokingStateNumber);
+	}
+
+	public int getNodeIndex() { return nodeIndex; }
+
+	// numbers the rule nodes of the tree in preorder; returns the number of nodes
+	public static int number( ParseTree root ) {
+		int n = 0;
+		ArrayDeque<IndexedContext> stack = new ArrayDeque<IndexedContext>();
+		if (root instanceof IndexedContext)
+			stack.push((IndexedContext)root);
+		while(!stack.isEmpty()) {
+			IndexedContext node = stack.pop();
+			node.nodeIndex = n++;
+			for( int i = node.getChildCount()-1; i >= 0; i-- ) {
+				ParseTree child = node.getChild(i);
+				if (child instanceof IndexedContext)
+					stack.push((IndexedContext)child);
+			}
+		}
+		return n;
+	}
+}
@@ -0,0 +1,159 @@
+// LLOutput.java
+//
+// The output layer for a .ll file. The text is appended straight into a
+// small pool of byte arrays, with methods for the pieces the instructions
+// are made of (temporaries, labels, types and integers), so that nothing
+// is formatted or concatenated into an intermediate String. When every
+// array is full, they are all written to the FileChannel with a single
+// gathering write and then reused; so the memory used is that of the
+// pool, however large the file is. A small file (the header and all of
+// the functions) is written by one gathering write when it is closed.
+//
+// The text is ASCII except within string constants; any other character
+// is encoded with the default charset, as the PrintStream used before did.
+//
+// The channel is normally the FileChannel of the .ll file; any other
+// channel (IRWriter.canonicalText uses one over a byte array) is written
+// one buffer at a time.
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+
+public class LLOutput {
+	static final int chunkSize = 64*1024;
+	static final int chunkCount = 8;
+
+	private final WritableByteChannel channel;
+	private final byte[][] chunks = new byte[chunkCount][];
+	private final ByteBuffer[] views = new ByteBuffer[chunkCount];	// over the chunks
+	private final byte[] digits = new byte[11];
+	private int current = 0;		// index of the chunk being filled
+	private byte[] buf;				// == chunks[current]
+	private int pos = 0;			// position in buf
+	private long written = 0;
+
+	public LLOutput( WritableByteChannel channel ) {
+		this.channel = channel;
+		for( int i = 0; i < chunkCount; i++ ) {
+			chunks[i] = new byte[chunkSize];
+			views[i] = ByteBuffer.wrap(chunks[i]);
+		}
+		buf = chunks[0];
+	}
+
+	public LLOutput append( char c ) throws IOException {
+		if (c >= 0x80)
+			return appendEncoded(String.valueOf(c));
+		if (pos == chunkSize)
+			nextChunk();
+		buf[pos++] = (byte)c;
+		return this;
+	}
+
+	public LLOutput append( String s ) throws IOException {
+		int n = s.length();
+		int i = 0;
+		while(i < n) {
+			if (pos == chunkSize)
+				nextChunk();
+			int end = Math.min(n, i + chunkSize - pos);
+			for( ; i < end; i++ ) {
+				char c = s.charAt(i);
+				if (c >= 0x80)
+					return appendEncoded(s.substring(i));
+				buf[pos++] = (byte)c;
+			}
+		}
+		return this;
+	}
+
+	// a decimal integer
+	public LLOutput append( int n ) throws IOException {
+		if (n < 0) {
+			if (n == Integer.MIN_VALUE)
+				return append(Integer.toString(n));
+			append('-');
+			n = -n;
+		}
+		int k = digits.length;
+		do {
+			digits[--k] = (byte)('0' + n % 10);
+			n /= 10;
+		} while(n > 0);
+		if (chunkSize - pos < digits.length)
+			nextChunk();
+		System.arraycopy(digits, k, buf, pos, digits.length - k);
+		pos += digits.length - k;
+		return this;
+	}
+
+	// the unnamed temporary %n
+	public LLOutput temporary( int n ) throws IOException {
+		return append('%').append(n);
+	}
+
+	// a reference to a basic block, as in  br label %L
+	public LLOutput label( String name ) throws IOException {
+		return append('%').append(name);
+	}
+
+	// a type in .ll form
+	public LLOutput type( String t ) throws IOException {
+		return append(t);
+	}
+
+	private LLOutput appendEncoded( String s ) throws IOException {
+		ByteBuffer bb = Charset.defaultCharset().encode(s);
+		while(bb.hasRemaining()) {
+			if (pos == chunkSize)
+				nextChunk();
+			int n = Math.min(bb.remaining(), chunkSize - pos);
+			bb.get(buf, pos, n);
+			pos += n;
+		}
+		return this;
+	}
+
+	private void nextChunk() throws IOException {
+		views[current].limit(pos);
+		if (current+1 == chunkCount)
+			flush();
+		else {
+			current++;
+			buf = chunks[current];
+			pos = 0;
+		}
+	}
+
+	// writes the filled part of the pool with a gathering write
+	public void flush() throws IOException {
+		views[current].limit(pos);
+		int count = current+1;
+		for( int i = 0; i < count; i++ )
+			views[i].position(0);
+		if (channel instanceof GatheringByteChannel) {
+			GatheringByteChannel gc = (GatheringByteChannel)channel;
+			while(views[current].hasRemaining())
+				written += gc.write(views, 0, count);
+		} else {
+			for( int i = 0; i < count; i++ )
+				while(views[i].hasRemaining())
+					written += channel.write(views[i]);
+		}
+		for( int i = 0; i < count; i++ )
+			views[i].clear();
+		current = 0;
+		buf = chunks[0];
+		pos = 0;
+	}
+
+	public void close() throws IOException {
+		flush();
+		channel.close();
+	}
+
+	// the number of bytes written to the channel
+	public long getBytesWritten() { return written; }
+}
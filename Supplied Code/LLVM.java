@@ -3,119 +3,195 @@
  * Utility code to help with outputting intermediate code in the
  * LLVM text format (as a '.ll' file).
  * 
+ * The code is built as an IR.Module (see IR.java), which close()
+ * writes to the file with an IRWriter, through an LLOutput; or, with
+ * the -emit-bc option, as LLVM bitcode with a BitcodeWriter.
+ * 
  * Author: Nigel Horspool
  * Date: March 2016
  */
  
 import java.util.*;
 import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
 
 public class LLVM {
     static final String defaultTriple = "x86_64-unknown-linux-gnu";
 
     int ptrSize = 64;           // characteristics of the target platform
     int ptrAlign = 8;
+    DataLayout dataLayout;      // sizes and alignments of the Goo types
     boolean macOS = false;
     String targetTriple;
     String llFileName;
+    CompilationContext cc;
 
-    PrintStream ll1 = null;  // where all LLVM code is eventually written
-    PrintStream ll2 = null;  // where code is temporarily written
-    ByteArrayOutputStream ll2Base = null;
+    FileChannel out = null;  // the .ll (or .bc) file, written by close()
+    IR.Module module = new IR.Module();
+    IR.Function function = null;    // the function being generated
+    IR.BasicBlock block = null;     // the block being generated
     
     public int nextGlobalNum = 1;
     public Map<Symbol,LLVMValue> globalName = new HashMap<Symbol,LLVMValue>();
     public Map<String,LLVMValue> globalStringConsts = new HashMap<String,LLVMValue>();
     int nextStructNumber = 1;
     HashMap<Type,String> typeDescriptorCache = new HashMap<Type,String>();
+    HashMap<String,String> structNames = new HashMap<String,String>();  // body -> %struct.N
+    HashMap<String,Type> descriptorTypes = new HashMap<String,Type>();  // descriptor -> a type
     int nextTempNum = 1;
 
-    // constructor -- the default target triple corresponds to the
+    // constructor -- the target triple is the -triple option in cc;
+    // the default triple corresponds to the
     // CSc teaching server: linux.csc.uvic.ca
-    public LLVM( String llFileName, String targetTriple ) {
-        this.targetTriple = targetTriple==null? defaultTriple : targetTriple;
+    public LLVM( CompilationContext cc, String llFileName ) {
+        this.cc = cc;
+        this.targetTriple = cc.triple==null? defaultTriple : cc.triple;
         this.llFileName = llFileName;
+        this.dataLayout = cc.getDataLayout();
+        ptrSize = dataLayout.getPointerSize() * 8;
+        ptrAlign = dataLayout.getPointerAlignment();
     }
 
-	// must be called before any llvm code is written
-	public void open() {
+	// must be called before any llvm code is written;
+	// the result is false if the output file cannot be created
+	public boolean open() {
         try {
-            ll1 = new PrintStream(llFileName);
-	        ll2Base = new ByteArrayOutputStream();
-	        ll2 = new PrintStream(ll2Base);
+            out = FileChannel.open(Paths.get(llFileName), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
             if (targetTriple.startsWith("i686-")) {
                 // eg "i686-pc-mingw32"  // triple for 32-bit Windows system
-                ll1.println(LLVMPredefined.preamble32);
-                ptrSize = 32;  ptrAlign = 4;
+                module.preamble = LLVMPredefined.preamble32;
             } else
             if (targetTriple.startsWith("x86_64-")) {
                 // eg "x86_64-w64-windows-gnu"    // 64-bit Windows system   
                 // or "x86_64-unknown-linux-gnu"  // 64-bit Linux system
-                ll1.println(LLVMPredefined.preamble64);
-                ptrSize = 64;  ptrAlign = 8;
+                module.preamble = LLVMPredefined.preamble64;
             } else
             if (targetTriple.startsWith("x86_64-apple-")) {
                 // eg "x86_64-apple-macosx10.11.3"  // 64-bit Mac OS X system
-                ll1.println(LLVMPredefined.preambleMac64);
-                ptrSize = 64;  ptrAlign = 8;  macOS = true;
+                module.preamble = LLVMPredefined.preambleMac64;
+                macOS = true;
             } else {
                 System.err.println("LLVM: Unsupported triple: " + targetTriple);
             }
-            ll1.printf("target triple = \"%s\"\n\n", targetTriple);
+            module.triple = targetTriple;
             LLVMPredefined.writePredefinedCode(this);
         } catch(Exception e) {
-            System.err.printf("Unable to write to file %s:\n%s\n\n",
-            	llFileName, e.toString());
-            System.exit(1);
+            ReportError.error("Unable to write to file " + llFileName + ":\n" + e.toString());
+            return false;
         }
+        return true;
 	}
 
-	public void printf(String format, Object... args) {
-		ll2.printf(format, args);
-	}
+    // appends an instruction to the block being generated
+    public IR.Instruction emit(IR.Instruction inst) {
+        if (block == null)
+            System.err.println("LLVM: instruction outside a function: " + inst.opcode);
+        else
+            block.instructions.add(inst);
+        return inst;
+    }
 
-	public void print(String s) {
-		ll2.print(s);
-	}
+    public void addGlobal(IR.Global g) {
+        module.globals.add(g);
+    }
 
-	public void println(String s) {
-		ll2.println(s);
-	}
+    // adds a function declaration, given as a line such as
+    //    declare i8* @calloc(i64, i64) #1
+    public void declare(String line) {
+        module.functions.add(IR.Function.parseDeclaration(line));
+    }
 
-    // used to output definitions that have to be inserted near the
-    // start of the llvm file
-    public void prePrintf(String format, Object... args) {
-		ll1.printf(format, args);
-	}
+    // starts the definition of a function; its blocks are begun
+    // with writeLabel
+    public IR.Function beginFunction(String name, String retType) {
+        function = new IR.Function(name, retType, false);
+        module.functions.add(function);
+        block = null;
+        return function;
+    }
 
-    // used to output definitions that have to be inserted near the
-    // start of the llvm file
-    public void prePrintln(String s) {
-		ll1.println(s);
-	}
+    public void endFunction() {
+        function = null;
+        block = null;
+    }
 
     // Must be called when the LLVM code generation is finished
     public void close() {
-        // copy all ll2 code over to ll1
-        ll2.close();
-        ll1.println(ll2Base.toString());
-        String s;
         switch(targetTriple) {
-	        case "i686-pc-mingw32": s = LLVMPredefined.epilog32; break;
-	        case "x86_64-apple-macosx10.9.3": s = "\n"; break;
-	        default: s = LLVMPredefined.epilog64; break;
+	        case "i686-pc-mingw32": module.epilog = LLVMPredefined.epilog32; break;
+	        case "x86_64-apple-macosx10.9.3": module.epilog = "\n"; break;
+	        default: module.epilog = LLVMPredefined.epilog64; break;
         }
-        ll1.println(s);
-        ll1.close();
-        ll1 = null;
-        ll2 = null;
+        // the code of a program with errors need not be valid
+        if (cc.verifyIR && cc.getErrorCount() == 0)
+            verify();
+        try {
+            if (cc.emitBitcode)
+                writeBitcode();
+            else {
+                LLOutput output = new LLOutput(out);
+                new IRWriter(output).write(module);
+                output.close();
+                cc.stats.add("ll bytes written", output.getBytesWritten());
+            }
+        } catch(IOException e) {
+            ReportError.error("Unable to write to file " + llFileName + ":\n" + e.toString());
+        } catch(IllegalArgumentException e) {
+            ReportError.error("Unable to write bitcode to " + llFileName + ": " + e.getMessage());
+        }
+        out = null;
+    }
+
+    // reports the type errors in the module, for -dverify
+    private void verify() {
+        List<String> errors = new IRVerifier().verify(module);
+        for( String msg : errors )
+            ReportError.error("invalid LLVM code in " + llFileName + ": " + msg);
+        cc.stats.increment(errors.isEmpty()? "IR checks passed" : "IR checks failed");
+    }
+
+    // writes the module as LLVM bitcode; with -dbccheck the file is read
+    // back, and the module read must have the canonical text of the one written
+    private void writeBitcode() throws IOException {
+        ByteBuffer bc;
+        try {
+            bc = new BitcodeWriter().write(module);
+            while(bc.hasRemaining())
+                out.write(bc);
+        } finally {
+            out.close();
+        }
+        cc.stats.add("bc bytes written", bc.capacity());
+        if (!cc.bitcodeCheck)
+            return;
+        bc.rewind();
+        String written = IRWriter.canonicalText(module);
+        String read = IRWriter.canonicalText(new BitcodeReader().read(bc));
+        if (written.equals(read)) {
+            cc.stats.increment("bitcode checks passed");
+            return;
+        }
+        cc.stats.increment("bitcode checks failed");
+        String[] a = written.split("\n", -1), b = read.split("\n", -1);
+        int k = 0;
+        while(k < a.length && k < b.length && a[k].equals(b[k]))
+            k++;
+        ReportError.error("the bitcode in " + llFileName + " does not read back as written, at line "
+            + (k+1) + ":\n  " + (k < a.length? a[k] : "") + "\n  " + (k < b.length? b[k] : ""));
     }
     
+    // All the descriptors are obtained here, so that each struct type
+    // is defined once in the output (see createTypeDescriptor)
     public String getTypeDescriptor(Type typ) {
         String result = typeDescriptorCache.get(typ);
         if (result == null) {
             result = createTypeDescriptor(typ);
             typeDescriptorCache.put(typ,result);
+            if (!descriptorTypes.containsKey(result))
+                descriptorTypes.put(result,typ);
         }
         return result;
     }
@@ -123,52 +199,71 @@ public class LLVM {
 	// Returns the LLVM string representing a datatype
 	// Does not handle these Goo types:
 	//    TypeList  Slice   Function
-    public String createTypeDescriptor(Type typ) {
+	// A struct type is defined by a %struct.N = type {...} line, unless a
+	// struct with the same fields has been defined already; then that
+	// struct's name is the result.
+    private String createTypeDescriptor(Type typ) {
     	// Cases which don't require an expensive instanceof test
-        if (typ == Predefined.intType) return "i32";
-        if (typ == Predefined.runeType) return "i8";
-        if (typ == Predefined.stringType) return "i8*";
-        if (typ == Predefined.boolType) return "i1";
-        if (typ == Predefined.floatType) return "double";
+        if (typ == cc.intType) return "i32";
+        if (typ == cc.runeType) return "i8";
+        if (typ == cc.stringType) return "i8*";
+        if (typ == cc.boolType) return "i1";
+        if (typ == cc.floatType) return "double";
         if (typ == Type.voidType) return "void";
 
         if (typ instanceof Type.Int) return "i"+ ((Type.Int)typ).getSize();
-        if (typ instanceof Type.Uint) return "i"+ ((Type.Int)typ).getSize();
+        if (typ instanceof Type.Uint) return "i"+ ((Type.Uint)typ).getSize();
         if (typ instanceof Type.UntypedNumber)
-        	return ((Type.UntypedNumber)typ).isPossibleDouble()? "double" : "i32"; 
+        	return ((Type.UntypedNumber)typ).isPossibleDouble()? "double"
+        		: ((Type.UntypedNumber)typ).getStorageSize() == 64? "i64" : "i32";
         if (typ instanceof Type.Flt)
             return ((Type.Flt)typ).getSize()==32? "float" : "double";
         if (typ instanceof Type.Pointer)
             return getTypeDescriptor(((Type.Pointer)typ).getBaseType()) + "*";
         if (typ instanceof Type.Struct) {
+            // the name is cached first, so that a field may point to
+            // the struct itself
+            int number = nextStructNumber++;
+            String name = "%struct." + number;
+            typeDescriptorCache.put(typ, name);
             StringBuilder sb = new StringBuilder();
-            sb.append("%struct.");
-            sb.append(nextStructNumber++);
-            String name = sb.toString();
-            sb.append(" = type { ");
-            int field_count = ((Type.Struct)typ).getFields().values().size();
-            int field_index = 1;
-            for( Symbol sy : ((Type.Struct)typ).getFields().values() ) {
-                String st = getTypeDescriptor(sy.getType());
+            sb.append("type { ");
+            StructLayout layout = ((Type.Struct)typ).getLayout();
+            int field_count = layout.getFieldCount();
+            for( int i = 0; i < field_count; i++ ) {
+                String st = getTypeDescriptor(layout.getFieldType(i));
                 sb.append(st);
-                if (field_index != field_count) {
+                if (i+1 != field_count) {
                     sb.append(',');
                 }
                 sb.append(' ');
-                field_index++;
             }
             sb.append("}");
-            prePrintln(sb.toString());
+            String body = sb.toString();
+            String existing = structNames.get(body);
+            if (existing != null) {
+                if (nextStructNumber == number+1)
+                    nextStructNumber = number;	// the number was not used
+                return existing;
+            }
+            structNames.put(body, name);
+            IR.TypeDef def = new IR.TypeDef(name, body);
+            module.types.add(def);
+            long saved = layout.getSavedBytes();
+            if (saved > 0) {
+                def.comment = name + ": fields reordered, " + saved + " bytes saved";
+                cc.stats.add("struct bytes saved", saved);
+            }
             return name;
         }
         if (typ instanceof Type.Array) {
             Type.Array atyp = (Type.Array)typ;
             StringBuilder sb = new StringBuilder();
-            sb.append("[ ");
+            sb.append('[');
             sb.append(atyp.getSize());
             sb.append(" x ");
             sb.append(getTypeDescriptor(atyp.getElementType()));
-            sb.append(" ]");
+            sb.append(']');
             return sb.toString();
         }
 
@@ -178,51 +273,31 @@ public class LLVM {
         
     }
 
+    // the ABI alignment of typ in bytes, as given by the target's datalayout
     public int getAlignment(Type typ) {
-    	// Cases which don't require an expensive instanceof test
-        if (typ == Predefined.intType) return 4;
-        if (typ == Predefined.runeType) return 1;
-        if (typ == Predefined.stringType) return ptrAlign;
-        if (typ == Predefined.boolType) return 1;
-        if (typ == Predefined.floatType) return 4;
-        if (typ == Type.voidType) return 1;
-
-        if (typ instanceof Type.Int) return ((Type.Int)typ).getSize();
-        if (typ instanceof Type.Uint) return ((Type.Int)typ).getSize();
-        if (typ instanceof Type.UntypedNumber)
-        	return ((Type.UntypedNumber)typ).isPossibleDouble()? 8 : 4; 
-        if (typ instanceof Type.Flt)
-            return ((Type.Flt)typ).getSize()==32? 4 : 8;
-        if (typ instanceof Type.Pointer)
-            return ptrAlign;
-        if (typ instanceof Type.Struct)
-        	return ptrAlign;
-        if (typ instanceof Type.Array)
-        	return ptrAlign;
-        return ptrAlign;
+        return dataLayout.alignmentOf(typ);
+    }
+
+    // the number of bytes allocated for a value of type typ
+    public long getSize(Type typ) {
+        return dataLayout.sizeOf(typ);
     }
 
 	// Use this when we have a LLVM representation of the type
     public int getAlignment(String llvmtyp) {
-    	switch(llvmtyp) {
-    	case "i8": return 1;
-    	case "i16": return 2;
-    	case "float":
-    	case "i32": return 4;
-    	case "double":
-    	case "i64": return 8;
-    	}
-        return ptrAlign;
+        Type typ = descriptorTypes.get(llvmtyp);
+        if (typ != null)
+            return dataLayout.alignmentOf(typ);
+        return dataLayout.alignmentOf(llvmtyp);
     }
 
     int nextBBNumber = 0;       // used to number basic blocks
-    int nextUnnamedIndex = 0;  // used to generate %0, %1, %2 ... sequences
 
 	// this method is called at the start of a function definition to
-	// have basic blocks and local temporaries have their numbering reset
+	// have basic blocks have their numbering reset (the temporaries are
+	// numbered by IRWriter)
 	public void resetNumbering() {
 		nextBBNumber = 0;
-		nextUnnamedIndex = 0;
 	}
 
     // generates a unique name for a basic block label
@@ -237,17 +312,12 @@ public class LLVM {
         return prefix + "." + nextBBNumber++;
     }
 
-    public String nextTemporary() {
-        return "%" + nextUnnamedIndex++;
-    }
-
     // Given a reference to memory, this generates a load to get the value
     // into a LLVM temporary
     public LLVMValue dereference(LLVMValue src)
     {
         if (!src.isReference()) return src;
-        String rv = nextTemporary();
-        printf("  %s = load %s, %s* %s\n", rv, src.getType(), src.getType(), src.getValue());
+        IR.Instruction rv = emit(IR.load(src.getIR()));
         return new LLVMValue(src.getType(), rv, false);
     }
 
@@ -257,14 +327,16 @@ public class LLVM {
         LLVMValue src = dereference(sv);
         if (src.getType() == "i32")
             return src;
-        String rv = nextTemporary();
+        IR.Instruction rv;
         if (src.getType() == "i64")
-        	printf("  %s = trunc %s to i32\n", rv, src);
+        	rv = emit(IR.cast("trunc", src.getIR(), "i32"));
         else
         if (src.getType() == "i8")
-            printf("  %s = zext i8 %s to i32\n", rv, src.getValue());
-        else
+            rv = emit(IR.cast("zext", src.getIR(), "i32"));
+        else {
         	System.err.println("unhandled case for LLVM.forceIntValue: "+sv);
+        	return new LLVMValue("i32", "undef", false);
+        }
         return new LLVMValue("i32", rv, false);
     }
 
@@ -272,14 +344,16 @@ public class LLVM {
 	// is created as a global constant in memory and a reference to the string
 	// is returned as the result.
     public LLVMValue forceStringReference(LLVMValue src) {
-        if (src.getValue().charAt(0) != 'c')
+        if (!src.isStringConstant())
             return src;
         LLVMValue strcnst = globalStringConsts.get(src.getValue());
         if (strcnst != null)
             return strcnst;
         String name = "@.str." + nextGlobalNum++;
-        prePrintf("%s = private unnamed_addr constant %s, align 1\n", name, src);
-        strcnst = new LLVMValue(src.getType(), name, true);
+        IR.Global g = new IR.Global(name, "private unnamed_addr constant",
+            src.getType(), src.getValue(), 1);
+        addGlobal(g);
+        strcnst = new LLVMValue(src.getType(), g, true);
         globalStringConsts.put(src.getValue(), strcnst);
         return strcnst;
     }
@@ -292,45 +366,37 @@ public class LLVM {
         	return;
         }
         source = dereference(source);
-        String srcType = source.getType();
-        String destType = dest.getType();
-        int align = getAlignment(destType);
-        if (dest.isReference())
-	        printf("  store %s, %s* %s, align %d\n",
-	            source, dest.getType(), dest.getValue(), align);
-        else
-	        printf("  store %s, %s %s, align %d\n",
-	            source, dest.getType(), dest.getValue(), align);
+        emit(IR.store(source.getIR(), dest.getIR(), getAlignment(source.getType())));
     }
 
     public void writeReturnInst(LLVMValue result) {
         if (result == null)
-            printf("  ret void\n");
+            emit(IR.ret(null));
         else
-            printf("  ret %s\n", dereference(result));
-        // If any unreachable code follows this ret instruction, it needs a
-        // label otherwise the numbering of LLVM temporaries gets messed up
+            emit(IR.ret(dereference(result).getIR()));
+        // the ret ends the block, so any unreachable code which follows
+        // it needs a block of its own
         writeLabel(createBBLabel("dead"));
     }
 
-    // outputs a label
+    // begins a new basic block with the given label
     public void writeLabel(String name)
     {
-        printf(name + ":\n");
+        block = new IR.BasicBlock(name);
+        function.blocks.add(block);
     }
 
     // outputs an unconditional branch
    public void writeBranch(String lab)
     {
-        printf("  br label %%%s\n", lab);
+        emit(IR.br(lab));
     }
 
     // outputs a conditional branch
     public void writeCondBranch(LLVMValue cond, String trueDest, String falseDest)
     {
         assert(cond.getType() == "i1");
-        printf("  br i1 %s, label %%%s, label %%%s\n",
-            cond.getValue(), trueDest, falseDest);
+        emit(IR.condBr(cond.getIR(), trueDest, falseDest));
     }
 
     // Outputs an LLVM instruction which has two int operands of same size
@@ -340,8 +406,7 @@ public class LLVM {
         lhs = forceIntValue(lhs);
         rhs = forceIntValue(rhs);
         assert(lhs.getType() == rhs.getType());
-        String rv = nextTemporary();
-        printf("  %s = %s %s, %s\n", rv, opcode, lhs, rhs.getValue());
+        IR.Instruction rv = emit(IR.binary(opcode, lhs.getIR(), rhs.getIR()));
         return new LLVMValue(lhs.getType(), rv, false);
     }
 
@@ -351,8 +416,7 @@ public class LLVM {
         lhs = dereference(lhs);
         rhs = dereference(rhs);
         assert(lhs.getType() == rhs.getType());
-        String rv = nextTemporary();
-        printf("  %s = %s %s, %s\n", rv, opcode, lhs, rhs.getValue());
+        IR.Instruction rv = emit(IR.binary(opcode, lhs.getIR(), rhs.getIR()));
         return new LLVMValue(lhs.getType(), rv, false);
 	}
 
@@ -366,8 +430,7 @@ public class LLVM {
             rhs = forceIntValue(rhs);
         }
         // we are now comparing two int values of same size
-        String rv = nextTemporary();
-        printf("  %s = icmp %s %s, %s\n", rv, cmp, lhs, rhs.getValue());
+        IR.Instruction rv = emit(IR.icmp(cmp, lhs.getIR(), rhs.getIR()));
         return new LLVMValue("i1", rv, false);
     }
 
@@ -377,19 +440,15 @@ public class LLVM {
         lhs = dereference(lhs);
         rhs = dereference(rhs);
         if (lhs.getType() != rhs.getType()) {
-        	String rv2 = nextTemporary();
             if (lhs.getType() == "float") {
-            	printf("  %s = fpext %s to double\n", rv2, lhs);
-            	lhs = new LLVMValue("double", rv2, false);
+            	lhs = new LLVMValue("double", emit(IR.cast("fpext", lhs.getIR(), "double")), false);
             } else if (rhs.getType() == "float") {
-            	printf("  %s = fpext %s to double\n", rv2, rhs);
-            	rhs = new LLVMValue("double", rv2, false);
+            	rhs = new LLVMValue("double", emit(IR.cast("fpext", rhs.getIR(), "double")), false);
             } else
             	System.err.println("Bad arguments for writeFCompInst: "+lhs+", "+rhs);
         }
         // we are now comparing two float/double values of same size
-        String rv = nextTemporary();
-        printf("  %s = fcmp %s %s, %s\n", rv, cmp, lhs, rhs.getValue());
+        IR.Instruction rv = emit(IR.fcmp(cmp, lhs.getIR(), rhs.getIR()));
         return new LLVMValue("i1", rv, false);
     }
 
@@ -26,11 +26,11 @@ public class LLVMExtras {
 			return result;
 		Type typ = sy.getType();
 		String name = "@" + sy.getName() + "." + ll.nextGlobalNum++;
-		String gdesc = ll.createTypeDescriptor(typ);
+		String gdesc = ll.getTypeDescriptor(typ);
 		String which = isConst? "constant" : "common global";
-		ll.prePrintf("%s = %s %s %s, align %d\n",
-			name, which, gdesc, initValues, ll.getAlignment(typ));
-		result = new LLVMValue(gdesc, name, true);
+		IR.Global g = new IR.Global(name, which, gdesc, initValues, ll.getAlignment(typ));
+		ll.addGlobal(g);
+		result = new LLVMValue(gdesc, g, true);
 		ll.globalName.put(sy, result);
 		return result;
 	}
@@ -42,10 +42,10 @@ public class LLVMExtras {
 			return result;
 		Type typ = sy.getType();
 		String name = "@" + sy.getName() + "." + ll.nextGlobalNum++;
-		String gdesc = ll.createTypeDescriptor(typ);
-		ll.prePrintf("%s = common global %s zeroinitializer, align %d\n",
-			name, gdesc, ll.getAlignment(typ));
-		result = new LLVMValue(gdesc, name, true);
+		String gdesc = ll.getTypeDescriptor(typ);
+		IR.Global g = new IR.Global(name, "common global", gdesc, "zeroinitializer", ll.getAlignment(typ));
+		ll.addGlobal(g);
+		result = new LLVMValue(gdesc, g, true);
 		ll.globalName.put(sy, result);
 		return result;
 	}
@@ -62,11 +62,11 @@ public class LLVMExtras {
 		if (result != null)		// already created?
 			return result;
 		Type typ = sy.getType();
-		String name = ll.nextTemporary();
 		String gdesc = ll.getTypeDescriptor(typ);
-		ll.printf("  %s = alloca %s, align %d ; %s\n",
-					name, gdesc, ll.ptrAlign, sy.getName());
-		return new LLVMValue(gdesc, name, true);
+		IR.Instruction a = IR.alloca(gdesc, null, ll.getAlignment(typ));
+		a.comment = sy.getName();
+		ll.emit(a);
+		return new LLVMValue(gdesc, a, true);
     }
 
     // Writes code for an assignment. The dest parameter must be a reference
@@ -79,9 +79,8 @@ public class LLVMExtras {
 	            ReportError.error("Bad call to LLVM.writeAssignment");
 	            return;
             }
-            ll.printf("  store %s, %s %s\n", src, dest.getType(), dest.getValue());
-        } else
-        	ll.printf("  store %s, %s* %s\n", src, dest.getType(), dest.getValue());
+        }
+        ll.emit(IR.store(src.getIR(), dest.getIR(), 0));
     }
 
     // Write code to index an array; the returned result is a reference
@@ -89,13 +88,12 @@ public class LLVMExtras {
 	static public LLVMValue elementReference( LLVM ll,
 			Type.Array arrType, LLVMValue arrPtr, LLVMValue index ) {
 		Type elemType = arrType.getElementType();
-		String etyp = ll.createTypeDescriptor(elemType);
-		String atyp = ll.createTypeDescriptor(arrType);
+		String etyp = ll.getTypeDescriptor(elemType);
+		String atyp = ll.getTypeDescriptor(arrType);
 		index = ll.forceIntValue(index);
-		String rv1 = ll.nextTemporary();
-		ll.printf("  %s = getelementptr inbounds %s, %s* %s, i32 0, %s\n",
-			rv1, atyp, atyp, arrPtr.getValue(), index);
 		//   %arrayidx = getelementptr inbounds [10 x i32], [10 x i32]* @ia, i32 0, i64 %idxprom
+		IR.Instruction rv1 = ll.emit(IR.gep(atyp, arrPtr.getIR(), etyp,
+			new IR.Const("i32", "0"), index.getIR()));
 		return new LLVMValue(etyp, rv1, true);
 	}
 
@@ -103,22 +101,15 @@ public class LLVMExtras {
     // to the field
 	static public LLVMValue elementReference( LLVM ll,
 			Type.Struct strType, LLVMValue strPtr, String fieldName ) {
-		Type fldType = null;
-		int fnum = 0;
-		for( Symbol f : strType.getFields().values() ) {
-			if (f.getName().equals(fieldName)) {
-				fldType = f.getType();
-				break;
-			}
-			fnum++;
-		}
-		assert(fldType != null);
+		StructLayout layout = strType.getLayout();
+		int fnum = layout.indexOf(fieldName);
+		assert(fnum >= 0);
+		Type fldType = layout.getFieldType(fnum);
         String ftyp = ll.getTypeDescriptor(fldType);
         String styp = ll.getTypeDescriptor(strType);
 
-		String rv1 = ll.nextTemporary();
-		ll.printf("  %s = getelementptr inbounds %s, %s* %s, i32 0, i32 %d\n",
-			rv1, styp, styp, strPtr.getValue(), fnum);
+		IR.Instruction rv1 = ll.emit(IR.gep(styp, strPtr.getIR(), ftyp,
+			new IR.Const("i32", "0"), new IR.Const("i32", String.valueOf(fnum))));
 		return new LLVMValue(ftyp, rv1, true);
 	}
 
@@ -135,30 +126,30 @@ public class LLVMExtras {
 	}
 
     static public LLVMValue typeConversion( LLVM ll, Type toType, LLVMValue val ) {
-        String ltype = ll.createTypeDescriptor(toType);
+        String ltype = ll.getTypeDescriptor(toType);
         val = ll.dereference(val);
         String stype = val.getType();
         if (ltype.equals(stype)) return val;
-        String dest = ll.nextTemporary();
+        String op = null;
         if (ltype.endsWith("*") && stype.endsWith("*")) {
             // pointer conversion
-            ll.printf("  %s = bitcast %s to %s\n", dest, val, ltype);
+            op = "bitcast";
         } else
         if ((ltype.equals("float") || ltype.equals("double")) && stype.charAt(0)=='i') {
             // int to floating point
-            ll.printf("  %s = sitofp %s to %s\n", dest, val, ltype);
+            op = "sitofp";
         } else
         if ((stype.equals("float") || stype.equals("double")) && (ltype.charAt(0)=='i')) {
             // floating point to int
-            ll.printf("  %s = fptosi %s to %s\n", dest, val, ltype);
+            op = "fptosi";
         } else
         if (stype.equals("float") && ltype.equals("double")) {
         	// widening a float
-        	ll.printf("  %s = fpext %s to double\n", dest, val);
+        	op = "fpext";
         } else
         if (ltype.equals("float") && stype.equals("double")) {
         	// narrowing a float
-        	ll.printf("  %s = fptrunc %s to float\n", dest, val);
+        	op = "fptrunc";
         } else
         if (ltype.charAt(0)=='i' && stype.charAt(0)=='i') {
         	// int to int conversion
@@ -166,14 +157,16 @@ public class LLVMExtras {
         	int sbits = numBitsFromInt(stype);
         	if (lbits > sbits && sbits > 0) { // widening
         		boolean unsignedConv = toType instanceof Type.Uint;
-        		ll.printf("  %s = %s %s to %s\n", dest, unsignedConv? "zext" : "sext", val, ltype);
+        		op = unsignedConv? "zext" : "sext";
         	} else
         	if (sbits > lbits && lbits > 0) { // narrowing
-        		ll.printf("  %s = trunc %s to %s\n", dest, val, ltype);
-        	} else
-        		System.err.println("unimplemented conversion: "+stype+" to "+ltype);
-        } else
+        		op = "trunc";
+        	}
+        }
+        if (op == null) {
         	System.err.println("unimplemented conversion: "+stype+" to "+ltype);
-        return new LLVMValue(ltype, dest, false);
+        	return new LLVMValue(ltype, "undef", false);
+        }
+        return new LLVMValue(ltype, ll.emit(IR.cast(op, val.getIR(), ltype)), false);
     }
 }
@@ -85,7 +85,8 @@ public class LLVMPredefined {
             }
 			ss = ss.replaceAll("\\<W\\>", ""+llvm.ptrSize);
 			ss = ss.replaceAll("\\<A\\>", ""+llvm.ptrAlign);
-            llvm.println(ss);
+            if (ss.length() > 0)
+                llvm.declare(ss);
         }
     }
 }
\ No newline at end of file
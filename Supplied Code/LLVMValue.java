@@ -7,6 +7,8 @@
 // The isReference flag distinguishes a value in memory from a value
 // held in a temporary. If isReference is true, the temporary holds
 // a reference to a memory location.
+// The value itself is an IR.Value (see IR.java); its type is the LLVM
+// type, with a * added when the value is a reference.
 //
 // The nested subclass LLVMValue.LLVMValueList is used for a list of
 // LLVMValues (and is needed to hold the result from visiting an
@@ -17,27 +19,46 @@ import java.util.*;
 public class LLVMValue {
     private boolean isRef;
     private String LLType;
-    private String LLValue;
+    private IR.Value LLValue;
 
+    // v is a constant written in LLVM form
     public LLVMValue( String t, String v, boolean isref ) {
+        LLType = t; isRef = isref;
+        LLValue = v == null? null : new IR.Const(isref? t+"*" : t, v);
+    }
+
+    public LLVMValue( String t, IR.Value v, boolean isref ) {
         LLType = t; LLValue = v; isRef = isref;
     }
 
 	public String getType() { return LLType; }
 	//public void setType(String t) { LLType = t; }
 
-	public String getValue() { return LLValue; }
-	//public void setValue(String v) { LLValue = v; }
+	// the text of a constant or the name of a named value; an unnamed
+	// temporary has no text until the function is written
+	public String getValue() { return LLValue.getName(); }
+
+	public IR.Value getIR() { return LLValue; }
 
 	public boolean isReference() { return isRef; }
+
+	// true for a string constant, such as c"abc\00"
+	public boolean isStringConstant() {
+		return LLValue instanceof IR.Const && LLValue.getName().charAt(0) == 'c';
+	}
 	//public void setReference(boolean r) { isRef = r; }
 
+    // for a diagnostic; an instruction is numbered only when IRWriter
+    // writes it, so until then it is shown by its opcode, as in  double (fmul)
     @Override
     public String toString() {
-    	return LLType + (isRef? "* " : " ") + LLValue;
+    	String name = LLValue.getName();
+    	if (name == null && LLValue instanceof IR.Instruction)
+    		name = "(" + ((IR.Instruction)LLValue).opcode + ")";
+    	return LLType + (isRef? "* " : " ") + name;
     }
 
-    static private LLVMValue dummy = new LLVMValue(null, null, false);
+    static private LLVMValue dummy = new LLVMValue(null, (IR.Value)null, false);
 
 	static public LLVMValueList newLLVMValueList() {
 		return dummy.new LLVMValueList();
@@ -49,7 +70,7 @@ public class LLVMValue {
     	public ArrayList<LLVMValue> expressionList;
 
     	public LLVMValueList( ) {
-    		super(null, null, false);
+    		super(null, (IR.Value)null, false);
     		expressionList = new ArrayList<LLVMValue>();
     	}
 
@@ -0,0 +1,148 @@
+// MappedCharStream.java
+//
+// A CharStream over the bytes of a source file, used in place of
+// ANTLRInputStream when the input is a file. A regular file is mapped
+// into memory with FileChannel.map, so it is neither copied through an
+// InputStream nor held on the heap. When the file contains only ASCII
+// characters (or the default charset is ISO-8859-1) each byte is one
+// char and the lexer reads the mapped bytes directly; otherwise the file
+// is decoded into a char array, as ANTLRInputStream would decode it.
+//
+// The methods follow the behaviour of ANTLRInputStream exactly, so that
+// tokens have the same indexes and texts whichever stream is used. The
+// stream is also a CharSequence, so that GooScanner and the NameTable can
+// read the input by index without copying it.
+
+import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.misc.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+
+public class MappedCharStream implements CharStream, CharSequence {
+	private final ByteBuffer bytes;		// the contents of the file
+	private final char[] chars;			// the decoded contents, if not single-byte
+	private final int n;
+	private final String name;
+	private int p = 0;
+
+	public MappedCharStream( ByteBuffer bytes, String name ) {
+		this.bytes = bytes;
+		this.name = name;
+		if (isSingleByte(bytes)) {
+			chars = null;
+			n = bytes.limit();
+		} else {
+			CharBuffer cb = Charset.defaultCharset().decode(bytes.duplicate());
+			chars = new char[cb.remaining()];
+			cb.get(chars);
+			n = chars.length;
+		}
+	}
+
+	// opens the named file, mapping it into memory if it is a regular file
+	public static MappedCharStream open( String fileName ) throws IOException {
+		Path path = Paths.get(fileName);
+		if (!Files.isRegularFile(path))
+			return new MappedCharStream(ByteBuffer.wrap(Files.readAllBytes(path)), fileName);
+		FileChannel ch = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			// the mapping remains valid after the channel is closed
+			return new MappedCharStream(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()), fileName);
+		} finally {
+			ch.close();
+		}
+	}
+
+	// true if each byte decodes to the char with the same value
+	private static boolean isSingleByte( ByteBuffer bytes ) {
+		Charset cs = Charset.defaultCharset();
+		if (cs.equals(StandardCharsets.ISO_8859_1))
+			return true;
+		if (!cs.equals(StandardCharsets.UTF_8) && !cs.equals(StandardCharsets.US_ASCII))
+			return false;
+		for( int i = bytes.limit()-1; i >= 0; i-- )
+			if (bytes.get(i) < 0)
+				return false;
+		return true;
+	}
+
+	// the undecoded contents of the file
+	public ByteBuffer getBytes() { return bytes.duplicate(); }
+
+	@Override
+	public void consume() {
+		if (p >= n)
+			throw new IllegalStateException("cannot consume EOF");
+		p++;
+	}
+
+	@Override
+	public int LA( int i ) {
+		if (i == 0)
+			return 0;	// undefined
+		if (i < 0) {
+			i++;	// e.g., translate LA(-1) to use offset i=0; then data[p+0-1]
+			if (p + i - 1 < 0)
+				return IntStream.EOF;	// invalid; no char before first char
+		}
+		int k = p + i - 1;
+		if (k >= n)
+			return IntStream.EOF;
+		return chars == null? bytes.get(k) & 0xFF : chars[k];
+	}
+
+	// marking is not needed since the whole input is available
+	@Override public int mark() { return -1; }
+
+	@Override public void release( int marker ) { }
+
+	@Override public int index() { return p; }
+
+	@Override
+	public void seek( int index ) {
+		p = Math.min(index, n);
+	}
+
+	@Override public int size() { return n; }
+
+	@Override
+	public String getSourceName() {
+		return name == null || name.isEmpty()? UNKNOWN_SOURCE_NAME : name;
+	}
+
+	@Override
+	public String getText( Interval interval ) {
+		int start = interval.a;
+		int stop = interval.b;
+		if (stop >= n)
+			stop = n-1;
+		int count = stop - start + 1;
+		if (start >= n || count <= 0)
+			return "";
+		if (chars != null)
+			return new String(chars, start, count);
+		byte[] b = new byte[count];
+		ByteBuffer dup = bytes.duplicate();
+		dup.position(start);
+		dup.get(b);
+		return new String(b, StandardCharsets.ISO_8859_1);
+	}
+
+	@Override public int length() { return n; }
+
+	@Override
+	public char charAt( int index ) {
+		return chars == null? (char)(bytes.get(index) & 0xFF) : chars[index];
+	}
+
+	@Override
+	public CharSequence subSequence( int start, int end ) {
+		return getText(Interval.of(start, end-1));
+	}
+
+	@Override
+	public String toString() { return getText(Interval.of(0, n-1)); }
+}
@@ -0,0 +1,86 @@
+// NameTable.java
+//
+// Interns the identifiers of one compilation. The first occurrence of a
+// name is kept and every later occurrence is replaced by that String, so
+// each name is allocated once however often it appears. The lexer interns
+// a name straight from the input (a MappedCharStream, or the text the
+// scanner is reading), without allocating a String unless the name is new.
+//
+// The table belongs to the compilation and is dropped with it; the names
+// are not interned by the JVM, which would keep every name ever compiled
+// alive in server mode.
+//
+// Names are not given ids, and the symbol tables (BlockScope, FlatScope,
+// FunctionSymbol, Type.Struct, Packages) are still keyed by String: the
+// predefined scope is shared by the compilations in server mode, so it
+// could not be keyed by the ids of any one of them. What interning saves
+// is the copies. A lookup still hashes and compares the name, but the
+// String caches its hash code, and two uses of one name in the program
+// are the same String, so equals() returns at once. Against a name
+// written in the compiler, such as "int" or "Println", equals() compares
+// the characters.
+
+import java.util.*;
+
+public class NameTable {
+	private String[] names = new String[64];		// in the order interned
+	private int[] hashes = new int[64];				// hash code of each name
+	private int[] slots = new int[128];				// index+1 of a name, or 0 if empty
+	private int count = 0;
+
+	public int size() { return count; }
+
+	public String intern( String name ) {
+		return intern(name, 0, name.length());
+	}
+
+	// interns the name held in src[offset] .. src[offset+length-1]
+	public String intern( CharSequence src, int offset, int length ) {
+		int h = 0;
+		for( int k = 0; k < length; k++ )
+			h = 31*h + src.charAt(offset+k);		// the same as String.hashCode
+		int mask = slots.length-1;
+		int i = h & mask;
+		for( ; slots[i] != 0; i = (i+1) & mask ) {
+			int j = slots[i]-1;
+			if (hashes[j] == h && matches(names[j], src, offset, length))
+				return names[j];
+		}
+		// a whole String is kept as it is (substring returns the String itself)
+		return add(src.subSequence(offset, offset+length).toString(), h, i);
+	}
+
+	private static boolean matches( String s, CharSequence src, int offset, int length ) {
+		if (s.length() != length)
+			return false;
+		for( int k = 0; k < length; k++ )
+			if (s.charAt(k) != src.charAt(offset+k))
+				return false;
+		return true;
+	}
+
+	// adds a new name in the empty slot i
+	private String add( String name, int h, int i ) {
+		if (count == names.length) {
+			names = Arrays.copyOf(names, 2*count);
+			hashes = Arrays.copyOf(hashes, 2*count);
+		}
+		names[count] = name;
+		hashes[count] = h;
+		slots[i] = ++count;
+		if (2*count > slots.length)
+			rehash();
+		return name;
+	}
+
+	private void rehash() {
+		slots = new int[2*slots.length];
+		int mask = slots.length-1;
+		for( int j = 0; j < count; j++ ) {
+			int i = hashes[j] & mask;
+			while(slots[i] != 0)
+				i = (i+1) & mask;
+			slots[i] = j+1;
+		}
+	}
+}
@@ -0,0 +1,48 @@
+// NameTokenFactory.java
+//
+// Creates the tokens for GooLexer and GooScanner. The text of each token
+// is set when the token is created, so that Token.getText() returns the
+// same String every time instead of extracting a new copy from the input:
+//   -  an identifier gets its name from the compilation's NameTable,
+//      interned straight from the input when it is a MappedCharStream;
+//   -  an operator or keyword gets the literal text from the vocabulary,
+//      which is shared by all the tokens of that type.
+// Other tokens (the literals) still extract their text when asked for it.
+
+import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.misc.*;
+
+public class NameTokenFactory extends CommonTokenFactory {
+	// the text of each token type which has a fixed spelling (ANTLR 4.5.1
+	// has no Vocabulary.getMaxTokenType, so the size comes from the ATN)
+	private static final String[] fixedText = new String[GooLexer._ATN.maxTokenType+1];
+	static {
+		for( int t = 1; t < fixedText.length; t++ ) {
+			String lit = GooLexer.VOCABULARY.getLiteralName(t);
+			if (lit != null && lit.indexOf('\\') < 0)
+				fixedText[t] = lit.substring(1, lit.length()-1);	// remove the quotes
+		}
+	}
+
+	private final NameTable names;
+
+	public NameTokenFactory( NameTable names ) {
+		this.names = names;
+	}
+
+	public NameTable getNames() { return names; }
+
+	@Override
+	public CommonToken create( Pair<TokenSource, CharStream> source, int type, String text,
+			int channel, int start, int stop, int line, int charPositionInLine ) {
+		if (text == null && type > 0 && type < fixedText.length) {
+			if (type != GooLexer.Identifier)
+				text = fixedText[type];
+			else if (source.b instanceof CharSequence)
+				text = names.intern((CharSequence)source.b, start, stop-start+1);
+			else
+				text = names.intern(source.b.getText(Interval.of(start, stop)));
+		}
+		return super.create(source, type, text, channel, start, stop, line, charPositionInLine);
+	}
+}
@@ -0,0 +1,50 @@
+// NodeTable.java
+//
+// Associates a value (such as a Scope or a Type) with rule nodes of a
+// parse tree, like ANTLR's ParseTreeProperty. The tree must have been
+// numbered by IndexedContext.number; the values are then held in an array
+// indexed by the node numbers, so a lookup is an array access rather
+// than an identity hash map probe.
+
+import org.antlr.v4.runtime.*;
+import java.util.*;
+
+public class NodeTable<T> {
+	private Object[] values;
+
+	public NodeTable() {
+		this(64);
+	}
+
+	// size is the number of nodes, if it is known
+	public NodeTable( int size ) {
+		values = new Object[Math.max(size, 1)];
+	}
+
+	private static int index( ParserRuleContext ctx ) {
+		int i = ((IndexedContext)ctx).nodeIndex;
+		if (i < 0)
+			throw new IllegalStateException("parse tree has not been numbered");
+		return i;
+	}
+
+	@SuppressWarnings("unchecked")
+	public T get( ParserRuleContext ctx ) {
+		int i = index(ctx);
+		return i < values.length? (T)values[i] : null;
+	}
+
+	public void put( ParserRuleContext ctx, T value ) {
+		int i = index(ctx);
+		if (i >= values.length)
+			values = Arrays.copyOf(values, Math.max(i+1, 2*values.length));
+		values[i] = value;
+	}
+
+	public T removeFrom( ParserRuleContext ctx ) {
+		T old = get(ctx);
+		if (old != null)
+			values[index(ctx)] = null;
+		return old;
+	}
+}
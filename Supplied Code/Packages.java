@@ -12,28 +12,28 @@ public class Packages {
     static Map<String,String> fileToPackage = new HashMap<String,String>() {{
     	put("lib/math","math"); put("fmt", "fmt");
     }};
-	static Packages INSTANCE = new Packages();
+	CompilationContext cc;		// the compilation which imports the packages
 
-	private Packages() { }
+	Packages( CompilationContext cc ) { this.cc = cc; }
 
-    static void handleImport( String filename, Scope scope, ParserRuleContext obj ) {
+    void handleImport( String filename, Scope scope, ParserRuleContext obj ) {
     	String pkgName = fileToPackage.get(filename);
     	if (pkgName == null) {
     		ReportError.error(obj, "unknown/unsupported package: "+filename);
     		return;
     	}
-    	PackageSymbol pkg = INSTANCE.new PackageSymbol(pkgName);
+    	PackageSymbol pkg = new PackageSymbol(pkgName);
     	scope.define(pkg);
     	if (pkgName.equals("fmt")) {
     		LinkedList<Type> parms = new LinkedList<Type>();
     		LinkedList<Type> results = new LinkedList<Type>();
     		parms.add(Type.variadicAnyType);
-    		results.add(Predefined.intType);  results.add(Predefined.stringType);
+    		results.add(cc.intType);  results.add(cc.stringType);
     		Type sig = Type.newFunctionSignature(parms,results);
     		pkg.addMember(new Symbol("Println",Symbol.Kind.Function,sig,scope));
     		pkg.addMember(new Symbol("Print",Symbol.Kind.Function,sig,scope));
     		parms.clear();
-    		parms.add(Predefined.stringType); parms.add(Type.variadicAnyType);
+    		parms.add(cc.stringType); parms.add(Type.variadicAnyType);
     		sig = Type.newFunctionSignature(parms,results);
     		pkg.addMember(new Symbol("Printf",Symbol.Kind.Function,sig,scope));
     	}
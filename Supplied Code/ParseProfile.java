@@ -0,0 +1,99 @@
+// ParseProfile.java
+//
+// Collects the parser's decision statistics for the -dparseprof option.
+// The parser is run with ANTLR's ProfilingATNSimulator, and after each file
+// is parsed its DecisionInfo figures are added to the totals held here,
+// so that one profile covers all the files compiled in one run (or in
+// one compile server request). The report ranks the decisions by the time
+// spent predicting them.
+//
+// Both parses are included when a file is parsed again with LL prediction
+// after SLL prediction has failed (see GooMain.parseSourceFile): the
+// figures of the abandoned SLL parse are added with addPass, and the LL
+// parse is profiled by a new simulator and added with add.
+
+import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.atn.*;
+import java.io.*;
+import java.util.*;
+
+public class ParseProfile {
+	static class Decision {
+		int decision;
+		String rule;
+		long invocations, timeNanos;
+		long sllTotalLook, sllMaxLook, llTotalLook, llMaxLook, llFallbacks;
+		long ambiguities, contextSensitivities;
+	}
+
+	private Map<Integer,Decision> decisions = new HashMap<Integer,Decision>();
+	private int fileCount = 0;
+	private int reparseCount = 0;	// files parsed again with LL prediction
+
+	// adds the figures from a parser which has been run with profiling on
+	public synchronized void add( Parser parser ) {
+		ParseInfo info = parser.getParseInfo();
+		if (info == null)
+			return;		// profiling was not enabled
+		fileCount++;
+		add(parser, info);
+	}
+
+	// adds the figures of one parse of a file which is parsed again
+	public synchronized void addPass( Parser parser ) {
+		ParseInfo info = parser.getParseInfo();
+		if (info == null)
+			return;
+		reparseCount++;
+		add(parser, info);
+	}
+
+	private void add( Parser parser, ParseInfo info ) {
+		for( DecisionInfo di : info.getDecisionInfo() ) {
+			if (di.invocations == 0)
+				continue;
+			Decision d = decisions.get(di.decision);
+			if (d == null) {
+				d = new Decision();
+				d.decision = di.decision;
+				int ruleIndex = parser.getATN().getDecisionState(di.decision).ruleIndex;
+				d.rule = parser.getRuleNames()[ruleIndex];
+				decisions.put(di.decision, d);
+			}
+			d.invocations += di.invocations;
+			d.timeNanos += di.timeInPrediction;
+			d.sllTotalLook += di.SLL_TotalLook;
+			d.sllMaxLook = Math.max(d.sllMaxLook, di.SLL_MaxLook);
+			d.llTotalLook += di.LL_TotalLook;
+			d.llMaxLook = Math.max(d.llMaxLook, di.LL_MaxLook);
+			d.llFallbacks += di.LL_Fallback;
+			d.ambiguities += di.ambiguities.size();
+			d.contextSensitivities += di.contextSensitivities.size();
+		}
+	}
+
+	public synchronized void print( PrintStream out ) {
+		List<Decision> list = new ArrayList<Decision>(decisions.values());
+		Collections.sort(list, new Comparator<Decision>() {
+			public int compare(Decision a, Decision b) {
+				return Long.compare(b.timeNanos, a.timeNanos);
+			}
+		});
+		long total = 0;
+		for( Decision d : list )
+			total += d.timeNanos;
+		out.printf("=== Parser decisions (%d files, %d parsed again with LL, %.3f ms in prediction) ===\n",
+			fileCount, reparseCount, total/1e6);
+		out.printf("  %4s %-20s %10s %10s %6s %9s %8s %9s %8s %6s %6s %6s\n",
+			"dec", "rule", "calls", "time ms", "time%", "SLL avg", "SLL max",
+			"LL calls", "LL avg", "LLmax", "ambig", "ctxsen");
+		for( Decision d : list )
+			out.printf("  %4d %-20s %10d %10.3f %6.1f %9.2f %8d %9d %8.2f %6d %6d %6d\n",
+				d.decision, d.rule, d.invocations, d.timeNanos/1e6,
+				total == 0? 0.0 : 100.0*d.timeNanos/total,
+				(double)d.sllTotalLook/d.invocations, d.sllMaxLook, d.llFallbacks,
+				d.llFallbacks == 0? 0.0 : (double)d.llTotalLook/d.llFallbacks, d.llMaxLook,
+				d.ambiguities, d.contextSensitivities);
+		out.println();
+	}
+}
@@ -0,0 +1,133 @@
+// PhaseTimer.java
+//
+// Measures the compiler phases for the -dtime option. For each phase it
+// records the elapsed (wall clock) time, the CPU time used by the thread
+// and the number of bytes allocated by the thread. Since the figures are
+// per thread, they remain correct when several files are being compiled
+// in parallel. The peak heap size is for the whole JVM.
+//
+// With -dtime the report is a table; with -dtime=json it is a single line
+// holding a JSON object, which is easy to collect from many runs.
+
+import java.io.*;
+import java.lang.management.*;
+import java.util.*;
+
+public class PhaseTimer {
+	static class Phase {
+		String name;
+		long wallNanos, cpuNanos, allocBytes;
+		Phase( String name ) { this.name = name; }
+	}
+
+	private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+	boolean enabled;
+	String fileName;
+	List<Phase> phases = new ArrayList<Phase>();
+	private Phase current = null;
+	private long wall0, cpu0, alloc0;
+
+	public PhaseTimer( boolean enabled, String fileName ) {
+		this.enabled = enabled;
+		this.fileName = fileName;
+	}
+
+	public boolean isEnabled() { return enabled; }
+
+	// ends the current phase (if any) and begins the named one
+	public void start( String name ) {
+		if (!enabled) return;
+		stop();
+		current = new Phase(name);
+		wall0 = System.nanoTime();
+		cpu0 = cpuTime();
+		alloc0 = allocatedBytes();
+	}
+
+	// ends the current phase
+	public void stop() {
+		if (!enabled || current == null) return;
+		current.wallNanos = System.nanoTime() - wall0;
+		current.cpuNanos = cpuTime() - cpu0;
+		current.allocBytes = allocatedBytes() - alloc0;
+		phases.add(current);
+		current = null;
+	}
+
+	private static long cpuTime() {
+		if (!threads.isCurrentThreadCpuTimeSupported())
+			return 0;
+		return threads.getCurrentThreadCpuTime();
+	}
+
+	// the allocation counter is an extension provided by HotSpot
+	private static long allocatedBytes() {
+		if (!(threads instanceof com.sun.management.ThreadMXBean))
+			return 0;
+		com.sun.management.ThreadMXBean t = (com.sun.management.ThreadMXBean)threads;
+		if (!t.isThreadAllocatedMemorySupported() || !t.isThreadAllocatedMemoryEnabled())
+			return 0;
+		return t.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	// the largest amount of heap used so far by the JVM
+	static long peakHeapBytes() {
+		long total = 0;
+		for( MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans() )
+			if (pool.getType() == MemoryType.HEAP)
+				total += pool.getPeakUsage().getUsed();
+		return total;
+	}
+
+	public void print( PrintStream out, boolean json ) {
+		if (!enabled) return;
+		stop();
+		if (json)
+			printJson(out);
+		else
+			printTable(out);
+	}
+
+	private void printTable( PrintStream out ) {
+		long wall = 0, cpu = 0, alloc = 0;
+		out.println("=== Phase times for " + fileName + " ===");
+		out.printf("  %-10s %12s %12s %14s\n", "phase", "wall ms", "cpu ms", "allocated KB");
+		for( Phase p : phases ) {
+			out.printf("  %-10s %12.3f %12.3f %14d\n",
+				p.name, p.wallNanos/1e6, p.cpuNanos/1e6, p.allocBytes/1024);
+			wall += p.wallNanos;  cpu += p.cpuNanos;  alloc += p.allocBytes;
+		}
+		out.printf("  %-10s %12.3f %12.3f %14d\n", "total", wall/1e6, cpu/1e6, alloc/1024);
+		out.printf("  peak heap %d KB\n", peakHeapBytes()/1024);
+		out.println();
+	}
+
+	private void printJson( PrintStream out ) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\"file\":").append(jsonString(fileName)).append(",\"phases\":[");
+		for( int i = 0; i < phases.size(); i++ ) {
+			Phase p = phases.get(i);
+			if (i > 0) sb.append(',');
+			sb.append("{\"name\":").append(jsonString(p.name))
+			  .append(",\"wallNanos\":").append(p.wallNanos)
+			  .append(",\"cpuNanos\":").append(p.cpuNanos)
+			  .append(",\"allocBytes\":").append(p.allocBytes).append('}');
+		}
+		sb.append("],\"peakHeapBytes\":").append(peakHeapBytes()).append('}');
+		out.println(sb.toString());
+	}
+
+	private static String jsonString( String s ) {
+		StringBuilder sb = new StringBuilder("\"");
+		for( char c : s.toCharArray() ) {
+			if (c == '"' || c == '\\')
+				sb.append('\\').append(c);
+			else if (c < ' ')
+				sb.append(String.format("\\u%04x", (int)c));
+			else
+				sb.append(c);
+		}
+		return sb.append('"').toString();
+	}
+}
@@ -3,19 +3,19 @@
 // Adds definitions for predefined symbols to the global scope
 
 public class Predefined {
-	// these three predefined types must sometimes be accessed without going
-	// via symbol table lookup (when library packages are imported)
-	public static Type intType;
-	public static Type stringType;
-	public static Type boolType;
-	public static Type floatType;  // float64 type
-	public static Type runeType;
+	// The predefined names built once and shared by all compilations which
+	// set the sharePredefineds option (as the compile server does).
+	// Sharing is safe because no pass modifies the predefined scope or its
+	// types: makeNamedCopy copies a predeclared type instead of renaming it.
+	private static BlockScope sharedScope = null;
+	private static CompilationContext sharedTypes = null;
 
 	private static void addTypeName( Type t, Scope globals ) {
 		addTypeName(t.getName(), t, globals);
 	}
 
 	private static void addTypeName( String name, Type t, Scope globals ) {
+		t.setPredeclared(true);
 		Symbol sy = new Symbol(name, Symbol.Kind.TypeName, t, globals);
 		globals.define(sy);
 	}
@@ -25,15 +25,17 @@ public class Predefined {
 		globals.define(sy);
     }
 
-    private static void addTypeNames(Scope globals) {
+    // the predefined types which must sometimes be accessed without going
+    // via symbol table lookup are remembered in the compilation context
+    private static void addTypeNames(CompilationContext cc, Scope globals) {
 		Type t = Type.newNumericType('i',32);
 		addTypeName(t, globals);
 		addTypeName("rune", t, globals);  // rune is a synonym for int32
 		t = Type.newNumericType('i',32);
-		runeType = t;
+		cc.runeType = t;
 		t.setName("int");
 		addTypeName(t, globals); // int is not same type as int32
-		intType = t;
+		cc.intType = t;
 		addTypeName(Type.newNumericType('u',32), globals);
 		t = Type.newNumericType('u',32);
 		t.setName("uint");
@@ -43,11 +45,13 @@ public class Predefined {
 		addTypeName(Type.newNumericType('f',32), globals);
 		t = Type.newNumericType('f',64);
 		addTypeName(t, globals);
-		floatType = t;
-		addTypeName(Type.stringType, globals);
-		stringType = Type.stringType;
-		addTypeName(Type.boolType, globals);
-		boolType = Type.boolType;
+		cc.floatType = t;
+		t = Type.newBasicType("string");
+		addTypeName(t, globals);
+		cc.stringType = t;
+		t = Type.newBasicType("bool");
+		addTypeName(t, globals);
+		cc.boolType = t;
     }
 
     private static Type newSig( Type formal1, Type result ) {
@@ -68,17 +72,17 @@ public class Predefined {
             return Type.newFunctionSignature(formals, result);
     }
 
-    private static void addFunctionNames(Scope globals) {
+    private static void addFunctionNames(CompilationContext cc, Scope globals) {
 		Type sig;
 		Type st = Type.newSliceType(Type.anyType); // slice with any element type
 		Type pt = Type.newPointerType(Type.anyType); // pointer to any type
-		sig = newSig(Type.apsType, intType);
+		sig = newSig(Type.apsType, cc.intType);
 		addFuncName("cap", sig, globals);
-		sig = newSig(st, st, intType);
+		sig = newSig(st, st, cc.intType);
 		addFuncName("copy", sig, globals);
-		sig = newSig(Type.apsType, intType);
+		sig = newSig(Type.apsType, cc.intType);
 		addFuncName("len", sig, globals);
-		sig = newSig(st, intType, st);
+		sig = newSig(st, cc.intType, st);
 		addFuncName("make", sig, globals);
 		sig = newSig(Type.anyType, pt);
 		addFuncName("new", sig, globals);
@@ -90,12 +94,30 @@ public class Predefined {
 		globals.define(nil);
     }
 
-	public static void AddPredefinedNames( Scope globals ) {
-        addTypeNames(globals);  // this call must be first
-        addFunctionNames(globals);
-        Symbol tr = new Symbol("true", Symbol.Kind.Constant, boolType, globals);
+	// returns the shared scope of predefined names, creating it if
+	// necessary, and sets the predefined types in cc
+	public static synchronized BlockScope sharedScope( CompilationContext cc ) {
+		if (sharedScope == null) {
+			sharedTypes = new CompilationContext(cc.getOutput());
+			sharedScope = new BlockScope(null);
+			sharedScope.tracing = false;
+			sharedScope.setScopeName("predefined names");
+			AddPredefinedNames(sharedTypes, sharedScope);
+		}
+		cc.intType = sharedTypes.intType;
+		cc.stringType = sharedTypes.stringType;
+		cc.boolType = sharedTypes.boolType;
+		cc.floatType = sharedTypes.floatType;
+		cc.runeType = sharedTypes.runeType;
+		return sharedScope;
+	}
+
+	public static void AddPredefinedNames( CompilationContext cc, Scope globals ) {
+        addTypeNames(cc, globals);  // this call must be first
+        addFunctionNames(cc, globals);
+        Symbol tr = new Symbol("true", Symbol.Kind.Constant, cc.boolType, globals);
         globals.define(tr);
-        Symbol fl = new Symbol("false", Symbol.Kind.Constant, boolType, globals);
+        Symbol fl = new Symbol("false", Symbol.Kind.Constant, cc.boolType, globals);
         globals.define(fl);
         Symbol nil = new Symbol("nil", Symbol.Kind.Constant, Type.nilType, globals);
 	}
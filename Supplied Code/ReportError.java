@@ -1,13 +1,28 @@
 // ReportError.java
 //
 // Handles display of warning and error messages
+//
+// The counts and the output stream belong to the CompilationContext of
+// the compilation running on the current thread, so that when several
+// files are compiled at once each message is attributed to the right file.
 
 import org.antlr.v4.runtime.*;
 import org.antlr.v4.runtime.tree.*;
+import java.io.*;
 
 public class ReportError {
-    private static int errorCount = 0;
-    private static int warningCount = 0;
+
+	// replaces ANTLR's ConsoleErrorListener so that syntax errors go to
+	// the same stream as all other messages for the current compilation
+	public static final BaseErrorListener syntaxErrorListener = new BaseErrorListener() {
+		@Override
+		public void syntaxError( Recognizer<?,?> recognizer, Object offendingSymbol,
+				int line, int charPositionInLine, String msg, RecognitionException e ) {
+			getOutput().println("line " + line + ":" + charPositionInLine + " " + msg);
+		}
+	};
+
+	public static PrintStream getOutput() { return CompilationContext.current().out; }
 
 	// The first argument provides a reference to a parse tree
 	// context from which line & column numbers are obtained.
@@ -22,8 +37,9 @@ public class ReportError {
     }
 
     public static void error( String msg ) {
-        System.out.println(msg);
-        errorCount++;
+    	CompilationContext cc = CompilationContext.current();
+        cc.out.println(msg);
+        cc.errorCount++;
     }
 
 	// The first argument provides a reference to a parse tree
@@ -34,8 +50,9 @@ public class ReportError {
     }
 
     public static void warning( String msg ) {
-        System.out.println(msg);
-        warningCount++;
+    	CompilationContext cc = CompilationContext.current();
+        cc.out.println(msg);
+        cc.warningCount++;
     }
 
 	private static void printLocation( ParserRuleContext ctx ) {
@@ -49,13 +66,14 @@ public class ReportError {
 	}
 
 	private static void printLocation( int line, int col ) {
-		System.out.print("line " + line + ":");
+		PrintStream out = getOutput();
+		out.print("line " + line + ":");
 		if (col > 0)
-			System.out.print(col + " ");
+			out.print(col + " ");
 	}
 
-    public static int getErrorCount() { return errorCount; }
+    public static int getErrorCount() { return CompilationContext.current().errorCount; }
 
-    public static int getWarningCount() { return warningCount; }
+    public static int getWarningCount() { return CompilationContext.current().warningCount; }
 
-}
\ No newline at end of file
+}
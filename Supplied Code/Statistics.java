@@ -0,0 +1,39 @@
+// Statistics.java
+//
+// Named event counters which are displayed by the -dstats option.
+// One instance is shared by all the files compiled in one run (or in
+// one compile server request), so the counts are totals over them.
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+public class Statistics {
+	private final Map<String,AtomicLong> counters = new TreeMap<String,AtomicLong>();
+
+	private AtomicLong counter( String name ) {
+		synchronized(counters) {
+			AtomicLong c = counters.get(name);
+			if (c == null) {
+				c = new AtomicLong();
+				counters.put(name, c);
+			}
+			return c;
+		}
+	}
+
+	public void add( String name, long n ) { counter(name).addAndGet(n); }
+
+	public void increment( String name ) { counter(name).incrementAndGet(); }
+
+	public long get( String name ) { return counter(name).get(); }
+
+	public void print( PrintStream out ) {
+		out.println("=== Statistics ===");
+		synchronized(counters) {
+			for( Map.Entry<String,AtomicLong> e : counters.entrySet() )
+				out.printf("  %-36s %12d\n", e.getKey(), e.getValue().get());
+		}
+		out.println();
+	}
+}
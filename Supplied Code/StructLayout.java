@@ -0,0 +1,86 @@
+// StructLayout.java
+//
+// The layout of a struct type: the number, type and byte offset of each
+// field, and the size and alignment of the whole struct. A Type.Struct
+// builds its layout the first time it is asked for it, once the type is
+// complete (i.e. during code generation), and then keeps it; so accessing
+// a field is a hash lookup of its name rather than a scan of the fields.
+//
+// The field numbers are the indexes used in getelementptr instructions.
+//
+// The sizes and alignments of the fields come from the DataLayout of the
+// target, so the offsets include the padding which LLVM inserts.
+//
+// With -packstructs the fields are placed in order of decreasing
+// alignment (keeping the declaration order among equal alignments), so
+// the small fields such as bools end up together at the end and little
+// or no padding is needed. The field numbers are then the positions in
+// that order, and a field is still found by its name.
+
+import java.util.*;
+
+public class StructLayout {
+	private final Map<String,Integer> index = new HashMap<String,Integer>();
+	private final Symbol[] fields;		// in field number order
+	private final long[] offsets;
+	private final long size;
+	private final long declaredSize;	// the size in declaration order
+	private final int alignment;
+
+	public StructLayout( Type.Struct st, DataLayout dl ) {
+		Collection<Symbol> flds = st.getFields().values();
+		final Symbol[] declared = flds.toArray(new Symbol[flds.size()]);
+		final int[] aligns = new int[declared.length];
+		for( int i = 0; i < declared.length; i++ )
+			aligns[i] = dl.alignmentOf(declared[i].getType());
+		Integer[] order = new Integer[declared.length];
+		for( int i = 0; i < order.length; i++ )
+			order[i] = i;
+		if (dl.reordersFields())
+			Arrays.sort(order, new Comparator<Integer>() {	// a stable sort
+				public int compare( Integer a, Integer b ) {
+					return aligns[b] - aligns[a];
+				}
+			});
+
+		fields = new Symbol[declared.length];
+		offsets = new long[declared.length];
+		long offset = 0, declaredOffset = 0;
+		int align = 1;
+		for( int i = 0; i < fields.length; i++ ) {
+			int d = order[i];
+			fields[i] = declared[d];
+			int fa = aligns[d];
+			offset = DataLayout.roundUp(offset, fa);
+			offsets[i] = offset;
+			offset += dl.sizeOf(fields[i].getType());
+			align = Math.max(align, fa);
+			index.put(fields[i].getName(), i);
+			declaredOffset = DataLayout.roundUp(declaredOffset, aligns[i]) + dl.sizeOf(declared[i].getType());
+		}
+		alignment = align;
+		size = DataLayout.roundUp(offset, align);
+		declaredSize = DataLayout.roundUp(declaredOffset, align);
+	}
+
+	// the field number for a field name, or -1 if there is no such field
+	public int indexOf( String name ) {
+		Integer i = index.get(name);
+		return i == null? -1 : i;
+	}
+
+	public int getFieldCount() { return fields.length; }
+
+	public Symbol getField( int i ) { return fields[i]; }
+
+	public Type getFieldType( int i ) { return fields[i].getType(); }
+
+	public long getOffset( int i ) { return offsets[i]; }
+
+	public long getSize() { return size; }
+
+	// the number of bytes saved by reordering the fields
+	public long getSavedBytes() { return declaredSize - size; }
+
+	public int getAlignment() { return alignment; }
+}
@@ -10,8 +10,9 @@ import org.antlr.v4.runtime.tree.*;
 import java.util.*;
 
 public class SymTabVisitor1 extends GooBaseVisitor<Type> {
-	ParseTreeProperty<Scope> scopes = new ParseTreeProperty<Scope>();
-	ParseTreeProperty<Type> types = new ParseTreeProperty<Type>();
+	CompilationContext cc;
+	NodeTable<Scope> scopes;
+	NodeTable<Type> types;
 	BlockScope globals;
 	Scope currentScope;
 	LinkedList<Type> currentSignatureParams = new LinkedList<Type>();
@@ -20,20 +21,23 @@ public class SymTabVisitor1 extends GooBaseVisitor<Type> {
 	boolean dumpPredefineds = false;
 	
 	// constructor
-	//  t is the -dtsy command line flag
-	//  d is the -dsym command line flag
-	//  p is the -dpre command line flag
-	public SymTabVisitor1( boolean t, boolean d, boolean p ) {
-		Symbol.tracing = t;
-		dumpSymTab = d;
-		dumpPredefineds = p;
+	//  cc provides the -dsym and -dpre command line flags
+	//  nodeCount is the number of nodes in the (numbered) parse tree
+	public SymTabVisitor1( CompilationContext cc, int nodeCount ) {
+		this.cc = cc;
+		scopes = new NodeTable<Scope>(nodeCount);
+		types = new NodeTable<Type>(nodeCount);
+		dumpSymTab = cc.dumpSymTab;
+		dumpPredefineds = cc.dumpPredefineds;
+	}
+
+	public SymTabVisitor1( CompilationContext cc ) {
+		this(cc, 0);
 	}
 
 	// default constructor
 	public SymTabVisitor1() {
-		Symbol.tracing = false;
-		dumpSymTab = false;
-		dumpPredefineds = false;
+		this(CompilationContext.current());
 	}
 
 	// ************ methods for accessing scope/type info for nodes
@@ -43,7 +47,7 @@ public class SymTabVisitor1 extends GooBaseVisitor<Type> {
 		scopes.put(ctx, s);
 	}
 
-	public ParseTreeProperty<Scope> getScopes() {
+	public NodeTable<Scope> getScopes() {
 		return scopes;
 	}
 
@@ -53,7 +57,7 @@ public class SymTabVisitor1 extends GooBaseVisitor<Type> {
 		return t;
 	}
 
-	public ParseTreeProperty<Type> getTypes() {
+	public NodeTable<Type> getTypes() {
 		return types;
 	}
 
@@ -102,14 +106,18 @@ public class SymTabVisitor1 extends GooBaseVisitor<Type> {
 
     @Override
 	public Type visitSourceFile(GooParser.SourceFileContext ctx) {
-		globals = new BlockScope(null);
-		globals.setScopeName("predefined names");
-		Predefined.AddPredefinedNames(globals);
+		if (cc.sharePredefineds)
+			globals = Predefined.sharedScope(cc);
+		else {
+			globals = new BlockScope(null);
+			globals.setScopeName("predefined names");
+			Predefined.AddPredefinedNames(cc, globals);
+		}
 		currentScope = new BlockScope(globals);
 		currentScope.setScopeName("package level names");
 		saveScope(ctx, currentScope);
-	    if (dumpSymTab || Symbol.tracing)
-	        System.out.println("\n=== Pass 1 Output ===\n");
+	    if (dumpSymTab || cc.traceSymTab)
+	        cc.out.println("\n=== Pass 1 Output ===\n");
         visitChildren(ctx);
 		if (dumpSymTab)
 			currentScope.dumpScope();
@@ -121,7 +129,7 @@ public class SymTabVisitor1 extends GooBaseVisitor<Type> {
 
     @Override
     public Type visitTypeName(GooParser.TypeNameContext ctx) {
-		String name = ctx.getText();
+		String name = ctx.Identifier().getText();
 		Symbol sy = currentScope.resolve(name);
 		if (sy == null)     // forward reference to a type?
 		    return Type.unknownType;
@@ -277,7 +285,7 @@ public class SymTabVisitor1 extends GooBaseVisitor<Type> {
 	public Type visitImportPath(GooParser.ImportPathContext ctx) {
 	    // System.out.println("importing: "+ctx.StringLit().getText());
 	    String path = normalizeString(ctx.StringLit().getText(), ctx);
-	    Packages.handleImport(path, currentScope, ctx);
+	    cc.getPackages().handleImport(path, currentScope, ctx);
 	    return null;
 	}
 
@@ -4,12 +4,17 @@
 import org.antlr.v4.runtime.*;
 import org.antlr.v4.runtime.tree.*;
 import java.util.*;
-
-public class SymTabVisitor2 extends GooBaseVisitor<Type> {
-	ParseTreeProperty<Scope> scopes;
-	ParseTreeProperty<Type> types;
+import java.math.*;
+
+public class SymTabVisitor2 extends GooBaseVisitor<Type> implements Ast.Visitor<Type> {
+	CompilationContext cc;
+	NodeTable<Scope> scopes;
+	NodeTable<Type> types;
+	Bindings bindings;
+	NodeTable<Ast.Expr> ast;
 	BlockScope globals;
 	Scope currentScope;
+	Scope packageScope;		// the scope of the package level names
 	LinkedList<Type> currentSignatureParams = new LinkedList<Type>();
 	LinkedList<Type> currentSignatureResult = new LinkedList<Type>();
 	int arraySize = 0;
@@ -18,17 +23,15 @@ public class SymTabVisitor2 extends GooBaseVisitor<Type> {
 	// ************** constructors ******************
 
 	// constructor
-	//  trace is the -dtsy command line flag
-	//  dump  is the -dsym command line flag
-	public SymTabVisitor2( boolean trace, boolean dump, boolean p ) {
-		Symbol.tracing = trace;
-		dumpSymTab = dump;
+	//  cc provides the -dsym command line flag
+	public SymTabVisitor2( CompilationContext cc ) {
+		this.cc = cc;
+		dumpSymTab = cc.dumpSymTab;
 	}
 
 	// default constructor
 	public SymTabVisitor2() {
-		Symbol.tracing = false;
-		dumpSymTab = false;
+		this(CompilationContext.current());
 	}
 
 	// ******methods for associating data with tree nodes *********
@@ -43,24 +46,34 @@ public class SymTabVisitor2 extends GooBaseVisitor<Type> {
 		currentScope = scopes.get(ctx);
 	}
 
-	public void setScopes(ParseTreeProperty<Scope> scopes) {
+	public void setScopes(NodeTable<Scope> scopes) {
 		this.scopes = scopes;
 	}
 
-	public ParseTreeProperty<Scope> getScopes() {
+	public NodeTable<Scope> getScopes() {
 		return scopes;
 	}
 
 	// access or set type information associated with a node
 
-	public void setTypes(ParseTreeProperty<Type> types) {
+	public void setTypes(NodeTable<Type> types) {
 		this.types = types;
 	}
 
-	public ParseTreeProperty<Type> getTypes() {
+	public NodeTable<Type> getTypes() {
 		return types;
 	}
 
+	// the symbols resolved by this pass are recorded in bindings
+	public void setBindings(Bindings bindings) {
+		this.bindings = bindings;
+	}
+
+	// the Ast trees built by AstBuilder, which this pass checks
+	public void setAst(NodeTable<Ast.Expr> ast) {
+		this.ast = ast;
+	}
+
 	// attaches a type to a parse tree node; the type is returned as
 	// the method result because allows visit methods to use succinct
 	// code like this when returning from a visit to node ctx:
@@ -72,18 +85,16 @@ public class SymTabVisitor2 extends GooBaseVisitor<Type> {
 		return typ;
 	}
 
-	public Type lookupType(ParserRuleContext ctx) {     // CHANGED FOR ASS4
+	// the type which pass 1 (or this pass) attached to ctx itself;
+	// the type of an expression is held in its Ast node instead
+	public Type lookupType(ParserRuleContext ctx) {
 		assert ctx != null;
-		Type typ = types.get(ctx);
-        if (typ != null) return typ;
-        if (ctx.getChildCount() == 1 && ctx.getChild(0) instanceof ParserRuleContext)
-        	return lookupType((ParserRuleContext)ctx.getChild(0));
-        return null;
+		return types.get(ctx);
 	}
 
     // Updates the type in a symbol table entry;
     // the entry is created if it does not exist in current scope
-    public void updateOrDefine(Token tok, Symbol.Kind k, Type typ) {
+    public Symbol updateOrDefine(Token tok, Symbol.Kind k, Type typ) {
         Symbol sy = currentScope.resolveInCurrent(tok.getText());
         if (sy != null) {
             sy.setType(typ);
@@ -91,16 +102,21 @@ public class SymTabVisitor2 extends GooBaseVisitor<Type> {
             sy = new Symbol(tok, k, typ, currentScope);
             currentScope.define(sy);
         }
+        return sy;
 	}
 
-    public Type identType( Token tok, ParserRuleContext ctx) {
+    public Symbol identSymbol( Token tok, ParserRuleContext ctx) {
         Symbol sy = currentScope.resolve(tok.getText());
         if (sy == null) {
             sy = new Symbol(tok, Symbol.Kind.Unknown, Type.unknownType, currentScope);
             currentScope.define(sy);
             ReportError.error(ctx, "undeclared identifier: "+tok.getText());
         }
-        return sy.getType();
+        return sy;
+    }
+
+    public Type identType( Token tok, ParserRuleContext ctx) {
+        return identSymbol(tok, ctx).getType();
     }
 
 	// *************** Visit methods *******************
@@ -122,7 +138,7 @@ public class SymTabVisitor2 extends GooBaseVisitor<Type> {
 
     @Override
     public Type visitTypeName(GooParser.TypeNameContext ctx) {
-		String name = ctx.getText();
+		String name = ctx.Identifier().getText();
 		Symbol sy = currentScope.resolve(name);
 		if (sy == null || sy.getKind() != Symbol.Kind.TypeName) {
 			ReportError.error(ctx, name+" is not a type");
@@ -138,19 +154,19 @@ public class SymTabVisitor2 extends GooBaseVisitor<Type> {
 		Type typ = lookupType(ctx);
 		Type lengthType = visit(ctx.arrayLength());
 		Type et = visit(ctx.elementType());
-		if (typ == null)
+		if (typ == null || typ.isCanonical())
 			typ = Type.newArrayType(et);
 		else
 			((Type.Array)typ).setElementType(et);
 		((Type.Array)typ).setSize(arraySize);
-		return associateType(ctx,typ);
+		return associateType(ctx,cc.typeTable.intern(typ));
 	}
 
     @Override
 	public Type visitArrayLength(GooParser.ArrayLengthContext ctx) {
 		Type typ = visit(ctx.expression());
 		arraySize = getIntValue(ctx.expression());
-		TypeChecking.checkAssignability(Predefined.intType, typ, ctx);
+		TypeChecking.checkAssignability(cc.intType, typ, ctx);
 		return associateType(ctx,typ);
 	}
 
@@ -165,7 +181,7 @@ public class SymTabVisitor2 extends GooBaseVisitor<Type> {
 			typ = Type.newSliceType(et);
 		else
 			((Type.Slice)typ).setElementType(et);
-		return associateType(ctx,typ);
+		return associateType(ctx,cc.typeTable.intern(typ));
 	}
 
     @Override
@@ -178,9 +194,7 @@ public class SymTabVisitor2 extends GooBaseVisitor<Type> {
 		currentScope = currentScope.getEnclosingScope();
 	    if (typ != null) {
 	    	// copy over the hopefully fully complete fields of the struct
-	    	Map<String, Symbol> dest = ((Type.Struct)typ).getFields();
-	    	dest.clear();
-	    	dest.putAll(((Type.Struct)newt).getFields());
+	    	((Type.Struct)typ).copyFields((Type.Struct)newt);
 	    	newt = typ;
 	    }
 		return associateType(ctx,newt);
@@ -209,7 +223,7 @@ public class SymTabVisitor2 extends GooBaseVisitor<Type> {
 			typ = Type.newPointerType(bt);
 		else
 			((Type.Pointer)typ).setBaseType(bt);
-		return associateType(ctx,typ);
+		return associateType(ctx,cc.typeTable.intern(typ));
 	}
 
 	// baseType:   type ;
@@ -232,7 +246,7 @@ public class SymTabVisitor2 extends GooBaseVisitor<Type> {
 			((Type.Function)typ).setParameters(currentSignatureParams);
 			((Type.Function)typ).setResults(currentSignatureResult);
 		}
-		return associateType(ctx,typ);
+		return associateType(ctx,cc.typeTable.intern(typ));
 	}
 
 	// result:   type ;
@@ -264,11 +278,13 @@ public class SymTabVisitor2 extends GooBaseVisitor<Type> {
 
 	@Override
 	public Type visitBlock(GooParser.BlockContext ctx) {
-		currentScope = new BlockScope(currentScope);
+		FlatScope block = new FlatScope(currentScope);
+		currentScope = block;
 		visit(ctx.statementList());
 		if (dumpSymTab)
 		    currentScope.dumpScope();
 		saveScope(ctx, currentScope);       // ADDED FOR ASS4
+		block.exit();
 		currentScope = currentScope.getEnclosingScope();
 		return Type.voidType;
 	}
@@ -287,12 +303,16 @@ public class SymTabVisitor2 extends GooBaseVisitor<Type> {
 
     @Override
 	public Type visitConstSpec(GooParser.ConstSpecContext ctx) {
-		List<Token> ids = ctx.identifierList().idl;
 		GooParser.ConstSpecRemContext csrx = ctx.constSpecRem();
 		Type typ = Type.unknownType;  // use this if type is missing
 		if (csrx != null)
-			typ = visit(csrx.type());
-		return matchNamesToTypes(typ, ids, Symbol.Kind.Constant);
+			typ = visit(csrx);
+		typ = matchNamesToTypes(typ, ctx.identifierList(), Symbol.Kind.Constant);
+		if (csrx != null) {
+			requireConstants(csrx.expressionList(), "constant");
+			bindValues(ctx.identifierList(), csrx.expressionList());
+		}
+		return typ;
 	}
 
 	@Override
@@ -305,8 +325,10 @@ public class SymTabVisitor2 extends GooBaseVisitor<Type> {
 		if (typ == Type.unknownType)
 			return typeList;
 		// otherwise have to check that the expressions are compatible
-		for( Type et : typeList.getTypes() ) {
-			TypeChecking.checkAssignability(typ, et, ctx);
+		Type[] ets = typeList.getTypes();
+		for( int k = 0; k < ets.length; k++ ) {
+			TypeChecking.checkAssignability(typ, ets[k], ctx);
+			convertUntyped(ctx.expressionList().exl.get(k), typ);
 		}
 		return typ;
 	}
@@ -346,24 +368,32 @@ public class SymTabVisitor2 extends GooBaseVisitor<Type> {
     @Override
 	public Type visitVarSpec(GooParser.VarSpecContext ctx) {
 		Type typ = visit(ctx.varSpecRem());
-		List<Token> ids = ctx.identifierList().idl;
-		return matchNamesToTypes(typ, ids, Symbol.Kind.Variable);
+		return matchNamesToTypes(typ, ctx.identifierList(), Symbol.Kind.Variable);
 	}
 
+    // The initializers are checked even when pass 1 has already found the
+    // complete type of the variables, so that every name used in them
+    // is bound (see Bindings).
     @Override
 	public Type visitVarSpecRem(GooParser.VarSpecRemContext ctx) {
 		Type typ = lookupType(ctx);
-		if (typ != null && typ.isComplete()) return typ;
 		GooParser.TypeContext tct = ctx.type();
-        if (tct != null)
+        if (tct != null && (typ == null || !typ.isComplete()))
             typ = visit(tct);
         GooParser.ExpressionListContext exctx = ctx.expressionList();
         Type.TypeList extyp = null;
-        if (exctx != null)
+        if (exctx != null) {
         	extyp = (Type.TypeList)visit(exctx);
+        	// a package level variable is initialized in its declaration
+        	// in the LLVM code, which needs a constant
+        	if (currentScope == packageScope)
+        		requireConstants(exctx, "package level variable");
+        }
         if (typ != null && extyp != null) {
-        	for( Type et : extyp.getTypes() ) {
-        		TypeChecking.checkAssignability(typ, et, ctx);
+        	Type[] ets = extyp.getTypes();
+        	for( int k = 0; k < ets.length; k++ ) {
+        		TypeChecking.checkAssignability(typ, ets[k], ctx);
+        		convertUntyped(exctx.exl.get(k), typ);
         	}
         	return associateType(ctx,typ);
         }
@@ -378,11 +408,8 @@ public class SymTabVisitor2 extends GooBaseVisitor<Type> {
 
 	@Override
 	public Type visitShortVarDecl(GooParser.ShortVarDeclContext ctx) {
-		Type typ = lookupType(ctx);
-		if (typ != null && typ.isComplete()) return typ;
-		List<Token> ids = ctx.identifierList().idl;
-		typ = visit(ctx.expressionList());
-		return associateType(ctx, matchNamesToTypes(typ, ids, Symbol.Kind.Variable));
+		Type typ = visit(ctx.expressionList());
+		return associateType(ctx, matchNamesToTypes(typ, ctx.identifierList(), Symbol.Kind.Variable));
 	}
 
     @Override
@@ -391,6 +418,7 @@ public class SymTabVisitor2 extends GooBaseVisitor<Type> {
 		String funcName = funcId.getText();
 		// the function is a package level name and is already in the symbol table
 		FunctionSymbol function = (FunctionSymbol)currentScope.resolveInCurrent(funcName);
+		bindings.bindUse(ctx.functionName(), function);
 		currentScope = function;		// enter the new scope
 		currentSignatureParams.clear(); // prepare to rebuild the signature: param types
 		currentSignatureResult.clear();	// prepare to rebuild the signature: result types
@@ -417,56 +445,11 @@ public class SymTabVisitor2 extends GooBaseVisitor<Type> {
 	// functionBody:   block ;
 
 	// operand:   literal | operandName | '(' expression ')' ;
-	@Override
-	public Type visitOperand(GooParser.OperandContext ctx) {
-	    if (ctx.expression() != null)
-	        return associateType(ctx,visit(ctx.expression()));
-	    return associateType(ctx,visitChildren(ctx));
-	}
-
 	// literal:   basicLit | compositeLit ;
-
-	@Override
-	public Type visitBasicLit(GooParser.BasicLitContext ctx) {
-	    Type typ;
-		if (ctx.IntLit() != null || ctx.FloatLit() != null)
-			typ = Type.newUntypedNumber(ctx.getText());
-		else if (ctx.StringLit() != null)
-			typ = Predefined.stringType;
-		else
-			typ = Predefined.runeType;
-		return associateType(ctx,typ);
-	}
-
-    @Override
-    public Type visitOperandName(GooParser.OperandNameContext ctx) {
-        if (ctx.qualifiedIdent() != null)
-            return associateType(ctx,visit(ctx.qualifiedIdent()));
-        return associateType(ctx,identType(ctx.Identifier().getSymbol(), ctx));
-    }
-
-	@Override
-	public Type visitQualifiedIdent(GooParser.QualifiedIdentContext ctx) {
-		String pkgName = ctx.packageName().getText();
-		String memberName = ctx.Identifier().getText();
-		Symbol pkg = currentScope.resolve(pkgName);
-		if (pkg != null && pkg.getKind() == Symbol.Kind.Package) {
-			Symbol member = ((Packages.PackageSymbol)pkg).getMember(memberName);
-			if (member != null)
-				return associateType(ctx,member.getType()); 
-			ReportError.error(ctx, pkgName + "." + memberName + " not found");
-		} else
-			ReportError.error(ctx, "package " + pkgName + " not found");
-		return Type.unknownType;
-	}
-
-	@Override
-	public Type visitCompositeLit(GooParser.CompositeLitContext ctx) {
-		Type typ = visit(ctx.literalType());
-		Type extyp = visit(ctx.literalValue());
-		TypeChecking.checkAssignability(typ, extyp, ctx);
-		return associateType(ctx,typ);
-	}
+	// basicLit, operandName, compositeLit, literalValue, elementList,
+	// element, value, primaryExpr, newExpr, selector, index, slice,
+	// arguments, unaryExpr, conversion:
+	//   lowered to Ast nodes by AstBuilder, see the Ast visit methods below
 
 	@Override
 	public Type visitLiteralType(GooParser.LiteralTypeContext ctx) {
@@ -476,207 +459,33 @@ public class SymTabVisitor2 extends GooBaseVisitor<Type> {
 			return associateType(ctx,super.visitLiteralType(ctx));
 	}
 
-	@Override
-	public Type visitLiteralValue(GooParser.LiteralValueContext ctx) {
-		GooParser.ElementListContext expList = ctx.elementList();
-		if (expList == null || expList.exl.size() == 0)
-			return associateType(ctx,Type.newTypeList(new Type[0]));
-		Type[] extypes = new Type[expList.exl.size()];
-		int k = 0;
-		for( GooParser.ElementContext xctx : expList.exl )
-			extypes[k++] = visit(xctx);
-		return associateType(ctx,Type.newTypeList(extypes));
-	}
-
-	// elementList:   exl+=element (',' exl+=element)*  ;
-
-	// element:   value ;
-
-	// value:   expression | literalValue ;
-
-	@Override
-	public Type visitPrimaryExpr(GooParser.PrimaryExprContext ctx) {
-		//	Was trying to just visit the NewExprContext but apparently
-		//	visitChildren on that (which the default implementation calls)
-		//	just returned null...
-		if (ctx.newExpr()!=null) return Type.newPointerType(associateType(ctx,associateType(ctx.newExpr(),visit(ctx.newExpr().type()))));
-		if (ctx.operand() != null)
-			return associateType(ctx,visit(ctx.operand()));
-		if (ctx.conversion() != null)
-			return associateType(ctx,visit(ctx.conversion()));
-		Type typ = visit(ctx.primaryExpr());
-		if (ctx.selector() != null) {
-			// it parses as selecting a field from a struct or a
-			// method from an imported package
-			String fieldName = ctx.selector().Identifier().getText();
-			if (typ instanceof Type.Struct) {
-				Symbol s = ((Type.Struct)typ).resolveInCurrent(fieldName);
-				if (s != null)
-					return associateType(ctx,s.getType());
-				ReportError.error(ctx, "field "+fieldName+" not found");
-			} else if (typ instanceof Type.Pointer) {
-			    Type.Pointer ptyp = (Type.Pointer)typ;
-			    if (ptyp.getBaseType() instanceof Type.Struct) {
-			        Type.Struct styp = (Type.Struct)ptyp.getBaseType();
-			        Symbol s = styp.resolveInCurrent(fieldName);
-    				if (s != null)
-    					return associateType(ctx,s.getType());
-    				ReportError.error(ctx, "field "+fieldName+" not found");
-			    } else if (ptyp.getBaseType() != Type.unknownType)
-			        ReportError.error(ctx, "dot operator applied to non-struct value");
-			} else if (typ != Type.unknownType) {
-			    // maybe it was a package name on the left of the dot
-			    String lhs = ctx.primaryExpr().getText();
-			    Symbol sy = currentScope.resolve(lhs);
-			    if (sy != null && sy instanceof Packages.PackageSymbol) {
-			        Packages.PackageSymbol pkg = (Packages.PackageSymbol)sy;
-			        Symbol mem = pkg.getMember(fieldName);
-			        if (mem != null)
-			            return associateType(ctx, mem.getType());
-			        ReportError.error(ctx, "package "+lhs+", unimplemented member: "+fieldName);
-			    } else
-				    ReportError.error(ctx, "dot operator applied to non-struct value");
-			}
-		}
-		if (ctx.index() != null) {
-			// it parses as array or slice indexing
-			visit(ctx.index());
-			if (typ instanceof Type.Array)
-				return associateType(ctx,((Type.Array)typ).getElementType());
-			if (typ instanceof Type.Slice)
-				return associateType(ctx,((Type.Slice)typ).getElementType());
-			if (typ != Type.unknownType)
-			    ReportError.error(ctx, "only an array or slice can be indexed");
-		}
-		if (ctx.slice() != null) {
-			// it parses as taking a slice
-			visit(ctx.slice());
-			if (typ instanceof Type.Slice)
-				return associateType(ctx,typ);
-			// NOT HANDLED -- taking a slice of an array or a string or
-			// a pointer to an array; see
-			//   https://golang.org/ref/spec#Slice_expressions
-			if (typ != Type.unknownType)
-			    ReportError.error(ctx, "slice/array/string type required");
-		}
-		if (ctx.arguments() != null) {
-			// it parses as a function call
-			Type args = visit(ctx.arguments());
-			if (typ instanceof Type.Function) {
-				return associateType(ctx,TypeChecking.checkFunctionCall((Type.Function)typ,
-				    ((Type.TypeList)args).getTypes(), ctx));
-			}
-			String fnpart = ctx.primaryExpr().getText();
-			Symbol fn = currentScope.resolve(fnpart);
-			if (fn != null && fn.getKind() == Symbol.Kind.TypeName) {
-				// handle the grammar ambiguity
-			    if (((Type.TypeList)args).getTypes().length != 1)
-			        ReportError.error(ctx, "type conversion requires one argument");
-			    return associateType(ctx,typ);  // check for valid conversion will be in pass 3
-			}
-			if (typ != Type.unknownType)
-			    ReportError.error(ctx, "arguments can be passed only to a function");
-		}
-		return Type.unknownType;
-	}
-
-	// selector:   '.' Identifier ;
-
-	@Override
-	public Type visitIndex(GooParser.IndexContext ctx) {
-	    Type ixtyp = visit(ctx.expression());
-		TypeChecking.checkAssignability(Predefined.intType, ixtyp, ctx);	// index must be an int
-		return associateType(ctx,ixtyp);
-	}
-
-	@Override
-	public Type visitSlice(GooParser.SliceContext ctx) {
-		List<GooParser.ExpressionContext> positions = ctx.expression();
-		for( GooParser.ExpressionContext pos : positions )
-			TypeChecking.checkAssignability(Predefined.intType, visit(pos), pos);
-		return Type.unknownType;
-	}
-
-	@Override
-	public Type visitArguments(GooParser.ArgumentsContext ctx) {
-		if (ctx.expressionList() == null)
-			return associateType(ctx,Type.newTypeList(new Type[0]));
-		LinkedList<Type> list = new LinkedList<Type>();
-		for( GooParser.ExpressionContext exp : ctx.expressionList().exl ) {
-		    Type typ = visit(exp);
-		    assert typ != null;
-			list.add(typ);
-		}
-		return associateType(ctx,Type.newTypeList(list));
-	}
+	// Each of these is an outermost expression; its Ast tree is checked.
 
 	@Override
 	public Type visitUnExp(GooParser.UnExpContext ctx) {
-		return associateType(ctx, visit(ctx.unaryExpr()));
+		return check(ast.get(ctx));
 	}
 
 	@Override
 	public Type visitNumExp(GooParser.NumExpContext ctx) {
-		Type lhs = visit(ctx.expression(0));
-		Type rhs = visit(ctx.expression(1));
-		if (ctx.mulOp() != null)
-			return associateType(ctx,TypeChecking.checkBinOp(lhs, rhs, ctx.mulOp().getText(), ctx));
-		return associateType(ctx,TypeChecking.checkBinOp(lhs, rhs, ctx.addOp().getText(), ctx));
+		return check(ast.get(ctx));
 	}
 
 	@Override
 	public Type visitRelExp(GooParser.RelExpContext ctx) {
-		Type lhs = visit(ctx.expression(0));
-		Type rhs = visit(ctx.expression(1));
-		return associateType(ctx,TypeChecking.checkBinOp(lhs, rhs, ctx.relOp().getText(), ctx));
-	}
-	
-	@Override
-	public Type visitBoolExp(GooParser.BoolExpContext ctx) {
-		Type lhs = visit(ctx.expression(0));
-		Type rhs = visit(ctx.expression(1));
-		TypeChecking.checkAssignability(Type.boolType,lhs,ctx);
-		TypeChecking.checkAssignability(Type.boolType,rhs,ctx);
-		return associateType(ctx,Type.boolType);
+		return check(ast.get(ctx));
 	}
 
 	@Override
-	public Type visitUnaryExpr(GooParser.UnaryExprContext ctx) {
-		if (ctx.unaryOp() != null) {
-			Type opnd = visit(ctx.unaryExpr());
-			return associateType(ctx,TypeChecking.checkUnaryOp(opnd, ctx.unaryOp().getText(), ctx));
-		}
-		return associateType(ctx,visit(ctx.primaryExpr()));
+	public Type visitBoolExp(GooParser.BoolExpContext ctx) {
+		return check(ast.get(ctx));
 	}
 
 	// relOp:     '==' | '!=' | '<' | '<=' | '>' | '>=' ;
 	// addOp:     '+' | '-' | '|' | '^' ;
 	// mulOp:     '*' | '/' | '%' | '<<' | '>>' | '&' | '&^' ;
 	// unaryOp:   '+' | '-' | '!' | '^' | '*' | '&' ;
-
-    // Careful, conversions can have the same syntax as function calls
-	@Override
-	public Type visitConversion(GooParser.ConversionContext ctx) {
-	    Type typ = visit(ctx.type());
-	    Type arg = visit(ctx.expression());
-	    if (typ.isNamedType())
-	        return associateType(ctx,typ); // we will check the legality of the conversion in pass 3
-	    // is it a function call, the ambiguity??
-	    if (typ instanceof Type.Function)
-	        return associateType(ctx,TypeChecking.checkFunctionCall((Type.Function)typ, new Type[]{arg}, ctx));
-	    if (typ == Type.unknownType)
-	    	return typ;
-	    // if the typ part is an identifier, we have an error because that identifier
-	    // is not a type name nor a function name
-	    String possibleId = ctx.type().getText();
-	    Symbol possibleSym = currentScope.resolve(possibleId);
-	    if (possibleSym != null) {
-	        ReportError.error(ctx, "unknown function or typename: "+possibleId);
-			return Type.unknownType;
-		}
-		// otherwise must be OK (a type but not a type name)
-		return associateType(ctx,typ);
-	}
+	// conversionType:   arrayType | sliceType | structType ;
 
 	// statement:   declaration | labeledStmt | simpleStmt
 	//          |   returnStmt | breakStmt | continueStmt
@@ -718,6 +527,7 @@ public class SymTabVisitor2 extends GooBaseVisitor<Type> {
 			Type ltyp = visit(left.get(k));
 			Type rtyp = visit(right.get(k));
 			TypeChecking.checkAssignability(ltyp, rtyp, ctx);
+			convertUntyped(right.get(k), ltyp);
 		}
 		return Type.voidType;
 	}
@@ -728,7 +538,7 @@ public class SymTabVisitor2 extends GooBaseVisitor<Type> {
 	public Type visitIfStmt(GooParser.IfStmtContext ctx) {
 		if (ctx.simpleStmt() != null) visit(ctx.simpleStmt());
 		Type typ = visit(ctx.expression());
-		TypeChecking.checkAssignability(Type.boolType, typ, ctx);
+		TypeChecking.checkAssignability(cc.boolType, typ, ctx);
 		visit(ctx.block());
 		return visit(ctx.elsePart());
 	}
@@ -745,8 +555,8 @@ public class SymTabVisitor2 extends GooBaseVisitor<Type> {
 	@Override
 	public Type visitCondition(GooParser.ConditionContext ctx) {
 		Type typ = visit(ctx.expression());
-		TypeChecking.checkAssignability(Predefined.boolType, typ, ctx);
-		return associateType(ctx,Type.boolType);
+		TypeChecking.checkAssignability(cc.boolType, typ, ctx);
+		return associateType(ctx,cc.boolType);
 	}
 
 	// forClause:   initStmt ';' condition? ';' postStmt ;
@@ -764,8 +574,10 @@ public class SymTabVisitor2 extends GooBaseVisitor<Type> {
 			Type[] resultTypes = ((Type.Function)(fsy.getType())).getResults();
 			if (retTypes.length > resultTypes.length)
 				ReportError.error(ctx, "too many results returned from function");
-			for( int k=0; k<resultTypes.length; k++ )
+			for( int k=0; k<resultTypes.length && k<retTypes.length; k++ ) {
 				TypeChecking.checkAssignability(resultTypes[k], retTypes[k], ctx);
+				convertUntyped(ctx.expressionList().exl.get(k), resultTypes[k]);
+			}
 		}
 		return Type.voidType;
 	}
@@ -778,9 +590,10 @@ public class SymTabVisitor2 extends GooBaseVisitor<Type> {
 
     @Override
 	public Type visitSourceFile(GooParser.SourceFileContext ctx) {
-	    if (dumpSymTab || Symbol.tracing)
-	        System.out.println("\n=== Pass 2 Output ===\n");
+	    if (dumpSymTab || cc.traceSymTab)
+	        cc.out.println("\n=== Pass 2 Output ===\n");
 		lookupScope(ctx);
+		packageScope = currentScope;
         visitChildren(ctx);
 		if (dumpSymTab)
 			currentScope.dumpScope();
@@ -805,7 +618,9 @@ public class SymTabVisitor2 extends GooBaseVisitor<Type> {
 
 // ********************** utility methods ********************************
 
-	private Type matchNamesToTypes( Type typ, List<Token> ids, Symbol.Kind kind ) {
+	// the symbols are recorded in bindings
+	private Type matchNamesToTypes( Type typ, GooParser.IdentifierListContext idList, Symbol.Kind kind ) {
+		List<Token> ids = idList.idl;
 		Type[] typeList = null;
 		if (typ == null)
 			typ = Type.unknownType;
@@ -819,14 +634,17 @@ public class SymTabVisitor2 extends GooBaseVisitor<Type> {
 		}
 		int k = 0;
 		if (ids != null) {
+			Symbol[] syms = new Symbol[ids.size()];
+			int n = 0;
 		    for( Token tt : ids ) {
 				Type theType;
 				if (typeList != null)
 					theType = typeList[k++];
 				else
 					theType = typ;				
-				updateOrDefine(tt, kind, theType);
+				syms[n++] = updateOrDefine(tt, kind, theType);
 		    }
+		    bindings.bindDeclarations(idList, syms);
 		}
 		return typ;
 	}
@@ -843,27 +661,330 @@ public class SymTabVisitor2 extends GooBaseVisitor<Type> {
 	// This function returns the value of an expression used where
 	// an integer constant is needed -- i.e. an array size.
 	// It requires type checking to have previously been performed
-	// on the expression.
-	// Only explicit constants and named constants with known integer
-	// values are supported as the expressions. (Go allows expressions
-	// with constant values.)
-	private int getIntValue(ParserRuleContext ctx) {
-		Type typ = lookupType(ctx);
-		if (typ != null && typ instanceof Type.UntypedNumber) {
-			Type.UntypedNumber utyp = (Type.UntypedNumber)typ;
-			if (utyp.isInteger()) {
-				long v = utyp.getIntValue();
-				if (v < 0 || v > Integer.MAX_VALUE) {
-					ReportError.error(ctx, "invalid array size: "+v);
-					return -1;
-				}
-				return (int)v;
-			}
+	// on the expression, which may be any constant expression.
+	private int getIntValue(GooParser.ExpressionContext ctx) {
+		Ast.Expr e = ast.get(ctx);
+		Constant c = e.value;
+		if (c == null) {
+			if (e.type != null && e.type != Type.unknownType)
+				ReportError.error(ctx, "array size is not a constant");
+			return -1;
+		}
+		if (!c.isIntegral()) {
 			ReportError.error(ctx, "array size is not an integer");
 			return -1;
 		}
-		if (typ != null && typ != Type.unknownType)
-			ReportError.error(ctx, "unimplemented feature: expressions as array sizes");
-		return -1;
+		BigInteger v = c.bigIntValue();
+		if (v.signum() < 0 || v.bitLength() > 31) {
+			ReportError.error(ctx, "invalid array size: "+v);
+			return -1;
+		}
+		return v.intValue();
+	}
+
+// ********************** Ast visit methods ******************************
+
+	// The type found for each node is recorded in it, as are the symbol
+	// of each name and the value of each constant expression.
+	Type check(Ast.Expr e) {
+		Type typ = e.accept(this);
+		e.type = typ;
+		return typ;
+	}
+
+	@Override
+	public Type visitNameNode(Ast.Name e) {
+		Symbol sy = identSymbol(e.ctx.getStart(), e.ctx);
+		e.symbol = sy;
+		e.value = valueOf(sy);
+		return sy.getType();
+	}
+
+	@Override
+	public Type visitLitNode(Ast.Lit e) {
+		switch(e.tokenType) {
+		case GooParser.IntLit:
+		case GooParser.FloatLit:
+			Type.UntypedNumber typ = Type.newUntypedNumber(e.text);
+			e.value = typ.getValue();
+			return typ;
+		case GooParser.StringLit:
+			e.value = Constant.newString(e.text);
+			return cc.stringType;
+		}
+		return cc.runeType;
+	}
+
+	// a nested literal value has no type of its own; its type is the
+	// list of the types of its elements
+	@Override
+	public Type visitCompositeNode(Ast.Composite e) {
+		Type typ = null;
+		if (e.literalType != null)
+			typ = visit(e.literalType);
+		Type[] extypes = new Type[e.elements.size()];
+		for( int k = 0; k < extypes.length; k++ )
+			extypes[k] = check(e.elements.get(k));
+		Type extyp = Type.newTypeList(extypes);
+		if (typ == null)
+			return extyp;
+		TypeChecking.checkAssignability(typ, extyp, e.ctx);
+		return typ;
+	}
+
+	@Override
+	public Type visitNewNode(Ast.New e) {
+		return Type.newPointerType(visit(e.typeCtx));
+	}
+
+	// Conversions to type names are parsed as function calls (see
+	// visitCallNode); only those to array, slice and struct types remain
+	@Override
+	public Type visitConvertNode(Ast.Convert e) {
+		Type typ = visit(e.typeCtx);
+		check(e.operand);
+		return typ;	// we will check the legality of the conversion in pass 3
+	}
+
+	// it parses as selecting a field from a struct or a
+	// method from an imported package
+	@Override
+	public Type visitSelectorNode(Ast.Selector e) {
+		Type typ = check(e.base);
+		String fieldName = e.name;
+		if (typ instanceof Type.Struct) {
+			Symbol s = ((Type.Struct)typ).resolveInCurrent(fieldName);
+			if (s != null)
+				return s.getType();
+			ReportError.error(e.ctx, "field "+fieldName+" not found");
+		} else if (typ instanceof Type.Pointer) {
+		    Type.Pointer ptyp = (Type.Pointer)typ;
+		    if (ptyp.getBaseType() instanceof Type.Struct) {
+		        Type.Struct styp = (Type.Struct)ptyp.getBaseType();
+		        Symbol s = styp.resolveInCurrent(fieldName);
+				if (s != null)
+					return s.getType();
+				ReportError.error(e.ctx, "field "+fieldName+" not found");
+		    } else if (ptyp.getBaseType() != Type.unknownType)
+		        ReportError.error(e.ctx, "dot operator applied to non-struct value");
+		} else if (typ != Type.unknownType) {
+		    // maybe it was a package name on the left of the dot
+		    Symbol sy = e.base instanceof Ast.Name? ((Ast.Name)e.base).symbol : null;
+		    if (sy instanceof Packages.PackageSymbol) {
+		        Packages.PackageSymbol pkg = (Packages.PackageSymbol)sy;
+		        Symbol mem = pkg.getMember(fieldName);
+		        if (mem != null) {
+		        	e.member = mem;
+		            return mem.getType();
+		        }
+		        ReportError.error(e.ctx, "package "+sy.getName()+", unimplemented member: "+fieldName);
+		    } else
+			    ReportError.error(e.ctx, "dot operator applied to non-struct value");
+		}
+		return Type.unknownType;
+	}
+
+	@Override
+	public Type visitIndexNode(Ast.Index e) {
+		Type typ = check(e.base);
+		Type ixtyp = check(e.index);
+		TypeChecking.checkAssignability(cc.intType, ixtyp, e.index.ctx);	// index must be an int
+		if (typ instanceof Type.Array)
+			return ((Type.Array)typ).getElementType();
+		if (typ instanceof Type.Slice)
+			return ((Type.Slice)typ).getElementType();
+		if (typ != Type.unknownType)
+		    ReportError.error(e.ctx, "only an array or slice can be indexed");
+		return Type.unknownType;
+	}
+
+	@Override
+	public Type visitSliceNode(Ast.Slice e) {
+		Type typ = check(e.base);
+		for( Ast.Expr bound : new Ast.Expr[]{ e.lo, e.hi, e.max } )
+			if (bound != null)
+				TypeChecking.checkAssignability(cc.intType, check(bound), bound.ctx);
+		if (typ instanceof Type.Slice)
+			return typ;
+		// NOT HANDLED -- taking a slice of an array or a string or
+		// a pointer to an array; see
+		//   https://golang.org/ref/spec#Slice_expressions
+		if (typ != Type.unknownType)
+		    ReportError.error(e.ctx, "slice/array/string type required");
+		return Type.unknownType;
+	}
+
+	// handles the grammar ambiguity: it may be a type conversion, whose
+	// function part denotes a type (see TypeChecking.calleeType)
+	@Override
+	public Type visitCallNode(Ast.Call e) {
+		Type typ = check(e.function);
+		Type convType = TypeChecking.calleeType(e.function);
+		Type[] args = new Type[e.args.size()];
+		for( int k = 0; k < args.length; k++ ) {
+			args[k] = check(e.args.get(k));
+			assert args[k] != null;
+		}
+		if (convType != null) {
+			e.conversion = convType;
+		    if (args.length != 1)
+		        ReportError.error(e.ctx, "type conversion requires one argument");
+		    else
+		    	foldConversion(e, e.args.get(0).value, convType);
+		    return convType;  // check for valid conversion will be in pass 3
+		}
+		if (typ instanceof Type.Function)
+			return TypeChecking.checkFunctionCall((Type.Function)typ, args, e.ctx);
+		if (typ != Type.unknownType)
+		    ReportError.error(e.ctx, "arguments can be passed only to a function");
+		return Type.unknownType;
+	}
+
+	@Override
+	public Type visitUnaryNode(Ast.Unary e) {
+		Type opnd = check(e.operand);
+		return foldUnary(e, opnd, TypeChecking.checkUnaryOp(opnd, e.op, e.ctx));
+	}
+
+	@Override
+	public Type visitBinaryNode(Ast.Binary e) {
+		Type lhs = check(e.left);
+		Type rhs = check(e.right);
+		if (e.op.equals("&&") || e.op.equals("||")) {
+			TypeChecking.checkAssignability(cc.boolType,lhs,e.ctx);
+			TypeChecking.checkAssignability(cc.boolType,rhs,e.ctx);
+			return foldBinary(e, lhs, rhs, cc.boolType);
+		}
+		Type typ = TypeChecking.checkBinOp(lhs, rhs, e.op, e.ctx);
+		return foldBinary(e, lhs, rhs, typ);
+	}
+
+	// ********************** constant folding ********************************
+
+	// An untyped constant stored in a variable (or returned as a result) of
+	// numeric type typ takes that type, so that the code generator writes
+	// it as a constant of type typ. It is an error if the value does not
+	// fit in typ.
+	private void convertUntyped(GooParser.ExpressionContext exp, Type typ) {
+		Ast.Expr e = ast.get(exp);
+		if (!(e.type instanceof Type.UntypedNumber)) return;
+		if (!(typ instanceof Type.Int || typ instanceof Type.Uint || typ instanceof Type.Flt)) return;
+		Constant c = e.value;
+		if (c == null) return;
+		Constant v = c.convert(typ);
+		if (v == null) {
+			ReportError.error(exp, c.conversionError(typ));
+			return;
+		}
+		e.value = v;
+		e.type = typ;
+	}
+
+	// the value of a named constant, if it is known
+	private Constant valueOf(Symbol sy) {
+		if (sy.getKind() != Symbol.Kind.Constant) return null;
+		Constant c = bindings.value(sy);
+		if (c != null) return c;
+		Type typ = sy.getType();
+		if (typ instanceof Type.UntypedNumber)
+			return ((Type.UntypedNumber)typ).getValue();
+		if (typ == cc.boolType && sy.getName().equals("true"))
+			return Constant.TRUE;
+		if (typ == cc.boolType && sy.getName().equals("false"))
+			return Constant.FALSE;
+		return null;
+	}
+
+	// reports each expression in exps which is not a constant, as the
+	// initializer of a what
+	private void requireConstants(GooParser.ExpressionListContext exps, String what) {
+		for( GooParser.ExpressionContext exp : exps.exl ) {
+			Ast.Expr e = ast.get(exp);
+			if (e.value == null && e.type != Type.unknownType)
+				ReportError.error(exp, "initializer of "+what+" is not a constant");
+		}
+	}
+
+	// records the values of the constants declared by idList
+	private void bindValues(GooParser.IdentifierListContext idList, GooParser.ExpressionListContext exps) {
+		Symbol[] syms = bindings.declarations(idList);
+		if (syms == null || exps == null) return;
+		int n = Math.min(syms.length, exps.exl.size());
+		for( int k = 0; k < n; k++ ) {
+			Constant c = ast.get(exps.exl.get(k)).value;
+			if (c != null && syms[k] != null)
+				c = c.convert(syms[k].getType());
+			if (c != null)
+				bindings.bindValue(syms[k], c);
+		}
+	}
+
+	// If both operands are constants, the value of  x op y  is recorded
+	// in e, and the result is its type: an untyped number if both operands
+	// are untyped, bool for a comparison, and otherwise the type of the
+	// typed operand. Otherwise the result is typ.
+	private Type foldBinary(Ast.Binary e, Type xtyp, Type ytyp, Type typ) {
+		Constant a = e.left.value;
+		Constant b = e.right.value;
+		if (a == null || b == null) return typ;
+		String op = e.op;
+		Constant c;
+		try {
+			c = Constant.binary(op, a, b);
+		} catch(ArithmeticException ex) {
+			ReportError.error(e.ctx, "division by zero");
+			return typ;
+		}
+		if (c == null) {
+			ReportError.error(e.ctx, "invalid constant operation: "+a+" "+op+" "+b);
+			return typ;
+		}
+		if (c.isBool())
+			return bindFolded(e, c, cc.boolType);
+		Type ctyp = xtyp;	// the type of a shift is that of its left operand
+		if (!op.equals("<<") && !op.equals(">>") && xtyp instanceof Type.UntypedNumber)
+			ctyp = ytyp;
+		if (ctyp instanceof Type.UntypedNumber)
+			return bindFolded(e, c, Type.newUntypedNumber(c));
+		return bindFolded(e, c, ctyp);
+	}
+
+	// as foldBinary, for  op x
+	private Type foldUnary(Ast.Unary e, Type xtyp, Type typ) {
+		Constant a = e.operand.value;
+		if (a == null) return typ;
+		Constant c = Constant.unary(e.op, a, xtyp);
+		if (c == null) {
+			ReportError.error(e.ctx, "invalid constant operation: "+e.op+a);
+			return typ;
+		}
+		if (c.isBool())
+			return bindFolded(e, c, cc.boolType);
+		if (xtyp instanceof Type.UntypedNumber)
+			return bindFolded(e, c, Type.newUntypedNumber(c));
+		return bindFolded(e, c, xtyp);
+	}
+
+	// A conversion of a constant to a numeric type, or of a string or
+	// bool constant to the same kind of type, is a constant of that type.
+	// Other conversions of constants, such as string(65), are left to the
+	// code generator.
+	private void foldConversion(Ast.Call e, Constant c, Type typ) {
+		if (c == null) return;
+		boolean numeric = typ instanceof Type.Int || typ instanceof Type.Uint || typ instanceof Type.Flt;
+		if (numeric && c.isNumeric()
+				|| c.isString() && typ == cc.stringType || c.isBool() && typ == cc.boolType)
+			bindFolded(e, c, typ);
+	}
+
+	private Type bindFolded(Ast.Expr e, Constant c, Type typ) {
+		Constant v = c.convert(typ);
+		if (v == null) {
+			ReportError.error(e.ctx, c.conversionError(typ));
+			return typ;
+		}
+		e.value = v;
+		cc.stats.increment("constants folded");
+		return typ;
 	}
 }
@@ -7,8 +7,6 @@ public class Symbol { // A generic programming language symbol
     enum Kind { Unknown, Variable, Function, Formal, Field,
     			Constant, TypeName, Package, Label }   // CHANGED
     
-    static public boolean tracing = false;
-
     String name;
     Kind kind;
     Type type;
@@ -46,7 +44,11 @@ public class Symbol { // A generic programming language symbol
     public void setName(String n) { name = n; }
 
 	public Type getType() { return type; }
-	public void setType(Type t) { type = t; }
+	public void setType(Type t) {
+		type = t;
+		if (kind == Kind.Field && scope instanceof Type.Struct)
+			((Type.Struct)scope).resolved();	// the struct type has changed
+	}
 
     public Kind getKind() { return kind; }
     public void setkind(Kind k) { kind = k; }
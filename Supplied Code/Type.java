@@ -5,7 +5,9 @@
 //
 // One instance of this class is used for the unknown type -- used when
 // we have not yet determined what the type should be.
-// There are other instances for the string and bool types.
+// There are other instances for the string and bool types; those are
+// created for each compilation (see newBasicType) because a type
+// declaration such as  type S string  gives them a name.
 //
 // Some special types are anyType, variadicAnyType, apsType.
 // They are needed for checking calls to some library functions. For example,
@@ -22,11 +24,10 @@
 //
 
 import java.util.*;
+import java.io.*;
 
 public class Type implements Cloneable {
     public static final Type unknownType = new Type("???", false);
-    public static final Type stringType = new Type("string", true);
-    public static final Type boolType = new Type("bool", true);
     public static final Type labelType = new Type("(label)");
     public static final Type voidType = new Type("(void)", true);
 
@@ -34,12 +35,16 @@ public class Type implements Cloneable {
     public static final Type variadicAnyType = new Type("...(any)", true);
     public static final Type apsType = new Type("array/*array/slice/string", true);
 
-    public static final Type nilType = newPointerType(anyType);
+    public static final Type nilType = unknownType.new Pointer(anyType);
 
 	// instance fields
     String name;
     boolean complete = false;	// false => some component is unknown
     boolean namedType = false;
+    boolean predeclared = false;	// true for int, string, bool ...
+    boolean canonical = false;	// true once entered in the TypeTable
+    boolean completeCached = false;	// isComplete has found the type complete
+    private boolean checkingComplete = false;
 
 	// Constructors -- they are PRIVATE
     private Type() { name = "???"; }
@@ -60,12 +65,54 @@ public class Type implements Cloneable {
 	public boolean isNamedType() { return namedType; }
 	public void setNamedType(boolean b) { namedType = b; }
 
+	public boolean isPredeclared() { return predeclared; }
+	public void setPredeclared(boolean b) { predeclared = b; }
+
+	// a canonical type is shared (see TypeTable) and must not be changed
+	public boolean isCanonical() { return canonical; }
+	void setCanonical() { canonical = true; }
+
+	// replaces the components by their canonical instances; the structure
+	// of the type is unchanged (see TypeTable.intern)
+	void internComponents(TypeTable table) { }
+
+	// The completeness of a type with components is cached once it is
+	// true. A type only becomes complete as the forward references in it
+	// are resolved, and each setter which replaces a component calls
+	// resolved(). A cycle (through a named type) counts as incomplete.
+	boolean cachedComplete() {
+		if (completeCached) return true;
+		if (!complete || checkingComplete) return false;
+		checkingComplete = true;
+		try {
+			completeCached = componentsComplete();
+		} finally {
+			checkingComplete = false;
+		}
+		return completeCached;
+	}
+
+	boolean componentsComplete() { return true; }
+
+	// called when a component of this type has been replaced
+	void resolved() {
+		completeCached = false;
+		CompilationContext.current().typeTable.changed();
+	}
+
 	public Type makeNamedCopy(String name) {
 		Type r = this;
+		// the unknown type is shared by all compilations and stays unnamed;
+		// the type is given its name when pass 2 resolves it
+		if (this == unknownType)
+			return this;
 		// each named type has to be a distinct type which
 		// compares as incompatible with the underlying type
 		// ==> make new copy if underlying type is already named
-		if (namedType && !name.equals(getName()))
+		// (a predeclared type is always copied; it may be shared
+		// with other compilations, and a canonical type is shared
+		// within this one)
+		if ((namedType && !name.equals(getName())) || predeclared || canonical)
 			r = (Type)this.clone();
 		r.setName(name);
 		r.setNamedType(true);
@@ -80,6 +127,11 @@ public class Type implements Cloneable {
 	@Override
     public String toString() { return name; }
 	
+	// creates a type without any components, such as string or bool
+	public static Type newBasicType(String name) {
+		return new Type(name, true);
+	}
+
 	// convenience method for creating int, uint and float types
 	public static Type newNumericType(char w, int size) {
 		Type result = null;
@@ -96,26 +148,41 @@ public class Type implements Cloneable {
 		return result;
 	}
 
-	static HashMap<String,Type.UntypedNumber> unTypNumCache =
-						new HashMap<String,Type.UntypedNumber>();
-
 	// s is the text of the numeric constant (int or float)
 	public static Type.UntypedNumber newUntypedNumber(String s) {
-		Type.UntypedNumber entry = unTypNumCache.get(s);
+		Map<String,Type.UntypedNumber> cache = CompilationContext.current().unTypNumCache;
+		Type.UntypedNumber entry = cache.get(s);
 		if (entry != null) return entry;  // reuse existing instance
-		return unknownType.new UntypedNumber(s);
+		entry = unknownType.new UntypedNumber(s);
+		cache.put(s, entry);
+		return entry;
 	}
 
+	// the type of a constant expression with the numeric value c
+	public static Type.UntypedNumber newUntypedNumber(Constant c) {
+		Map<String,Type.UntypedNumber> cache = CompilationContext.current().unTypNumCache;
+		String s = c.toString();
+		Type.UntypedNumber entry = cache.get(s);
+		if (entry != null) return entry;
+		entry = unknownType.new UntypedNumber(s, c);
+		cache.put(s, entry);
+		return entry;
+	}
+
+	// The size of the array is set later, so the result is not canonical;
+	// pass it to TypeTable.intern once it is complete.
 	public static Type.Array newArrayType(Type elemType) {
 		return unknownType.new Array(elemType);
 	}
  
+	// The slice, pointer and function types are canonical (see TypeTable)
+	// if their components are complete.
  	public static Type.Slice newSliceType(Type elemType) {
-		return unknownType.new Slice(elemType);
+		return (Type.Slice)intern(unknownType.new Slice(elemType));
 	}
 
  	public static Type.Pointer newPointerType(Type baseType) {
-		return unknownType.new Pointer(baseType);
+		return (Type.Pointer)intern(unknownType.new Pointer(baseType));
 	}
 
  	public static Type.Struct newStructType(Scope s) {
@@ -124,26 +191,30 @@ public class Type implements Cloneable {
 
 	public static Type.Function newFunctionSignature(
 				LinkedList<Type> params, LinkedList<Type> results) {
-		return unknownType.new Function(params,results);
+		return (Type.Function)intern(unknownType.new Function(params,results));
 	}
 
     // This method handles the case when a function has any number of results
     // but Goo limits functions to have 0 or 1 result.
 	public static Type.Function newFunctionSignature(Type[] params, Type[] results) {
-		return unknownType.new Function(params,results);
+		return (Type.Function)intern(unknownType.new Function(params,results));
 	}
 
     // For use when function has 0 results (i.e. a void function)
 	public static Type.Function newFunctionSignature(Type[] params) {
 	    Type[] results = new Type[0];
-		return unknownType.new Function(params,results);
+		return (Type.Function)intern(unknownType.new Function(params,results));
 	}
 
     // For use when function has 1 result
 	public static Type.Function newFunctionSignature(Type[] params, Type result) {
 	    Type[] results = new Type[1];
 	    results[0] = result;
-		return unknownType.new Function(params,results);
+		return (Type.Function)intern(unknownType.new Function(params,results));
+	}
+
+	private static Type intern(Type t) {
+		return CompilationContext.current().typeTable.intern(t);
 	}
 
 	public static Type.TypeList newTypeList(LinkedList<Type> types) {
@@ -190,44 +261,51 @@ public class Type implements Cloneable {
         }
     }
 
+	// The value is held exactly (see Constant); an instance is shared by
+	// all the constants with the same text (see newUntypedNumber)
 	public class UntypedNumber extends Type {
 		private String text;
-		private long iValue;
-		private double dValue;
-		private boolean isInt;
-        private boolean isPossibleDouble; // If original text was an int or was actually a double
+		private Constant value;
 		
 		public UntypedNumber( String num ) {
 			text = num;  name = "("+num+")";
 			checkForm();
 		}
 
-		public boolean isInteger() { return isInt; }
+		public UntypedNumber( String num, Constant value ) {
+			text = num;  name = "("+num+")";
+			this.value = value;
+		}
+
+		public Constant getValue() { return value; }
+
+		public boolean isInteger() { return value.isIntegral(); }
 
         // Was the incoming text "2.0" or "2"
-        public boolean isPossibleDouble() { return isPossibleDouble; }
+        public boolean isPossibleDouble() { return value.isFloat(); }
+
+		// the size in bits of the value when it is stored: a float64, or
+		// an int32 unless the integer needs 64 bits
+		public int getStorageSize() {
+			if (isPossibleDouble() || value.bigIntValue().bitLength() >= 32) return 64;
+			return 32;
+		}
 
 		public long getIntValue() {
-			assert isInt; return iValue;
+			assert isInteger(); return value.bigIntValue().longValue();
 		}
 
 		public double getDoubleValue() {
-			assert !isInt; return dValue;
+			assert !isInteger(); return value.doubleValue();
 		}
 
 		private void checkForm() {
-			Double dval;
 			try {
-				dval = new Double(text);
-				iValue = dval.longValue();
-				isInt = (iValue*1.0 == dval);
-                isPossibleDouble = text.contains(".");
-                if (!isInt) dValue = dval;
+				value = Constant.parse(text);
 			} catch(NumberFormatException e) {
 				ReportError.error("bad number: "+text);
-				iValue = 0;
 				text = "0";
-				isInt = true;
+				value = Constant.newInt(0);
 			}
 		}
 
@@ -266,17 +344,27 @@ public class Type implements Cloneable {
         }
 
         public Type getElementType() { return elementType; }
-        public void setElementType(Type et) { elementType = et; }
+        public void setElementType(Type et) {
+        	elementType = et;
+        	setComplete(et.isComplete());
+        	resolved();
+        }
 
         public int getSize() { return size; }
-        public void setSize(int sz) { size = sz; }
+        public void setSize(int sz) { size = sz; resolved(); }
 
 		@Override						// CHANGED IN ASS4
 		public boolean isComplete() {
 			if (size == -1) return false;
-			return complete && elementType.isComplete();
+			return cachedComplete();
 		}
 
+		@Override
+		boolean componentsComplete() { return elementType.isComplete(); }
+
+		@Override
+		void internComponents(TypeTable table) { elementType = table.intern(elementType); }
+
         @Override
         public String toString() {
         	if (recursionStop) return getName();
@@ -288,7 +376,7 @@ public class Type implements Cloneable {
 
         @Override
         protected Object clone() {
-        	Type.Array r = newArrayType(elementType);
+        	Type.Array r = new Array(elementType);
         	r.setSize(size);
         	return r;
         }
@@ -305,13 +393,23 @@ public class Type implements Cloneable {
         }
         
         public Type getElementType() { return elementType; }
-        public void setElementType(Type et) { elementType = et; }
+        public void setElementType(Type et) {
+        	elementType = et;
+        	setComplete(et.isComplete());
+        	resolved();
+        }
 
 		@Override						// CHANGED IN ASS4
 		public boolean isComplete() {
-			return complete && elementType.isComplete();
+			return cachedComplete();
 		}
 
+		@Override
+		boolean componentsComplete() { return elementType.isComplete(); }
+
+		@Override
+		void internComponents(TypeTable table) { elementType = table.intern(elementType); }
+
         @Override
         public String toString() {
         	if (recursionStop) return getName();
@@ -323,7 +421,7 @@ public class Type implements Cloneable {
 
         @Override
         protected Object clone() {
-        	return newSliceType(elementType);
+        	return new Slice(elementType);
         }
     }
 
@@ -338,13 +436,23 @@ public class Type implements Cloneable {
         }
         
         public Type getBaseType() { return baseType; }
-        public void setBaseType(Type bt) { baseType = bt; }
+        public void setBaseType(Type bt) {
+        	baseType = bt;
+        	setComplete(bt.isComplete());
+        	resolved();
+        }
 
 		@Override						// CHANGED IN ASS4
 		public boolean isComplete() {
-			return complete && baseType.isComplete();
+			return cachedComplete();
 		}
 
+		@Override
+		boolean componentsComplete() { return baseType.isComplete(); }
+
+		@Override
+		void internComponents(TypeTable table) { baseType = table.intern(baseType); }
+
         @Override
         public String toString() {
         	if (recursionStop) return getName();
@@ -356,7 +464,7 @@ public class Type implements Cloneable {
 
         @Override
         protected Object clone() {
-        	return newSliceType(baseType);
+        	return new Pointer(baseType);
         }
     }
 
@@ -427,15 +535,20 @@ public class Type implements Cloneable {
 
 		public void setParameters(LinkedList<Type> pt) {
 			parameters = pt.toArray(new Type[0]);
+			setComplete();
+			resolved();
 		}
 		
 		public Type[] getResults() { return results; }
 
 		public void setResults(LinkedList<Type> rt) {
 			results = rt.toArray(new Type[0]);
+			setComplete();
+			resolved();
 		}
 
 		private void setComplete() {
+			this.setComplete(false);
 			for( Type t : parameters )
 				if (!t.isComplete()) return;
 			for( Type t : results )
@@ -443,6 +556,14 @@ public class Type implements Cloneable {
 			this.setComplete(true);
 		}
 
+		@Override
+		void internComponents(TypeTable table) {
+			for( int i = 0; i < parameters.length; i++ )
+				parameters[i] = table.intern(parameters[i]);
+			for( int i = 0; i < results.length; i++ )
+				results[i] = table.intern(results[i]);
+		}
+
 		@Override
 		public String toString() {
 		    StringBuilder sb = new StringBuilder();
@@ -466,7 +587,7 @@ public class Type implements Cloneable {
 
         @Override
         protected Object clone() {
-        	return newFunctionSignature(parameters, results);
+        	return new Function(parameters, results);
         }
 	}
 
@@ -474,6 +595,7 @@ public class Type implements Cloneable {
 		LinkedHashMap<String, Symbol> fields = new LinkedHashMap<String, Symbol>();
 		Scope containingScope;
     	boolean recursionStop = false; // prevent infinite loops in toString()
+    	StructLayout layout = null;    // built by getLayout once complete
 
 		public Struct(Scope s) {
 			name = "struct";
@@ -495,7 +617,11 @@ public class Type implements Cloneable {
 
 		@Override						// CHANGED IN ASS4
 		public boolean isComplete() {
-			if (!complete) return false;
+			return cachedComplete();
+		}
+
+		@Override
+		boolean componentsComplete() {
 			for( Symbol field : fields.values() ) {
 				Type t = field.getType();
 				if (t==null || !t.isComplete()) return false;
@@ -507,7 +633,25 @@ public class Type implements Cloneable {
 	    public Scope getEnclosingScope() { return containingScope;  }
 
 		public LinkedHashMap<String, Symbol> getFields() { return fields; }
-		public void setFields(LinkedHashMap<String, Symbol> f) { fields = f; }
+		public void setFields(LinkedHashMap<String, Symbol> f) { fields = f; layout = null; resolved(); }
+
+		// replaces the fields by (the symbols of) the fields of other
+		public void copyFields(Struct other) {
+			fields.clear();
+			fields.putAll(other.getFields());
+			layout = null;
+			resolved();
+		}
+
+		// the layout is kept only when the type is complete, since the
+		// types of the fields may still change before then
+		public StructLayout getLayout() {
+			if (layout != null) return layout;
+			StructLayout lay = new StructLayout(this, CompilationContext.current().getDataLayout());
+			if (isComplete())
+				layout = lay;
+			return lay;
+		}
 
 	    public void define(Symbol sym) {
 	    	if (resolveInCurrent(sym.name) != null) {
@@ -517,6 +661,8 @@ public class Type implements Cloneable {
 	    	}
 			fields.put(sym.name, sym);
 			sym.setScope(this); // track the scope in each symbol
+			layout = null;
+			resolved();
 			// if (tracing) System.out.println("SY: Defined field: "+sym.name);
 	    }
 
@@ -536,11 +682,12 @@ public class Type implements Cloneable {
 	    }
 
 	    public void dumpScope() {
-			System.out.println(getScopeName() + " {");
+	    	PrintStream out = ReportError.getOutput();
+			out.println(getScopeName() + " {");
 			for( Symbol sy : fields.values() ) {
-				System.out.println("   "+sy.toString());
+				out.println("   "+sy.toString());
 			}
-			System.out.println("}\n");
+			out.println("}\n");
 	    }
 
 	    @Override
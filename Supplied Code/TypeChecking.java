@@ -15,6 +15,7 @@ public class TypeChecking {
 	// This code is incomplete because it does not handle assignment of nil to pointer variables,
 	// and it should handle multiple assignment.
 	// Note that this method should make use of the identicalTypes method defined below.
+	// A successful check of two types is remembered (see TypeTable).
 	public static boolean checkAssignability(Type destTyp, Type srcTyp, ParserRuleContext ctx) {
 		// handle the obvious case!
 		if (destTyp == srcTyp) return true;
@@ -32,8 +33,8 @@ public class TypeChecking {
 			if (destTyp instanceof Type.Flt) return true;
 			if (!(destTyp instanceof Type.Int || destTyp instanceof Type.Uint))
 				return false;
-			// should check whether the number will fit into the particular size
-			// of int provided for destTyp
+			// whether the number fits in destTyp is checked when it is
+			// converted (see SymTabVisitor2.convertUntyped)
 			return ((Type.UntypedNumber)srcTyp).isInteger();
 		}
 	
@@ -53,6 +54,16 @@ public class TypeChecking {
 				return true;
 			}
 		}
+
+		// the remaining checks depend only on the two types
+		TypeTable memo = CompilationContext.current().typeTable;
+		if (memo.knownAssignable(destTyp, srcTyp)) return true;
+		if (!checkTypes(destTyp, srcTyp, ctx)) return false;
+		memo.recordAssignable(destTyp, srcTyp);
+		return true;
+	}
+
+	private static boolean checkTypes(Type destTyp, Type srcTyp, ParserRuleContext ctx) {
 		if ((srcTyp instanceof Type.Pointer) && (destTyp instanceof Type.Pointer)) return checkAssignability(
 			((Type.Pointer)srcTyp).getBaseType(),
 			((Type.Pointer)destTyp).getBaseType(),
@@ -92,6 +103,27 @@ public class TypeChecking {
 		assert restyp[0] != null;
 		return restyp[0];
 	}
+
+	// A conversion to a type name, such as int(x), or to a parenthesized
+	// type, such as (*T)(p), is parsed as a function call. If the function
+	// part of a call denotes a type, that type is the result; otherwise the
+	// result is null. The names in callee must have been bound by pass 2.
+	public static Type calleeType( Ast.Expr callee ) {
+		int pointers = 0;
+		while(callee instanceof Ast.Unary && ((Ast.Unary)callee).op.equals("*")) {
+			pointers++;
+			callee = ((Ast.Unary)callee).operand;
+		}
+		if (!(callee instanceof Ast.Name))
+			return null;
+		Symbol sy = ((Ast.Name)callee).symbol;
+		if (sy == null || sy.getKind() != Symbol.Kind.TypeName)
+			return null;
+		Type typ = sy.getType();
+		for( int i = 0; i < pointers; i++ )
+			typ = Type.newPointerType(typ);
+		return typ;
+	}
  
  	// This function tests if two types have the same underlying types
  	// as explained in the Go specification:
@@ -125,7 +157,18 @@ public class TypeChecking {
  	
  	// This tests for Type Identity as described in the Go specification:
  	//    https://golang.org/ref/spec#Type_identity
+ 	// The result for two types is remembered (see TypeTable).
  	public static boolean identicalTypes( Type a, Type b ) {
+ 		if (a == b) return true;	// e.g. two uses of a canonical type
+ 		TypeTable memo = CompilationContext.current().typeTable;
+ 		Boolean known = memo.lookupIdentical(a, b);
+ 		if (known != null) return known;
+ 		boolean result = compareTypes(a, b);
+ 		memo.recordIdentical(a, b, result);
+ 		return result;
+ 	}
+
+ 	private static boolean compareTypes( Type a, Type b ) {
  		if (a.isNamedType()) {
  			// if two types are named differently, they are not identical!
  			if (b.isNamedType())
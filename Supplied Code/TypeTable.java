@@ -0,0 +1,152 @@
+// TypeTable.java
+//
+// Hash-conses the unnamed pointer, slice, array and function types of one
+// compilation, so that there is a single instance of a type such as *int
+// or []string. Two such types are then identical if they are the same
+// instance, which lets the == tests in TypeChecking succeed and lets the
+// type descriptor cache in LLVM find the type.
+//
+// A type is entered only when it is complete, since pass 2 fills in the
+// components of an incomplete type. A type in the table is marked as
+// canonical and must not be changed afterwards: makeNamedCopy copies it,
+// and pass 2 builds a new type rather than update it.
+//
+// The key holds the components themselves, compared by identity. The
+// unnamed components are interned first, so *[]int is found whichever
+// []int instance it was built from. Named types and struct types are
+// never entered; each remains a distinct type.
+//
+// The results of TypeChecking.identicalTypes and checkAssignability for
+// pairs of types are memoized here too. Since types are still being
+// completed during pass 2, the memo is cleared whenever a component of a
+// type is replaced (see Type.resolved). Only the successful assignability
+// checks are kept, because a failed check reports an error each time.
+
+import java.util.*;
+
+public class TypeTable {
+	static class Key {
+		final Class<?> kind;
+		final int size;			// the length of an array type
+		final Type[] parts;
+		final int hash;
+
+		Key( Class<?> kind, int size, Type[] parts ) {
+			this.kind = kind;  this.size = size;  this.parts = parts;
+			int h = kind.hashCode()*31 + size;
+			for( Type t : parts )
+				h = h*31 + System.identityHashCode(t);
+			hash = h;
+		}
+
+		@Override
+		public int hashCode() { return hash; }
+
+		@Override
+		public boolean equals( Object o ) {
+			if (!(o instanceof Key)) return false;
+			Key k = (Key)o;
+			if (k.kind != kind || k.size != size || k.parts.length != parts.length)
+				return false;
+			for( int i = 0; i < parts.length; i++ )
+				if (k.parts[i] != parts[i])
+					return false;
+			return true;
+		}
+	}
+
+	// a pair of types, compared by identity
+	static class Pair {
+		final Type a, b;
+		Pair( Type a, Type b ) { this.a = a;  this.b = b; }
+
+		@Override
+		public int hashCode() { return System.identityHashCode(a)*31 + System.identityHashCode(b); }
+
+		@Override
+		public boolean equals( Object o ) {
+			return o instanceof Pair && ((Pair)o).a == a && ((Pair)o).b == b;
+		}
+	}
+
+	private Map<Key, Type> table = new HashMap<Key, Type>();
+	private int hits = 0;
+	private Map<Pair, Boolean> identical = new HashMap<Pair, Boolean>();
+	private Set<Pair> assignable = new HashSet<Pair>();
+	int identicalHits = 0, identicalMisses = 0;
+	int assignableHits = 0, assignableMisses = 0;
+
+	public int size() { return table.size(); }
+
+	// the number of times an existing instance was returned
+	public int getHits() { return hits; }
+
+	// returns the canonical instance of typ, entering typ if there is none;
+	// typ itself is returned if it is not a type which can be entered
+	public Type intern( Type typ ) {
+		if (typ.isCanonical() || typ.isNamedType() || !typ.isComplete())
+			return typ;
+		Key key;
+		if (typ instanceof Type.Pointer) {
+			Type.Pointer p = (Type.Pointer)typ;
+			p.internComponents(this);
+			key = new Key(Type.Pointer.class, 0, new Type[]{ p.getBaseType() });
+		} else if (typ instanceof Type.Slice) {
+			Type.Slice s = (Type.Slice)typ;
+			s.internComponents(this);
+			key = new Key(Type.Slice.class, 0, new Type[]{ s.getElementType() });
+		} else if (typ instanceof Type.Array) {
+			Type.Array a = (Type.Array)typ;
+			a.internComponents(this);
+			key = new Key(Type.Array.class, a.getSize(), new Type[]{ a.getElementType() });
+		} else if (typ instanceof Type.Function) {
+			Type.Function f = (Type.Function)typ;
+			f.internComponents(this);
+			Type[] ps = f.getParameters();
+			Type[] rs = f.getResults();
+			Type[] parts = new Type[ps.length + rs.length];
+			System.arraycopy(ps, 0, parts, 0, ps.length);
+			System.arraycopy(rs, 0, parts, ps.length, rs.length);
+			key = new Key(Type.Function.class, ps.length, parts);
+		} else
+			return typ;
+		Type found = table.get(key);
+		if (found != null) {
+			hits++;
+			return found;
+		}
+		typ.setCanonical();
+		table.put(key, typ);
+		return typ;
+	}
+
+	// ******************* memo of type relations **********************
+
+	// forgets the results, after a type has changed
+	public void changed() {
+		if (!identical.isEmpty()) identical.clear();
+		if (!assignable.isEmpty()) assignable.clear();
+	}
+
+	// the remembered result of identicalTypes(a,b), or null
+	public Boolean lookupIdentical( Type a, Type b ) {
+		Boolean r = identical.get(new Pair(a, b));
+		if (r != null) identicalHits++; else identicalMisses++;
+		return r;
+	}
+
+	public void recordIdentical( Type a, Type b, boolean result ) {
+		identical.put(new Pair(a, b), result);
+	}
+
+	// true if a value of type src has been found assignable to dest
+	public boolean knownAssignable( Type dest, Type src ) {
+		boolean r = assignable.contains(new Pair(dest, src));
+		if (r) assignableHits++; else assignableMisses++;
+		return r;
+	}
+
+	public void recordAssignable( Type dest, Type src ) {
+		assignable.add(new Pair(dest, src));
+	}
+}
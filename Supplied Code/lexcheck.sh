@@ -0,0 +1,25 @@
+#!/bin/bash
+# Checks that GooScanner and the generated GooLexer produce identical
+# tokens for every Goo source file in TestFiles and OurTests (or for the
+# files named as arguments). Run  make build  first.
+
+CP="/usr/local/lib/antlr-4.5.1-complete.jar:bin:$CLASSPATH"
+
+if [ $# -eq 0 ]; then
+    set -- ../TestFiles/*.go ../OurTests/goo/*.go
+fi
+
+failed=0
+for f in "$@"; do
+    result=$(java -classpath "$CP" GooMain -dlexcheck "$f" | grep "lexcheck:")
+    case "$result" in
+    *identical*)
+        echo "ok      $f" ;;
+    *)
+        echo "FAILED  $f"
+        echo "    $result"
+        failed=$((failed+1)) ;;
+    esac
+done
+echo "$failed of $# files failed"
+[ $failed -eq 0 ]
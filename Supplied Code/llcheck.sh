@@ -0,0 +1,70 @@
+#!/bin/bash
+# Checks the LLVM code generated for every Goo source file in TestFiles
+# and OurTests (or for the files named as arguments). Each file is
+# compiled with -dverify, which type-checks the generated code, and the
+# .ll file is then assembled with llvm-as if it is installed. A file
+# which the compiler rejects with errors is skipped, unless it lists the
+# errors expected, one per line, as comments of the form
+#     // error: constant 1099511627776 overflows int
+# which must all be reported. Run  make build  first.
+
+CP="/usr/local/lib/antlr-4.5.1-complete.jar:bin:$CLASSPATH"
+
+if [ $# -eq 0 ]; then
+    set -- ../TestFiles/*.go ../OurTests/goo/*.go
+fi
+
+have_as=0
+if command -v llvm-as >/dev/null 2>&1; then
+    have_as=1
+else
+    echo "(llvm-as not found; checking with -dverify only)"
+fi
+
+# the .ll files are written beside copies of the sources
+dir=$(mktemp -d)
+trap 'rm -rf "$dir"' EXIT
+
+failed=0
+for f in "$@"; do
+    src="$dir/$(basename "$f")"
+    ll="${src%.go}.ll"
+    cp "$f" "$src"
+    out=$(java -classpath "$CP" GooMain -dverify "$src" 2>&1)
+    status=$?
+    case "$out" in
+    *"invalid LLVM code"*|*Exception*|*"Internal error"*)
+        echo "FAILED  $f"
+        echo "$out" | grep "invalid LLVM code\|Exception\|Internal error" | sed 's/^/    /'
+        failed=$((failed+1))
+        continue ;;
+    esac
+    expected=$(sed -n 's#^// error: ##p' "$f")
+    if [ -n "$expected" ]; then
+        missing=$(echo "$expected" | while read -r msg; do
+            echo "$out" | grep -qF -- "$msg" || echo "$msg"
+        done)
+        if [ -n "$missing" ]; then
+            echo "FAILED  $f"
+            echo "$missing" | sed 's/^/    not reported: /'
+            failed=$((failed+1))
+        else
+            echo "ok      $f (errors as expected)"
+        fi
+        continue
+    fi
+    # errors found by the type checker leave the exit status 0
+    if [ $status -ne 0 ] || echo "$out" | grep -q "^line [0-9]"; then
+        echo "skip    $f (compilation errors)"
+        continue
+    fi
+    if [ $have_as -eq 1 ] && ! msg=$(llvm-as -o /dev/null "$ll" 2>&1); then
+        echo "FAILED  $f"
+        echo "    $msg"
+        failed=$((failed+1))
+        continue
+    fi
+    echo "ok      $f"
+done
+echo "$failed of $# files failed"
+[ $failed -eq 0 ]
@@ -0,0 +1,61 @@
+#!/bin/bash
+# Measures the time taken to parse a large generated Goo source file.
+# Usage:
+#     ./parsebench.sh [copies] [classdir ...]
+# The file holds the given number (default 2000) of copies of a function
+# using calls, conversions, selectors, indexing and nested expressions.
+# Each classdir is a build of the compiler (default bin); naming the bin
+# directories of two versions compares their parse times. The best of
+# three runs is reported for each.
+
+copies=${1:-2000}
+shift
+if [ $# -eq 0 ]; then
+    set -- bin
+fi
+ANTLR=/usr/local/lib/antlr-4.5.1-complete.jar
+
+dir=$(mktemp -d)
+trap 'rm -rf "$dir"' EXIT
+src="$dir/bench.go"
+{
+    echo 'package main'
+    echo 'import "fmt"'
+    echo 'var arr [10]float64'
+    echo 'func main() {'
+    echo '    fmt.Println("start")'
+    echo '}'
+    for (( i = 0; i < copies; i++ )); do
+        cat <<GOO
+func f$i( k int, x float64 ) int {
+    var y float64
+    y = float64(k*k+1) * x / (x + 2.5) - float64(k)
+    if k > 0 && (y < 100.0 || !(k == 3)) {
+        arr[k%10] = y + arr[(k+1)%10]*float64(int(y)%7)
+        fmt.Println("f$i", k, int(arr[k%10]), y)
+    }
+    for k < 10 {
+        k = k + int(float64(k)*0.5) + 1
+    }
+    return k*2 - int(y) + f$i(k-1, x)
+}
+GOO
+    done
+} > "$src"
+echo "$(wc -l < "$src") lines, $(wc -c < "$src") bytes"
+
+for bin in "$@"; do
+    best=
+    for run in 1 2 3; do
+        ns=$(java -classpath "$ANTLR:$bin" GooMain -dtime=json "$src" \
+            | grep -o '"name":"parse","wallNanos":[0-9]*' | grep -o '[0-9]*$')
+        if [ -z "$ns" ]; then
+            echo "$bin: no timing output"
+            continue 2
+        fi
+        if [ -z "$best" ] || [ "$ns" -lt "$best" ]; then
+            best=$ns
+        fi
+    done
+    echo "$bin: parse $((best / 1000000)) ms"
+done